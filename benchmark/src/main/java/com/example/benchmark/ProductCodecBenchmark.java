@@ -0,0 +1,130 @@
+package com.example.benchmark;
+
+import com.example.ecommerceredisdemo.codec.CompressingCodec;
+import com.example.ecommerceredisdemo.codec.JsonValueCodec;
+import com.example.ecommerceredisdemo.codec.ProductBinaryCodec;
+import com.example.ecommerceredisdemo.codec.ValueCodec;
+import com.example.ecommerceredisdemo.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品详情缓存编码对比（ProductCacheService 中 product:detail:* 的值）
+ * <ul>
+ *     <li>json: Jackson JSON，与切换前的缓存内容相同</li>
+ *     <li>binary: ProductBinaryCodec 紧凑二进制</li>
+ *     <li>binary+deflate: 超过 64 字节时压缩，用于观察长商品名时压缩的收益和开销</li>
+ * </ul>
+ * 不需要 Redis，直接运行 main 先输出每个key的字节数，再运行 JMH 测量编码和解码耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductCodecBenchmark {
+
+    private static final String[] CODECS = {"json", "binary", "binary+deflate"};
+    private static final int[] NAME_LENGTHS = {8, 64, 512};
+
+    // 与 ProductCacheService 的条目头一致：二进制为标记+版本+逻辑过期时间，文本为 ~版本:逻辑过期时间:
+    private static final int BINARY_HEADER_BYTES = 17;
+    private static final int TEXT_HEADER_BYTES = ("~" + 1718000000L + ":" + 1718000600000L + ":").length();
+
+    @Param({"json", "binary", "binary+deflate"})
+    public String codec;
+
+    // 商品名字符数，覆盖普通商品名和带长描述的商品名
+    @Param({"8", "64", "512"})
+    public int nameLength;
+
+    private ValueCodec<Product> valueCodec;
+    private Product product;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        valueCodec = createCodec(codec);
+        product = sampleProduct(nameLength);
+        encoded = valueCodec.encode(product);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return valueCodec.encode(product);
+    }
+
+    @Benchmark
+    public Product decode() {
+        return valueCodec.decode(encoded);
+    }
+
+    static ValueCodec<Product> createCodec(String name) {
+        switch (name) {
+            case "json":
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new JavaTimeModule());
+                mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+                return new JsonValueCodec<>(mapper, Product.class);
+            case "binary":
+                return new ProductBinaryCodec();
+            case "binary+deflate":
+                return new CompressingCodec<>(new ProductBinaryCodec(), 64);
+            default:
+                throw new IllegalArgumentException("未知编码: " + name);
+        }
+    }
+
+    static Product sampleProduct(int nameLength) {
+        StringBuilder name = new StringBuilder(nameLength);
+        String words = "新款智能手机 旗舰版 8GB+256GB 全网通 ";
+        while (name.length() < nameLength) {
+            name.append(words.charAt(name.length() % words.length()));
+        }
+        Product product = new Product();
+        product.setProductId("P000123");
+        product.setName(name.toString());
+        product.setStock(9527);
+        product.setCreatedAt(LocalDateTime.of(2024, 6, 1, 10, 0, 0));
+        product.setUpdatedAt(LocalDateTime.of(2024, 6, 10, 18, 30, 15));
+        return product;
+    }
+
+    /**
+     * 输出每种编码下单个缓存条目的字节数（含条目头），然后运行 JMH
+     */
+    public static void main(String[] args) throws RunnerException {
+        System.out.printf("%-16s %10s %14s %14s%n", "codec", "nameLength", "valueBytes", "entryBytes");
+        for (int nameLength : NAME_LENGTHS) {
+            Product product = sampleProduct(nameLength);
+            for (String name : CODECS) {
+                int bytes = createCodec(name).encode(product).length;
+                int header = "json".equals(name) ? TEXT_HEADER_BYTES : BINARY_HEADER_BYTES;
+                System.out.printf("%-16s %10d %14d %14d%n", name, nameLength, bytes, bytes + header);
+            }
+            System.out.printf("%-16s %10d %14d%n", "(name utf-8)", nameLength,
+                    product.getName().getBytes(StandardCharsets.UTF_8).length);
+        }
+        new Runner(new OptionsBuilder().include(ProductCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
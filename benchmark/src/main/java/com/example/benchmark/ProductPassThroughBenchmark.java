@@ -0,0 +1,82 @@
+package com.example.benchmark;
+
+import com.example.ecommerceredisdemo.codec.ProductCacheEntryCodec;
+import com.example.ecommerceredisdemo.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品详情接口缓存命中时，从 Redis 取到的字节到响应体字节的单次请求开销
+ * <ul>
+ *     <li>parseAndReserialize: 原实现，文本格式条目解析为 Product，再由 Jackson 序列化为响应</li>
+ *     <li>sliceTextEntry: ProductCacheService.getProductDetailJson 对文本格式条目的处理（ProductCacheEntryCodec.sliceJson）</li>
+ *     <li>decodeBinaryAndSerialize: 二进制格式条目解码后序列化一次（之后由进程内JSON缓存直接返回）</li>
+ * </ul>
+ * 条目的编码和截取都直接调用 last 中的 ProductCacheEntryCodec，与线上格式保持一致。
+ * 加 -prof gc 运行可得到每次请求的分配字节数（gc.alloc.rate.norm）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductPassThroughBenchmark {
+
+    // 商品名字符数
+    @Param({"8", "64", "512"})
+    public int nameLength;
+
+    private ProductCacheEntryCodec textCodec;
+    private ProductCacheEntryCodec binaryCodec;
+    private byte[] textEntry;
+    private byte[] binaryEntry;
+
+    @Setup
+    public void setup() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // 与 ProductCacheService 使用同一个条目编码，两种写入格式各一个
+        textCodec = new ProductCacheEntryCodec(objectMapper, false, 512);
+        binaryCodec = new ProductCacheEntryCodec(objectMapper, true, 512);
+
+        Product product = ProductCodecBenchmark.sampleProduct(nameLength);
+        long softExpireAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        textEntry = textCodec.encode(1718000000L, softExpireAt, product);
+        binaryEntry = binaryCodec.encode(1718000000L, softExpireAt, product);
+    }
+
+    @Benchmark
+    public byte[] parseAndReserialize() {
+        return textCodec.toJson(textCodec.decode(textEntry).product());
+    }
+
+    @Benchmark
+    public byte[] sliceTextEntry() {
+        byte[] json = ProductCacheEntryCodec.sliceJson(textEntry, System.currentTimeMillis());
+        if (json == null) {
+            throw new IllegalStateException("条目已逻辑过期");
+        }
+        return json;
+    }
+
+    @Benchmark
+    public byte[] decodeBinaryAndSerialize() {
+        return binaryCodec.toJson(binaryCodec.decode(binaryEntry).product());
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.benchmark;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀扣减库存实现对比
+ * 逐一复现仓库中已有的几种实现的 Redis 命令序列：
+ * <ul>
+ *     <li>naiveGetDecr: SecKill_redis666，GET 判断后 DECR，无并发控制</li>
+ *     <li>watchMulti: SecKill_redis，WATCH + MULTI/EXEC 乐观锁</li>
+ *     <li>jedisLuaScriptLoad: SecKill_redisByScript，每次请求 SCRIPT LOAD 后 EVALSHA</li>
+ *     <li>jedisLuaCachedSha: 同上，但 SHA 只加载一次，用于区分 SCRIPT LOAD 本身的开销</li>
+ *     <li>lettuceLua: StockManagementService.decrementStock，共享 Lettuce 连接执行 check_and_decr_stock.lua</li>
+ * </ul>
+ * 原实现中每次请求新建连接、打印日志，这里统一使用连接池且不打印，只比较算法本身。
+ * 超卖通过 DECR/DECRBY 返回负数的次数统计，每个负数代表多卖出一件。
+ * 有库存与已抢空两条路径耗时差别很大，按 scenario 分开测量，避免吞吐量混合两者：
+ * <ul>
+ *     <li>inStock: 每轮迭代库存重置为 initialStock，迭代结束时仍须有剩余，否则报错要求调大库存</li>
+ *     <li>soldOut: 库存为0，只测“已抢空”分支</li>
+ *     <li>sellOut: 每轮迭代库存重置为 initialStock 且不检查剩余，配合较小的库存观察售罄瞬间的超卖和放弃率</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SecKillBenchmark {
+
+    @Param({"127.0.0.1"})
+    public String host;
+
+    @Param({"6379"})
+    public int port;
+
+    @Param({"inStock", "soldOut"})
+    public String scenario;
+
+    // inStock、sellOut 每轮迭代开始时的库存，inStock 下需大于单轮迭代的总请求数
+    @Param({"100000000"})
+    public int initialStock;
+
+    private static final String PROD_ID = "0101";
+    private static final String QT_KEY = "sk:" + PROD_ID + ":qt";
+    private static final String USER_KEY = "sk:" + PROD_ID + ":user";
+    private static final String SCRIPT_USER_KEY = "sk:" + PROD_ID + ":usr";
+    private static final String LETTUCE_STOCK_KEY = "product:stock:" + PROD_ID;
+
+    // SecKill_redisByScript 中的脚本，仅去掉 \r
+    private static final String SEC_KILL_SCRIPT = "local userid=KEYS[1];\n"
+            + "local prodid=KEYS[2];\n"
+            + "local qtkey='sk:'..prodid..\":qt\";\n"
+            + "local usersKey='sk:'..prodid..\":usr\";\n"
+            + "local userExists=redis.call(\"sismember\",usersKey,userid);\n"
+            + "if tonumber(userExists)==1 then \n"
+            + "   return 2;\n"
+            + "end\n"
+            + "local num= redis.call(\"get\" ,qtkey);\n"
+            + "if tonumber(num)<=0 then \n"
+            + "   return 0;\n"
+            + "else \n"
+            + "   redis.call(\"decr\",qtkey);\n"
+            + "   redis.call(\"sadd\",usersKey,userid);\n"
+            + "end\n"
+            + "return 1";
+
+    private JedisPool jedisPool;
+    private RedisClient lettuceClient;
+    private StatefulRedisConnection<String, String> lettuceConnection;
+    private RedisCommands<String, String> lettuceCommands;
+    private String secKillSha;
+    private String checkAndDecrSha;
+
+    /**
+     * 每个线程的结果计数，JMH 汇总后与吞吐量一起输出
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public long success;
+        public long soldOut;
+        public long repeatUser;
+        public long watchAborted;
+        public long oversold;
+
+        private final String uidPrefix = UUID.randomUUID().toString().substring(0, 8) + ":";
+        private long seq;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            success = 0;
+            soldOut = 0;
+            repeatUser = 0;
+            watchAborted = 0;
+            oversold = 0;
+        }
+
+        String nextUid() {
+            return uidPrefix + (seq++);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(256);
+        poolConfig.setMaxIdle(256);
+        poolConfig.setBlockWhenExhausted(true);
+        jedisPool = new JedisPool(poolConfig, host, port, 60000);
+
+        lettuceClient = RedisClient.create("redis://" + host + ":" + port);
+        lettuceConnection = lettuceClient.connect();
+        lettuceCommands = lettuceConnection.sync();
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            secKillSha = jedis.scriptLoad(SEC_KILL_SCRIPT);
+        }
+        checkAndDecrSha = lettuceCommands.scriptLoad(loadScript("lua/check_and_decr_stock.lua"));
+    }
+
+    @Setup(Level.Iteration)
+    public void restock() {
+        String stock = "soldOut".equals(scenario) ? "0" : String.valueOf(initialStock);
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(USER_KEY, SCRIPT_USER_KEY);
+            jedis.set(QT_KEY, stock);
+            jedis.set(LETTUCE_STOCK_KEY, stock);
+        }
+    }
+
+    /**
+     * inStock 下迭代内售罄时结果混入了已抢空分支，直接报错而不是输出混合后的吞吐量
+     */
+    @TearDown(Level.Iteration)
+    public void checkRemainingStock() {
+        if (!"inStock".equals(scenario)) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            long remaining = Math.min(Long.parseLong(jedis.get(QT_KEY)), Long.parseLong(jedis.get(LETTUCE_STOCK_KEY)));
+            if (remaining <= 0) {
+                throw new IllegalStateException("库存在迭代内售罄，请调大 initialStock（当前 " + initialStock + "）");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        lettuceConnection.close();
+        lettuceClient.shutdown();
+        jedisPool.close();
+    }
+
+    /**
+     * SecKill_redis666：先 GET 判断库存，再 DECR，判断与扣减之间可能被其他请求插入
+     */
+    @Benchmark
+    public boolean naiveGetDecr(Outcome outcome) {
+        String uid = outcome.nextUid();
+        try (Jedis jedis = jedisPool.getResource()) {
+            String kc = jedis.get(QT_KEY);
+            if (kc == null) {
+                return false;
+            }
+            if (jedis.sismember(USER_KEY, uid)) {
+                outcome.repeatUser++;
+                return false;
+            }
+            if (Integer.parseInt(kc) <= 0) {
+                outcome.soldOut++;
+                return false;
+            }
+            long remaining = jedis.decr(QT_KEY);
+            jedis.sadd(USER_KEY, uid);
+            if (remaining < 0) {
+                outcome.oversold++;
+            }
+            outcome.success++;
+            return true;
+        }
+    }
+
+    /**
+     * SecKill_redis：WATCH 库存key，MULTI/EXEC 中扣减，EXEC 返回 null 表示被并发修改而放弃
+     */
+    @Benchmark
+    public boolean watchMulti(Outcome outcome) {
+        String uid = outcome.nextUid();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.watch(QT_KEY);
+            String kc = jedis.get(QT_KEY);
+            if (kc == null) {
+                jedis.unwatch();
+                return false;
+            }
+            if (jedis.sismember(USER_KEY, uid)) {
+                jedis.unwatch();
+                outcome.repeatUser++;
+                return false;
+            }
+            if (Integer.parseInt(kc) <= 0) {
+                jedis.unwatch();
+                outcome.soldOut++;
+                return false;
+            }
+            Transaction multi = jedis.multi();
+            multi.decr(QT_KEY);
+            multi.sadd(USER_KEY, uid);
+            List<Object> results = multi.exec();
+            if (results == null || results.isEmpty()) {
+                outcome.watchAborted++;
+                return false;
+            }
+            if ((Long) results.get(0) < 0) {
+                outcome.oversold++;
+            }
+            outcome.success++;
+            return true;
+        }
+    }
+
+    /**
+     * SecKill_redisByScript：每次请求都 SCRIPT LOAD 再 EVALSHA
+     */
+    @Benchmark
+    public boolean jedisLuaScriptLoad(Outcome outcome) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String sha = jedis.scriptLoad(SEC_KILL_SCRIPT);
+            return recordScriptResult(outcome, jedis.evalsha(sha, 2, outcome.nextUid(), PROD_ID));
+        }
+    }
+
+    /**
+     * 与 jedisLuaScriptLoad 相同的脚本，SHA 只加载一次
+     */
+    @Benchmark
+    public boolean jedisLuaCachedSha(Outcome outcome) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return recordScriptResult(outcome, jedis.evalsha(secKillSha, 2, outcome.nextUid(), PROD_ID));
+        }
+    }
+
+    /**
+     * StockManagementService.decrementStock：共享的 Lettuce 连接执行 check_and_decr_stock.lua
+     */
+    @Benchmark
+    public boolean lettuceLua(Outcome outcome) {
+        Long result = lettuceCommands.evalsha(checkAndDecrSha, ScriptOutputType.INTEGER,
+                new String[]{LETTUCE_STOCK_KEY}, "1");
+        if (result >= 0) {
+            outcome.success++;
+            return true;
+        }
+        if (result == -1) {
+            outcome.soldOut++;
+        }
+        return false;
+    }
+
+    private static boolean recordScriptResult(Outcome outcome, Object result) {
+        long code = ((Number) result).longValue();
+        if (code == 1) {
+            outcome.success++;
+            return true;
+        }
+        if (code == 0) {
+            outcome.soldOut++;
+        } else if (code == 2) {
+            outcome.repeatUser++;
+        }
+        return false;
+    }
+
+    private static String loadScript(String path) throws IOException {
+        try (InputStream in = SecKillBenchmark.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("找不到脚本: " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
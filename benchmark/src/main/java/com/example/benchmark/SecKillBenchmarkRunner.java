@@ -0,0 +1,32 @@
+package com.example.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 按不同线程数依次运行秒杀基准测试，每个线程数输出一份 JSON 结果
+ * 用法: java -jar target/benchmarks.jar [线程数,...] [Redis地址]
+ * 例如: java -jar target/benchmarks.jar 1,8,32,64 127.0.0.1
+ */
+public class SecKillBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String threadCounts = args.length > 0 ? args[0] : "1,8,32,64";
+        String host = args.length > 1 ? args[1] : "127.0.0.1";
+
+        for (String threads : threadCounts.split(",")) {
+            int threadCount = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(SecKillBenchmark.class.getSimpleName())
+                    .threads(threadCount)
+                    .param("host", host)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("seckill-t" + threadCount + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.ecommerceredisdemo.codec;
+
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 购物车 Hash 字段值的序列化：数量直接写为十进制数字，与 HINCRBY 的存储格式一致，不经过 Jackson
+ * 读取时先按十进制数字解析，失败时按旧的 JSON 格式兜底（迁移期间的旧值）
+ */
+public class CartQuantitySerializer implements RedisSerializer<Object> {
+
+    private final GenericJackson2JsonRedisSerializer legacy = new GenericJackson2JsonRedisSerializer();
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            return value.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        return legacy.serialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        Long number = parseDecimal(bytes);
+        if (number == null) {
+            return legacy.deserialize(bytes);
+        }
+        // 购物车代码按 Integer 读取数量
+        return number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE ? (Object) number.intValue() : number;
+    }
+
+    private static Long parseDecimal(byte[] bytes) {
+        if (bytes.length > 19) {
+            return null;
+        }
+        int i = bytes[0] == '-' ? 1 : 0;
+        if (i == bytes.length) {
+            return null;
+        }
+        long value = 0;
+        for (; i < bytes.length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return null;
+            }
+            value = value * 10 + digit;
+        }
+        return bytes[0] == '-' ? -value : value;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.ecommerceredisdemo.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 超过阈值时 Deflate 压缩的包装编码
+ * 首字节为标记：0 未压缩，1 已压缩；压缩后没有变小时保留原始内容
+ */
+public class CompressingCodec<T> implements ValueCodec<T> {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    private final ValueCodec<T> delegate;
+    private final int threshold;
+
+    /**
+     * @param delegate 实际的编码
+     * @param threshold 编码后超过该字节数才压缩
+     */
+    public CompressingCodec(ValueCodec<T> delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        byte[] raw = delegate.encode(value);
+        if (raw.length > threshold) {
+            byte[] compressed = deflate(raw);
+            if (compressed.length < raw.length) {
+                return prefix(DEFLATED, compressed);
+            }
+        }
+        return prefix(RAW, raw);
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        byte[] payload = Arrays.copyOfRange(bytes, 1, bytes.length);
+        return switch (bytes[0]) {
+            case RAW -> delegate.decode(payload);
+            case DEFLATED -> delegate.decode(inflate(payload));
+            default -> throw new IllegalArgumentException("未知的压缩标记: " + bytes[0]);
+        };
+    }
+
+    @Override
+    public String name() {
+        return delegate.name() + "+deflate";
+    }
+
+    private static byte[] prefix(byte flag, byte[] payload) {
+        byte[] result = new byte[payload.length + 1];
+        result[0] = flag;
+        System.arraycopy(payload, 0, result, 1, payload.length);
+        return result;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+            byte[] chunk = new byte[512];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] chunk = new byte[512];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("压缩数据不完整");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("解压失败: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Jackson JSON 编解码，与原有缓存格式相同
+ */
+public class JsonValueCodec<T> implements ValueCodec<T> {
+
+    private final ObjectMapper objectMapper;
+    private final Class<T> type;
+
+    public JsonValueCodec(ObjectMapper objectMapper, Class<T> type) {
+        this.objectMapper = objectMapper;
+        this.type = type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JSON序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return objectMapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JSON反序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.example.ecommerceredisdemo.entity.Product;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 商品的紧凑二进制编码
+ * 布局：格式版本(1字节) + 空值位图(1字节) + productId、name(UTF) + stock(int) + createdAt、updatedAt(UTC秒 long)
+ * 为空的字段只在位图中标记，不写入内容；新增字段时提升格式版本，解码按版本读取
+ */
+public class ProductBinaryCodec implements ValueCodec<Product> {
+
+    private static final byte FORMAT_V1 = 1;
+
+    private static final int HAS_PRODUCT_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_STOCK = 1 << 2;
+    private static final int HAS_CREATED_AT = 1 << 3;
+    private static final int HAS_UPDATED_AT = 1 << 4;
+
+    @Override
+    public byte[] encode(Product product) {
+        int present = (product.getProductId() != null ? HAS_PRODUCT_ID : 0)
+                | (product.getName() != null ? HAS_NAME : 0)
+                | (product.getStock() != null ? HAS_STOCK : 0)
+                | (product.getCreatedAt() != null ? HAS_CREATED_AT : 0)
+                | (product.getUpdatedAt() != null ? HAS_UPDATED_AT : 0);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(FORMAT_V1);
+            out.writeByte(present);
+            if (product.getProductId() != null) {
+                out.writeUTF(product.getProductId());
+            }
+            if (product.getName() != null) {
+                out.writeUTF(product.getName());
+            }
+            if (product.getStock() != null) {
+                out.writeInt(product.getStock());
+            }
+            if (product.getCreatedAt() != null) {
+                out.writeLong(product.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            }
+            if (product.getUpdatedAt() != null) {
+                out.writeLong(product.getUpdatedAt().toEpochSecond(ZoneOffset.UTC));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("商品二进制编码失败: " + e.getMessage(), e);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public Product decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            byte format = in.readByte();
+            if (format != FORMAT_V1) {
+                throw new IllegalArgumentException("不支持的商品编码版本: " + format);
+            }
+            int present = in.readUnsignedByte();
+            Product product = new Product();
+            if ((present & HAS_PRODUCT_ID) != 0) {
+                product.setProductId(in.readUTF());
+            }
+            if ((present & HAS_NAME) != 0) {
+                product.setName(in.readUTF());
+            }
+            if ((present & HAS_STOCK) != 0) {
+                product.setStock(in.readInt());
+            }
+            if ((present & HAS_CREATED_AT) != 0) {
+                product.setCreatedAt(LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC));
+            }
+            if ((present & HAS_UPDATED_AT) != 0) {
+                product.setUpdatedAt(LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC));
+            }
+            return product;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("商品二进制解码失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.example.ecommerceredisdemo.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Redis 中商品详情缓存条目的格式，读取时按首字节识别：
+ * 二进制 0x01 + 版本(long) + 逻辑过期时间(long) + 商品二进制编码（超过阈值时压缩）；
+ * 文本 '~' + 版本 + ':' + 逻辑过期时间 + ':' + 商品JSON；
+ * 旧格式为纯商品JSON，只依赖物理过期。写入哪一种由构造参数决定
+ */
+public class ProductCacheEntryCodec {
+
+    private static final byte BINARY_ENTRY_MARKER = 0x01;
+    private static final byte ENTRY_MARKER = '~';
+    private static final int BINARY_HEADER_LENGTH = 17;
+
+    /**
+     * 缓存条目
+     * @param version 商品版本（updated_at 秒级时间戳），旧格式为0
+     * @param softExpireAt 逻辑过期时间（毫秒），旧格式为 Long.MAX_VALUE
+     */
+    public record CacheEntry(long version, long softExpireAt, Product product) {
+    }
+
+    private final ValueCodec<Product> jsonCodec;
+    private final ValueCodec<Product> binaryCodec;
+    private final boolean writeBinary;
+
+    /**
+     * @param objectMapper JSON 编码使用的 ObjectMapper
+     * @param writeBinary 是否按二进制格式写入
+     * @param compressionThreshold 二进制编码超过该字节数时压缩
+     */
+    public ProductCacheEntryCodec(ObjectMapper objectMapper, boolean writeBinary, int compressionThreshold) {
+        this.jsonCodec = new JsonValueCodec<>(objectMapper, Product.class);
+        this.binaryCodec = new CompressingCodec<>(new ProductBinaryCodec(), compressionThreshold);
+        this.writeBinary = writeBinary;
+    }
+
+    public byte[] encode(long version, long softExpireAt, Product product) {
+        if (!writeBinary) {
+            String header = (char) ENTRY_MARKER + String.valueOf(version) + ":" + softExpireAt + ":";
+            byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+            byte[] json = jsonCodec.encode(product);
+            return ByteBuffer.allocate(headerBytes.length + json.length).put(headerBytes).put(json).array();
+        }
+        byte[] payload = binaryCodec.encode(product);
+        return ByteBuffer.allocate(BINARY_HEADER_LENGTH + payload.length)
+                .put(BINARY_ENTRY_MARKER).putLong(version).putLong(softExpireAt).put(payload).array();
+    }
+
+    /**
+     * 解码缓存条目，按首字节识别二进制、带版本的文本和纯JSON三种格式
+     */
+    public CacheEntry decode(byte[] raw) {
+        if (raw.length >= BINARY_HEADER_LENGTH && raw[0] == BINARY_ENTRY_MARKER) {
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            buffer.get();
+            long version = buffer.getLong();
+            long softExpireAt = buffer.getLong();
+            byte[] payload = Arrays.copyOfRange(raw, BINARY_HEADER_LENGTH, raw.length);
+            return new CacheEntry(version, softExpireAt, binaryCodec.decode(payload));
+        }
+        if (raw.length == 0 || raw[0] != ENTRY_MARKER) {
+            // 旧格式纯JSON，只依赖物理过期
+            return new CacheEntry(0, Long.MAX_VALUE, jsonCodec.decode(raw));
+        }
+        String text = new String(raw, StandardCharsets.UTF_8);
+        int versionEnd = text.indexOf(':');
+        int expireEnd = text.indexOf(':', versionEnd + 1);
+        return new CacheEntry(Long.parseLong(text.substring(1, versionEnd)),
+                Long.parseLong(text.substring(versionEnd + 1, expireEnd)),
+                jsonCodec.decode(text.substring(expireEnd + 1).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 从未逻辑过期的文本格式条目中截取商品JSON，不解析JSON本身
+     * @param now 当前时间（毫秒）
+     * @return 商品JSON，二进制条目或已逻辑过期时返回null
+     */
+    public static byte[] sliceJson(byte[] raw, long now) {
+        if (raw.length == 0) {
+            return null;
+        }
+        if (raw[0] == '{') {
+            // 旧格式纯JSON
+            return raw;
+        }
+        if (raw[0] != ENTRY_MARKER) {
+            return null;
+        }
+        int versionEnd = indexOf(raw, (byte) ':', 1);
+        int expireEnd = versionEnd < 0 ? -1 : indexOf(raw, (byte) ':', versionEnd + 1);
+        if (expireEnd < 0) {
+            return null;
+        }
+        long softExpireAt = Long.parseLong(new String(raw, versionEnd + 1, expireEnd - versionEnd - 1, StandardCharsets.US_ASCII));
+        if (now >= softExpireAt) {
+            return null;
+        }
+        return Arrays.copyOfRange(raw, expireEnd + 1, raw.length);
+    }
+
+    private static int indexOf(byte[] bytes, byte target, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 商品JSON（详情接口输出）
+     */
+    public byte[] toJson(Product product) {
+        return jsonCodec.encode(product);
+    }
+
+    /**
+     * 写入格式名称
+     */
+    public String name() {
+        return writeBinary ? binaryCodec.name() : jsonCodec.name();
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.ecommerceredisdemo.codec;
+
+/**
+ * Redis 缓存值编解码
+ * @param <T> 值类型
+ */
+public interface ValueCodec<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    /**
+     * 编码格式名称，用于配置和统计
+     */
+    String name();
+}
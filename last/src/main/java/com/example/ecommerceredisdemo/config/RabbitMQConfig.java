@@ -15,6 +15,8 @@ public class RabbitMQConfig {
     public static final String ORDER_EXCHANGE = "order.exchange";
     public static final String ORDER_QUEUE = "order.queue";
     public static final String ORDER_ROUTING_KEY = "order.create.routingkey";
+    public static final String CHECKOUT_QUEUE = "order.checkout.queue";
+    public static final String CHECKOUT_ROUTING_KEY = "order.checkout.routingkey";
 
     @Bean
     public TopicExchange orderExchange() {
@@ -31,6 +33,16 @@ public class RabbitMQConfig {
         return BindingBuilder.bind(orderQueue()).to(orderExchange()).with(ORDER_ROUTING_KEY);
     }
 
+    @Bean
+    public Queue checkoutQueue() {
+        return new Queue(CHECKOUT_QUEUE, true);
+    }
+
+    @Bean
+    public Binding checkoutBinding() {
+        return BindingBuilder.bind(checkoutQueue()).to(orderExchange()).with(CHECKOUT_ROUTING_KEY);
+    }
+
     @Bean
     public MessageConverter jsonMessageConverter() {
         return new Jackson2JsonMessageConverter();
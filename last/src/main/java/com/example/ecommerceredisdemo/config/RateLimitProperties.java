@@ -0,0 +1,37 @@
+package com.example.ecommerceredisdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 限流配置，按路由配置商品维度（Redis 全局令牌桶）和用户维度（本地令牌桶）的限额
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    private List<Route> routes = new ArrayList<>();
+
+    @Data
+    public static class Route {
+        // Ant 风格路径，如 /flash-sale/purchase、/cart/**
+        private String path;
+
+        // 商品ID所在的请求参数或路径变量名，为空表示不做商品维度限流
+        private String skuParam;
+        private double skuPermitsPerSecond;
+        private long skuBurst;
+
+        // 用户ID所在的请求参数或路径变量名，为空表示不做用户维度限流
+        private String userParam;
+        private long userPermitsPerSecond;
+        private long userBurst;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.ecommerceredisdemo.config;
 
+import com.example.ecommerceredisdemo.codec.CartQuantitySerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -12,6 +13,7 @@ import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -61,8 +63,8 @@ public class RedisConfig {
         // 设置值的序列化器 (这里使用Jackson2JsonRedisSerializer，可以将Java对象序列化为JSON)
         // 也可以使用 GenericJackson2JsonRedisSerializer，它不需要指定泛型
         template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
-        // 设置hash值的序列化器
-        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+        // 设置hash值的序列化器（购物车数量直接存十进制数字，兼容读取旧的JSON值）
+        template.setHashValueSerializer(new CartQuantitySerializer());
 
         template.afterPropertiesSet();
         return template;
@@ -76,6 +78,16 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * Redis 发布订阅监听容器，用于节点间广播（如售罄标记）
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
     @Bean
     public ObjectMapper objectMapper() {
         ObjectMapper mapper = new ObjectMapper();
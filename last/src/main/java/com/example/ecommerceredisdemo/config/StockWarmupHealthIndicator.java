@@ -0,0 +1,25 @@
+package com.example.ecommerceredisdemo.config;
+
+import com.example.ecommerceredisdemo.service.StockWarmupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 库存预热健康指标（stockWarmup），加入 readiness 健康组
+ * 启动流程在 ApplicationRunner 之后才发布 ACCEPTING_TRAFFIC，预热失败时发布的 REFUSING_TRAFFIC 会被覆盖，
+ * 因此就绪状态由该指标决定：预热未完成或有商品预热失败时为 DOWN
+ */
+@Component
+public class StockWarmupHealthIndicator implements HealthIndicator {
+
+    @Autowired
+    private StockWarmupService stockWarmupService;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = stockWarmupService.isWarmupSucceeded() ? Health.up() : Health.down();
+        return builder.withDetails(stockWarmupService.getStats()).build();
+    }
+}
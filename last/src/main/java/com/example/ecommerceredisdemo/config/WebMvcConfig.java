@@ -0,0 +1,21 @@
+package com.example.ecommerceredisdemo.config;
+
+import com.example.ecommerceredisdemo.interceptor.RateLimitInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // 秒杀和购物车接口在进入业务逻辑前做令牌桶限流
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns("/flash-sale/**", "/cart/**");
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.ecommerceredisdemo.controller;
 
 import com.example.ecommerceredisdemo.service.CartService;
+import com.example.ecommerceredisdemo.service.CheckoutService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -14,6 +15,9 @@ public class CartController {
     @Autowired
     private CartService cartService;
 
+    @Autowired
+    private CheckoutService checkoutService;
+
     /**
      * 添加/更新商品到购物车
      * @param userId 用户ID
@@ -151,4 +155,21 @@ public class CartController {
     public Map<String, Object> getCartStats(@PathVariable String userId) {
         return cartService.getCartStats(userId);
     }
+
+    /**
+     * 结算购物车：一次性预占所有商品库存，任一商品不足则全部不扣减
+     * @param userId 用户ID
+     * @return 结算结果（结算号或失败的商品）
+     */
+    @PostMapping("/checkout/{userId}")
+    public Map<String, Object> checkout(@PathVariable String userId) {
+        try {
+            return checkoutService.checkout(userId);
+        } catch (Exception e) {
+            return Map.of(
+                "success", false,
+                "error", "结算失败: " + e.getMessage()
+            );
+        }
+    }
 }
\ No newline at end of file
@@ -1,12 +1,17 @@
 package com.example.ecommerceredisdemo.controller;
 
 import com.example.ecommerceredisdemo.service.FlashSaleService;
+import com.example.ecommerceredisdemo.service.RateLimitService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/flash-sale")
 @Slf4j
@@ -15,6 +20,9 @@ public class FlashSaleController {
     @Autowired
     private FlashSaleService flashSaleService;
 
+    @Autowired
+    private RateLimitService rateLimitService;
+
     /**
      * 购买秒杀商品接口
      * @param userId 用户ID
@@ -23,13 +31,37 @@ public class FlashSaleController {
      * @return 购买结果
      */
     @PostMapping("/purchase")
-    public ResponseEntity<String> purchase(@RequestParam String userId,
+    public ResponseEntity<?> purchase(@RequestParam String userId,
                            @RequestParam String productId,
                            @RequestParam(defaultValue = "1") int quantity) {
         try {
+            // 开启排队的商品必须持有放行资格
+            if (!flashSaleService.tryEnterPurchase(userId, productId)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("请先排队，放行后再抢购");
+            }
+
+            // 异步凭证模式：立即返回202和凭证ID，不占用请求线程等待抢购结果
+            if (flashSaleService.isAsyncTicketEnabled()) {
+                String ticketId = flashSaleService.submitPurchase(userId, productId, quantity);
+                if (ticketId == null) {
+                    // 未受理的请求不消耗放行资格
+                    flashSaleService.restoreAdmission(userId, productId);
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("系统繁忙，请稍后再试");
+                }
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
+                    "ticketId", ticketId,
+                    "status", "PENDING",
+                    "resultUrl", "/flash-sale/result/" + ticketId
+                ));
+            }
+
             String result = flashSaleService.purchaseFlashSaleItem(userId, productId, quantity);
             if (result.contains("成功")) {
                 return ResponseEntity.ok(result);
+            } else if (result.contains("系统繁忙")) {
+                // 订单消息发送失败，库存已回滚，放行资格一并归还
+                flashSaleService.restoreAdmission(userId, productId);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(result);
             } else {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
             }
@@ -39,6 +71,106 @@ public class FlashSaleController {
         }
     }
 
+    /**
+     * 查询异步抢购结果
+     * @param ticketId 凭证ID
+     * @return 凭证状态（PENDING/RESERVED/PERSISTED/REJECTED/FAILED）
+     */
+    @GetMapping("/result/{ticketId}")
+    public ResponseEntity<Map<String, String>> getResult(@PathVariable String ticketId) {
+        Map<String, String> ticket = flashSaleService.getPurchaseResult(ticketId);
+        if (ticket.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(ticket);
+    }
+
+    /**
+     * 订阅异步抢购结果推送（Server-Sent Events），到达终态后服务端关闭连接
+     * @param ticketId 凭证ID
+     * @return SSE 流
+     */
+    @GetMapping(value = "/result/{ticketId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamResult(@PathVariable String ticketId) {
+        return flashSaleService.subscribePurchaseResult(ticketId);
+    }
+
+    /**
+     * 加入秒杀排队
+     * @param productId 商品ID
+     * @param userId 用户ID
+     * @return 排队状态（ADMITTED/WAITING/NOT_QUEUED）、位置和预计等待秒数
+     */
+    @PostMapping("/waiting-room/{productId}/join")
+    public Map<String, Object> joinWaitingRoom(@PathVariable String productId,
+                                               @RequestParam String userId) {
+        return flashSaleService.joinWaitingRoom(userId, productId);
+    }
+
+    /**
+     * 查询排队位置（客户端轮询）
+     * @param productId 商品ID
+     * @param userId 用户ID
+     * @return 排队状态、位置和预计等待秒数
+     */
+    @GetMapping("/waiting-room/{productId}/position")
+    public Map<String, Object> getWaitingRoomPosition(@PathVariable String productId,
+                                                      @RequestParam String userId) {
+        return flashSaleService.getWaitingRoomPosition(userId, productId);
+    }
+
+    /**
+     * 开启商品排队（管理员接口）
+     * @param productId 商品ID
+     * @return 操作结果
+     */
+    @PostMapping("/waiting-room/{productId}")
+    public ResponseEntity<String> openWaitingRoom(@PathVariable String productId) {
+        try {
+            flashSaleService.setWaitingRoomOpen(productId, true);
+            return ResponseEntity.ok("排队已开启");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭商品排队（管理员接口）
+     * @param productId 商品ID
+     * @return 操作结果
+     */
+    @DeleteMapping("/waiting-room/{productId}")
+    public ResponseEntity<String> closeWaitingRoom(@PathVariable String productId) {
+        flashSaleService.setWaitingRoomOpen(productId, false);
+        return ResponseEntity.ok("排队已关闭");
+    }
+
+    /**
+     * 查询排队统计
+     * @return 统计信息
+     */
+    @GetMapping("/waiting-room/stats")
+    public Map<String, Object> getWaitingRoomStats() {
+        return flashSaleService.getWaitingRoomStats();
+    }
+
+    /**
+     * 设置商品每人限购数量（管理员接口）
+     * @param productId 商品ID
+     * @param limit 限购数量
+     * @return 设置结果
+     */
+    @PostMapping("/limit/{productId}")
+    public ResponseEntity<String> setUserLimit(@PathVariable String productId,
+                                               @RequestParam int limit) {
+        try {
+            flashSaleService.setUserLimit(productId, limit);
+            return ResponseEntity.ok("限购设置成功");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
     /**
      * 查询商品当前 Redis 库存
      * @param productId 商品ID
@@ -48,4 +180,13 @@ public class FlashSaleController {
     public Long getStock(@PathVariable String productId) {
         return flashSaleService.getProductRedisStock(productId);
     }
+
+    /**
+     * 查询限流统计（被拒绝的请求数、本地用户令牌桶数量）
+     * @return 统计信息
+     */
+    @GetMapping("/rate-limit/stats")
+    public Map<String, Object> getRateLimitStats() {
+        return rateLimitService.getStats();
+    }
 }
\ No newline at end of file
@@ -2,10 +2,19 @@ package com.example.ecommerceredisdemo.controller;
 
 import com.example.ecommerceredisdemo.entity.Product;
 import com.example.ecommerceredisdemo.service.ProductCacheService;
+import com.example.ecommerceredisdemo.service.ProductVersionService;
 import com.example.ecommerceredisdemo.service.StockManagementService;
+import com.example.ecommerceredisdemo.service.StockReconciliationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -19,18 +28,64 @@ public class ProductController {
     @Autowired
     private StockManagementService stockManagementService;
 
+    @Autowired
+    private StockReconciliationService stockReconciliationService;
+
+    @Autowired
+    private ProductVersionService productVersionService;
+
     /**
      * 获取商品详情（带缓存）
      * @param productId 商品ID
      * @return 商品信息
      */
     @GetMapping("/detail/{productId}")
-    public Object getProductDetail(@PathVariable String productId) {
-        Optional<Product> product = productCacheService.getProductDetail(productId);
-        if (product.isPresent()) {
-            return product.get();
+    public ResponseEntity<?> getProductDetail(@PathVariable String productId,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // 先读版本再读内容：本地缓存的JSON与该版本不一致时重新读取 Redis，响应中的 ETag 取自实际返回的内容
+        String etag = productVersionService.getETag(productId);
+        if (ProductVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        // 直接输出缓存中的商品JSON字节，不经过 Product 对象再序列化
+        ProductCacheService.DetailJson detail = productCacheService.getProductDetailJson(productId, etag);
+        if (detail != null) {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+            if (detail.etag() != null) {
+                builder.eTag(detail.etag());
+            }
+            return builder.body(detail.json());
         } else {
-            return Map.of("message", "商品不存在");
+            return ResponseEntity.ok(Map.of("message", "商品不存在"));
+        }
+    }
+
+    /**
+     * 批量获取商品详情（商品列表页使用）
+     * @param productIds 商品ID列表
+     * @return 与请求顺序一致的商品信息，不存在的商品为null
+     */
+    @PostMapping("/details")
+    public Map<String, Object> getProductDetails(@RequestBody List<String> productIds) {
+        try {
+            List<Optional<Product>> details = productCacheService.getProductDetails(productIds);
+            List<Product> products = new ArrayList<>(details.size());
+            List<String> notFound = new ArrayList<>();
+            for (int i = 0; i < details.size(); i++) {
+                products.add(details.get(i).orElse(null));
+                if (details.get(i).isEmpty()) {
+                    notFound.add(productIds.get(i));
+                }
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("products", products);
+            result.put("notFound", notFound);
+            return result;
+        } catch (IllegalArgumentException e) {
+            return Map.of(
+                "success", false,
+                "error", e.getMessage()
+            );
         }
     }
 
@@ -40,18 +95,27 @@ public class ProductController {
      * @return 库存信息
      */
     @GetMapping("/stock/{productId}")
-    public Map<String, Object> getProductStock(@PathVariable String productId) {
+    public ResponseEntity<Map<String, Object>> getProductStock(@PathVariable String productId,
+                                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = productVersionService.getETag(productId);
+        if (ProductVersionService.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         Long stock = stockManagementService.getCurrentStock(productId);
         if (stock != null) {
-            return Map.of(
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            if (etag != null) {
+                builder.eTag(etag);
+            }
+            return builder.body(Map.of(
                 "productId", productId,
                 "stock", stock
-            );
+            ));
         } else {
-            return Map.of(
+            return ResponseEntity.ok(Map.of(
                 "productId", productId,
                 "message", "商品库存不存在"
-            );
+            ));
         }
     }
 
@@ -111,6 +175,77 @@ public class ProductController {
         );
     }
 
+    /**
+     * 启动一次Redis与数据库库存对账（管理员接口，后台执行）
+     * @return 是否已启动
+     */
+    @PostMapping("/stock/reconcile")
+    public Map<String, Object> startReconciliation() {
+        boolean started = stockReconciliationService.startReconciliation();
+        return Map.of(
+            "started", started,
+            "message", started ? "库存对账已在后台启动" : "库存对账正在运行中"
+        );
+    }
+
+    /**
+     * 获取最近一次库存对账报告
+     * @return 偏差报告
+     */
+    @GetMapping("/stock/reconcile/report")
+    public Map<String, Object> getReconciliationReport() {
+        return stockReconciliationService.getLastReport();
+    }
+
+    /**
+     * 开启商品分片库存（热点商品，管理员接口）
+     * @param productId 商品ID
+     * @param shards 分片数
+     * @return 开启结果
+     */
+    @PostMapping("/stock/shard/{productId}")
+    public Map<String, Object> enableShardedStock(@PathVariable String productId,
+                                                  @RequestParam(defaultValue = "8") int shards) {
+        try {
+            Long total = stockManagementService.enableShardedStock(productId, shards);
+            return Map.of(
+                "productId", productId,
+                "shards", shards,
+                "stock", total,
+                "success", true
+            );
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return Map.of(
+                "productId", productId,
+                "success", false,
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    /**
+     * 关闭商品分片库存（管理员接口）
+     * @param productId 商品ID
+     * @return 关闭结果
+     */
+    @DeleteMapping("/stock/shard/{productId}")
+    public Map<String, Object> disableShardedStock(@PathVariable String productId) {
+        try {
+            Long total = stockManagementService.disableShardedStock(productId);
+            return Map.of(
+                "productId", productId,
+                "stock", total,
+                "success", true
+            );
+        } catch (IllegalStateException e) {
+            return Map.of(
+                "productId", productId,
+                "success", false,
+                "error", e.getMessage()
+            );
+        }
+    }
+
     /**
      * 更新商品缓存
      * @param product 商品信息
@@ -153,6 +288,55 @@ public class ProductController {
         );
     }
 
+    /**
+     * 开启商品详情多副本（热点商品，管理员接口）
+     * @param productId 商品ID
+     * @param copies 副本数
+     * @return 开启结果
+     */
+    @PostMapping("/cache/replica/{productId}")
+    public Map<String, Object> enableDetailReplicas(@PathVariable String productId,
+                                                    @RequestParam(defaultValue = "4") int copies) {
+        try {
+            productCacheService.enableReplicas(productId, copies);
+            return Map.of(
+                "productId", productId,
+                "copies", copies,
+                "success", true
+            );
+        } catch (IllegalArgumentException e) {
+            return Map.of(
+                "productId", productId,
+                "success", false,
+                "error", e.getMessage()
+            );
+        }
+    }
+
+    /**
+     * 关闭商品详情多副本（管理员接口）
+     * @param productId 商品ID
+     * @return 关闭结果
+     */
+    @DeleteMapping("/cache/replica/{productId}")
+    public Map<String, Object> disableDetailReplicas(@PathVariable String productId) {
+        int copies = productCacheService.disableReplicas(productId);
+        return Map.of(
+            "productId", productId,
+            "removedCopies", copies,
+            "success", copies > 0
+        );
+    }
+
+    /**
+     * 获取自动探测的热点商品
+     * @return 热点商品及常驻状态
+     */
+    @GetMapping("/cache/hot")
+    public Map<String, Object> getHotProducts() {
+        return productCacheService.getHotProducts();
+    }
+
     /**
      * 获取缓存统计信息
      * @return 统计信息
@@ -160,7 +344,14 @@ public class ProductController {
     @GetMapping("/cache/stats")
     public Map<String, Object> getCacheStats() {
         String stats = productCacheService.getCacheStats();
-        return Map.of("stats", stats);
+        return Map.of(
+            "stats", stats,
+            "l1", productCacheService.getL1Stats(),
+            "loader", productCacheService.getLoaderStats(),
+            "bloom", productCacheService.getBloomStats(),
+            "replica", productCacheService.getReplicaStats(),
+            "etag", productVersionService.getStats()
+        );
     }
 
     /**
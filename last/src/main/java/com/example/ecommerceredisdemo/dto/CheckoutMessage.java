@@ -0,0 +1,23 @@
+package com.example.ecommerceredisdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * 购物车结算消息，一次结算的所有商品行在同一条消息中
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CheckoutMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String checkoutId;
+    private String userId;
+    // 商品ID -> 数量，库存已全部预占
+    private Map<String, Integer> lines;
+}
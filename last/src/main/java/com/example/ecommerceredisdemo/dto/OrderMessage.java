@@ -15,4 +15,15 @@ public class OrderMessage implements Serializable {
     private String userId;
     private String productId;
     private int quantity;
-} 
\ No newline at end of file
+
+    // 异步抢购凭证ID，同步下单时为空
+    private String ticketId;
+    // 预先分配的订单号，为空时由消费者生成
+    private String orderId;
+    // 扣减时是否占用了每人限购额度，订单创建失败时一并归还
+    private boolean userLimited;
+
+    public OrderMessage(String userId, String productId, int quantity) {
+        this(userId, productId, quantity, null, null, false);
+    }
+}
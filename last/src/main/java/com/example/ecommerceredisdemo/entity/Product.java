@@ -15,4 +15,8 @@ public class Product {
 
     @Column(name = "created_at", insertable = false, updatable = false)
     private LocalDateTime createdAt;
+
+    // 库存版本，预热时与 Redis 中记录的版本比较
+    @Column(name = "updated_at", insertable = false)
+    private LocalDateTime updatedAt;
 }
\ No newline at end of file
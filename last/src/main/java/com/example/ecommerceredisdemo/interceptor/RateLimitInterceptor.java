@@ -0,0 +1,102 @@
+package com.example.ecommerceredisdemo.interceptor;
+
+import com.example.ecommerceredisdemo.config.RateLimitProperties;
+import com.example.ecommerceredisdemo.service.RateLimitService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 令牌桶限流拦截器
+ * 按路由取出用户和商品参数交给 RateLimitService 检查，先查本地用户令牌桶再查 Redis 商品令牌桶，
+ * 超限直接返回预先生成的 429 响应，避免高峰期压垮 Redis 连接池和 MySQL
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private RateLimitService rateLimitService;
+
+    @Autowired
+    private RateLimitProperties rateLimitProperties;
+
+    // 预先生成的 429 响应体
+    private static final byte[] TOO_MANY_REQUESTS_BODY =
+            "{\"success\":false,\"error\":\"请求过于频繁，请稍后再试\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!rateLimitService.isEnabled()) {
+            return true;
+        }
+
+        RateLimitProperties.Route route = matchRoute(request.getRequestURI());
+        if (route == null) {
+            return true;
+        }
+
+        // 先检查本地用户令牌桶，不访问Redis
+        String userId = resolveParam(request, route.getUserParam());
+        if (userId != null && route.getUserPermitsPerSecond() > 0) {
+            if (!rateLimitService.tryConsumeUserToken(route, userId)) {
+                writeTooManyRequests(response);
+                return false;
+            }
+        }
+
+        String skuId = resolveParam(request, route.getSkuParam());
+        if (skuId != null && route.getSkuPermitsPerSecond() > 0) {
+            if (!rateLimitService.tryConsumeSkuToken(route, skuId)) {
+                writeTooManyRequests(response);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RateLimitProperties.Route matchRoute(String uri) {
+        for (RateLimitProperties.Route route : rateLimitProperties.getRoutes()) {
+            if (pathMatcher.match(route.getPath(), uri)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从请求参数或路径变量中取值
+     */
+    @SuppressWarnings("unchecked")
+    private String resolveParam(HttpServletRequest request, String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        String value = request.getParameter(name);
+        if (value != null) {
+            return value;
+        }
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return pathVariables != null ? pathVariables.get(name) : null;
+    }
+
+    private void writeTooManyRequests(HttpServletResponse response) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Retry-After", "1");
+        response.setContentLength(TOO_MANY_REQUESTS_BODY.length);
+        response.getOutputStream().write(TOO_MANY_REQUESTS_BODY);
+    }
+}
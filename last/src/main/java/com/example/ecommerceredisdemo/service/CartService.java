@@ -2,13 +2,20 @@ package com.example.ecommerceredisdemo.service;
 
 import com.example.ecommerceredisdemo.entity.Cart;
 import com.example.ecommerceredisdemo.repository.CartRepository;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,10 +29,26 @@ public class CartService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Autowired
     private CartRepository cartRepository;
 
     private static final String CART_PREFIX = "user:"; // user:<userId>:cart
+    // 购物车 Hash 内的汇总字段，由 cart_update.lua 在每次变更时维护
+    private static final String SUMMARY_FIELD_PREFIX = "__";
+    private static final String LINES_FIELD = "__lines";
+    private static final String TOTAL_FIELD = "__total";
+
+    private DefaultRedisScript<List> cartUpdateScript;
+
+    @PostConstruct
+    public void init() {
+        cartUpdateScript = new DefaultRedisScript<>();
+        cartUpdateScript.setLocation(new ClassPathResource("lua/cart_update.lua"));
+        cartUpdateScript.setResultType(List.class);
+    }
 
     /**
      * 添加或更新商品到购物车
@@ -36,8 +59,9 @@ public class CartService {
      */
     public Long addItemToCart(String userId, String skuId, int quantity) {
         String cartKey = CART_PREFIX + userId + ":cart";
-        // 使用 HINCRBY 来原子性地增加或减少数量
-        Long currentQuantity = redisTemplate.opsForHash().increment(cartKey, skuId, quantity);
+        // 由Lua脚本原子性地增加或减少数量并维护汇总字段
+        List<Long> results = updateCart(cartKey, "incr", Arrays.asList(skuId, String.valueOf(quantity)));
+        Long currentQuantity = results.get(0);
         log.info("用户 {} 购物车更新：SKU {} 数量 {}", userId, skuId, currentQuantity);
         return currentQuantity;
     }
@@ -50,7 +74,7 @@ public class CartService {
      */
     public Boolean removeItemFromCart(String userId, String skuId) {
         String cartKey = CART_PREFIX + userId + ":cart";
-        Long deletedCount = redisTemplate.opsForHash().delete(cartKey, skuId);
+        Long deletedCount = updateCart(cartKey, "del", Collections.singletonList(skuId)).get(0);
         log.info("用户 {} 购物车移除：SKU {}，删除数量 {}", userId, skuId, deletedCount);
         return deletedCount > 0;
     }
@@ -64,7 +88,11 @@ public class CartService {
         String cartKey = CART_PREFIX + userId + ":cart";
         Map<Object, Object> rawCart = redisTemplate.opsForHash().entries(cartKey);
         Map<String, Integer> cartItems = new HashMap<>();
-        rawCart.forEach((k, v) -> cartItems.put(k.toString(), (Integer) v));
+        rawCart.forEach((k, v) -> {
+            if (!isSummaryField(k.toString())) {
+                cartItems.put(k.toString(), (Integer) v);
+            }
+        });
         return cartItems;
     }
 
@@ -92,18 +120,24 @@ public class CartService {
         }
 
         String cartKey = CART_PREFIX + userId + ":cart";
-        int addedCount = 0;
+        List<String> args = new ArrayList<>();
 
         for (Map.Entry<String, Integer> entry : items.entrySet()) {
             String skuId = entry.getKey();
             Integer quantity = entry.getValue();
             
             if (quantity > 0) {
-                redisTemplate.opsForHash().increment(cartKey, skuId, quantity);
-                addedCount++;
+                args.add(skuId);
+                args.add(String.valueOf(quantity));
             }
         }
 
+        int addedCount = args.size() / 2;
+        if (addedCount > 0) {
+            // 所有商品在一次脚本调用中写入
+            updateCart(cartKey, "incr", args);
+        }
+
         log.info("用户 {} 批量添加 {} 个商品到购物车", userId, addedCount);
         return addedCount;
     }
@@ -120,10 +154,10 @@ public class CartService {
         }
 
         String cartKey = CART_PREFIX + userId + ":cart";
-        Long removedCount = redisTemplate.opsForHash().delete(cartKey, skuIds.toArray());
+        long removedCount = updateCart(cartKey, "del", skuIds).stream().mapToLong(Long::longValue).sum();
         
         log.info("用户 {} 批量移除 {} 个商品", userId, removedCount);
-        return removedCount.intValue();
+        return (int) removedCount;
     }
 
     /**
@@ -133,8 +167,7 @@ public class CartService {
      */
     public Integer getCartItemCount(String userId) {
         String cartKey = CART_PREFIX + userId + ":cart";
-        Long count = redisTemplate.opsForHash().size(cartKey);
-        return count != null ? count.intValue() : 0;
+        return (int) readSummary(cartKey)[0];
     }
 
     /**
@@ -144,11 +177,7 @@ public class CartService {
      */
     public Integer getCartTotalQuantity(String userId) {
         String cartKey = CART_PREFIX + userId + ":cart";
-        Map<Object, Object> cartItems = redisTemplate.opsForHash().entries(cartKey);
-        
-        return cartItems.values().stream()
-                .mapToInt(item -> (Integer) item)
-                .sum();
+        return (int) readSummary(cartKey)[1];
     }
 
     /**
@@ -186,12 +215,12 @@ public class CartService {
         
         if (quantity <= 0) {
             // 数量为0或负数，从购物车移除
-            redisTemplate.opsForHash().delete(cartKey, skuId);
+            updateCart(cartKey, "del", Collections.singletonList(skuId));
             log.info("用户 {} 购物车商品 {} 数量设为0，已移除", userId, skuId);
             return 0;
         } else {
             // 设置新数量
-            redisTemplate.opsForHash().put(cartKey, skuId, quantity);
+            updateCart(cartKey, "set", Arrays.asList(skuId, String.valueOf(quantity)));
             log.info("用户 {} 购物车商品 {} 数量设置为 {}", userId, skuId, quantity);
             return quantity;
         }
@@ -204,18 +233,69 @@ public class CartService {
      */
     public Map<String, Object> getCartStats(String userId) {
         String cartKey = CART_PREFIX + userId + ":cart";
-        Map<Object, Object> cartItems = redisTemplate.opsForHash().entries(cartKey);
+        long[] summary = readSummary(cartKey);
         
         Map<String, Object> stats = new HashMap<>();
-        stats.put("itemCount", cartItems.size()); // 商品种类数
-        stats.put("totalQuantity", cartItems.values().stream()
-                .mapToInt(item -> (Integer) item)
-                .sum()); // 商品总数量
-        stats.put("isEmpty", cartItems.isEmpty());
+        stats.put("itemCount", (int) summary[0]); // 商品种类数
+        stats.put("totalQuantity", (int) summary[1]); // 商品总数量
+        stats.put("isEmpty", summary[0] == 0);
         
         return stats;
     }
 
+    /**
+     * 执行购物车变更脚本
+     * @param cartKey 购物车key
+     * @param op 操作 incr / set / del
+     * @param args incr、set 为 skuId、数量交替排列；del 为 skuId 列表
+     * @return 每个商品的结果（不含脚本返回的汇总值）
+     */
+    private List<Long> updateCart(String cartKey, String op, List<String> args) {
+        Object[] argv = new Object[args.size() + 1];
+        argv[0] = op;
+        for (int i = 0; i < args.size(); i++) {
+            argv[i + 1] = args.get(i);
+        }
+        List<?> reply = stringRedisTemplate.execute(cartUpdateScript, Collections.singletonList(cartKey), argv);
+        if (reply == null || reply.size() < 2) {
+            throw new RuntimeException("购物车变更脚本返回结果异常");
+        }
+        List<Long> results = new ArrayList<>(reply.size() - 2);
+        for (int i = 2; i < reply.size(); i++) {
+            results.add(((Number) reply.get(i)).longValue());
+        }
+        return results;
+    }
+
+    /**
+     * 读取购物车汇总：{商品种类数, 商品总数量}
+     * 正常情况下只需一次 HMGET；尚未写入汇总字段的旧购物车按全部字段计算一次
+     */
+    private long[] readSummary(String cartKey) {
+        List<Object> values = redisTemplate.opsForHash().multiGet(cartKey, Arrays.asList(LINES_FIELD, TOTAL_FIELD));
+        if (values.get(0) != null && values.get(1) != null) {
+            return new long[]{((Number) values.get(0)).longValue(), ((Number) values.get(1)).longValue()};
+        }
+
+        long lines = 0;
+        long total = 0;
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(cartKey).entrySet()) {
+            if (isSummaryField(entry.getKey().toString())) {
+                continue;
+            }
+            int quantity = (Integer) entry.getValue();
+            if (quantity > 0) {
+                lines++;
+                total += quantity;
+            }
+        }
+        return new long[]{lines, total};
+    }
+
+    private static boolean isSummaryField(String field) {
+        return field.startsWith(SUMMARY_FIELD_PREFIX);
+    }
+
     /**
      * 定时任务：将 Redis 购物车数据同步到 MySQL
      * 实际应用中可能需要更复杂的冲突解决和批量处理逻辑
@@ -251,11 +331,14 @@ public class CartService {
 
             for (Map.Entry<Object, Object> entry : redisCartItems.entrySet()) {
                 String skuId = (String) entry.getKey();
+                if (isSummaryField(skuId)) {
+                    continue;
+                }
                 Integer quantity = (Integer) entry.getValue();
 
                 if (quantity <= 0) { // 数量为0或负数，从购物车移除
                     cartRepository.deleteById(new Cart.CartPk() {{ setUserId(userId); setSkuId(skuId); }});
-                    redisTemplate.opsForHash().delete(cartKey, skuId); // 同时从Redis删除
+                    updateCart(cartKey, "del", Collections.singletonList(skuId)); // 同时从Redis删除
                     log.info("用户 {} 购物车 SKU {} 数量为0，已从数据库和Redis移除。", userId, skuId);
                     continue;
                 }
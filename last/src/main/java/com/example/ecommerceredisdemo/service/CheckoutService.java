@@ -0,0 +1,99 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.config.RabbitMQConfig;
+import com.example.ecommerceredisdemo.dto.CheckoutMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 购物车结算
+ * 一次性预占购物车中所有商品的库存（全部成功或全部不扣减），成功后发送一条结算消息，
+ * 由订单消费者为每个商品行创建订单
+ */
+@Service
+@Slf4j
+public class CheckoutService {
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private StockManagementService stockManagementService;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    /**
+     * 结算用户购物车
+     * @param userId 用户ID
+     * @return 结算结果
+     */
+    public Map<String, Object> checkout(String userId) {
+        Map<String, Object> result = new HashMap<>();
+
+        Map<String, Integer> lines = new LinkedHashMap<>();
+        cartService.getCartItems(userId).forEach((skuId, quantity) -> {
+            if (quantity != null && quantity > 0) {
+                lines.put(skuId, quantity);
+            }
+        });
+        if (lines.isEmpty()) {
+            result.put("success", false);
+            result.put("error", "购物车为空");
+            return result;
+        }
+
+        StockManagementService.ReserveResult reserveResult = stockManagementService.reserveStocks(lines);
+        if (!reserveResult.isSuccess()) {
+            result.put("success", false);
+            result.put("failedProductId", reserveResult.getFailedProductId());
+            result.put("errorCode", reserveResult.getErrorCode());
+            result.put("error", describeReserveError(reserveResult.getFailedProductId(), reserveResult.getErrorCode()));
+            return result;
+        }
+
+        String checkoutId = UUID.randomUUID().toString().replace("-", "");
+        try {
+            rabbitTemplate.convertAndSend(RabbitMQConfig.ORDER_EXCHANGE,
+                                        RabbitMQConfig.CHECKOUT_ROUTING_KEY,
+                                        new CheckoutMessage(checkoutId, userId, lines));
+        } catch (Exception e) {
+            // 消息发送失败，归还全部预占库存
+            stockManagementService.compensate(lines);
+            log.error("发送结算消息失败，已归还库存: userId={}, checkoutId={}", userId, checkoutId, e);
+            result.put("success", false);
+            result.put("error", "系统繁忙，请稍后再试");
+            return result;
+        }
+
+        // 只移除已结算的商品，结算期间新加入购物车的商品保留
+        cartService.batchRemoveItems(userId, new ArrayList<>(lines.keySet()));
+        log.info("用户 {} 结算成功，结算号 {}，共 {} 个商品", userId, checkoutId, lines.size());
+
+        result.put("success", true);
+        result.put("checkoutId", checkoutId);
+        result.put("lines", lines);
+        return result;
+    }
+
+    /**
+     * 预占失败的提示信息，带上失败的商品ID
+     */
+    private static String describeReserveError(String productId, long errorCode) {
+        if (errorCode == -1) {
+            return "商品 " + productId + " 库存不足";
+        }
+        if (errorCode == -2) {
+            return "商品 " + productId + " 不存在";
+        }
+        return "商品 " + productId + " 库存数据异常";
+    }
+}
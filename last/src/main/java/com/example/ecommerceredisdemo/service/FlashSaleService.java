@@ -2,26 +2,30 @@ package com.example.ecommerceredisdemo.service;
 
 import com.example.ecommerceredisdemo.config.RabbitMQConfig;
 import com.example.ecommerceredisdemo.dto.OrderMessage;
-import com.example.ecommerceredisdemo.entity.Product;
-import com.example.ecommerceredisdemo.repository.ProductRepository;
 import com.example.ecommerceredisdemo.util.RedisLock;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 // import org.springframework.data.redis.core.RedisTemplate; // <-- 移除此行
 import org.springframework.data.redis.core.StringRedisTemplate; // <-- 新增：导入 StringRedisTemplate
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -32,9 +36,6 @@ public class FlashSaleService {
     @Autowired
     private StringRedisTemplate stringRedisTemplate; // <-- 注入 StringRedisTemplate
 
-    @Autowired
-    private ProductRepository productRepository;
-
     @Autowired
     private RedisLock redisLock;
 
@@ -47,24 +48,109 @@ public class FlashSaleService {
     @Autowired
     private StockManagementService stockManagementService;
 
+    @Autowired
+    private PurchaseLimitService purchaseLimitService;
+
+    @Autowired
+    private PurchaseTicketService purchaseTicketService;
+
+    @Autowired
+    private OrderIdGeneratorService orderIdGeneratorService;
+
+    @Autowired
+    private WaitingRoomService waitingRoomService;
+
+    @Autowired
+    private HotProductDetector hotProductDetector;
+
+    @Value("${flash-sale.async-ticket.enabled:false}")
+    private boolean asyncTicketEnabled;
+
+    @Value("${flash-sale.async-ticket.worker-threads:16}")
+    private int ticketWorkerThreads;
+
+    @Value("${flash-sale.async-ticket.queue-capacity:10000}")
+    private int ticketQueueCapacity;
+
     private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
     private static final String FLASH_SALE_LOCK_PREFIX = "flash_sale_lock:";
 
     private DefaultRedisScript<Long> checkAndDecrStockScript;
 
+    // 异步抢购处理线程池，队列有界，满时拒绝受理
+    private ThreadPoolExecutor purchaseExecutor;
+
     @PostConstruct
     public void init() {
-        log.info("Initializing flash sale stock from DB to Redis and loading Lua scripts...");
-        productRepository.findAll().forEach(product -> {
-            String stockKey = PRODUCT_STOCK_PREFIX + product.getProductId();
-            // product.getStock() 是 Integer，将其转换为 String 存储到 Redis
-            stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(product.getStock())); // <-- 修改：使用 String.valueOf()
-            log.info("Product {}: Stock preheated to Redis: {}", product.getProductId(), product.getStock());
-        });
-
+        // 库存预热统一由 StockWarmupService 在启动完成前执行
+        log.info("Loading flash sale Lua scripts...");
         checkAndDecrStockScript = new DefaultRedisScript<>();
         checkAndDecrStockScript.setLocation(new ClassPathResource("lua/check_and_decr_stock.lua"));
         checkAndDecrStockScript.setResultType(Long.class);
+
+        purchaseExecutor = new ThreadPoolExecutor(ticketWorkerThreads, ticketWorkerThreads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(ticketQueueCapacity));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        purchaseExecutor.shutdown();
+        try {
+            if (!purchaseExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                purchaseExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            purchaseExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isAsyncTicketEnabled() {
+        return asyncTicketEnabled;
+    }
+
+    /**
+     * 异步受理秒杀请求：创建凭证后立即返回，抢购在后台线程中执行
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @param quantity 购买数量
+     * @return 凭证ID，处理队列已满时返回null
+     */
+    public String submitPurchase(String userId, String productId, int quantity) {
+        String ticketId = purchaseTicketService.createTicket(userId, productId, quantity);
+        try {
+            purchaseExecutor.execute(() -> {
+                try {
+                    executePurchase(userId, productId, quantity, ticketId);
+                } catch (Exception e) {
+                    log.error("异步抢购处理异常: ticketId={}", ticketId, e);
+                    purchaseTicketService.updateStatus(ticketId, PurchaseTicketService.TicketStatus.FAILED, "系统繁忙，请稍后再试", null);
+                }
+            });
+            return ticketId;
+        } catch (RejectedExecutionException e) {
+            log.warn("异步抢购队列已满，拒绝受理: userId={}, productId={}", userId, productId);
+            purchaseTicketService.updateStatus(ticketId, PurchaseTicketService.TicketStatus.FAILED, "系统繁忙，请稍后再试", null);
+            return null;
+        }
+    }
+
+    /**
+     * 查询抢购凭证结果
+     * @param ticketId 凭证ID
+     * @return 凭证内容，不存在时为空Map
+     */
+    public Map<String, String> getPurchaseResult(String ticketId) {
+        return purchaseTicketService.getTicket(ticketId);
+    }
+
+    /**
+     * 订阅抢购凭证结果推送
+     * @param ticketId 凭证ID
+     * @return SseEmitter
+     */
+    public SseEmitter subscribePurchaseResult(String ticketId) {
+        return purchaseTicketService.subscribe(ticketId);
     }
 
     /**
@@ -76,13 +162,32 @@ public class FlashSaleService {
      */
     @Transactional
     public String purchaseFlashSaleItem(String userId, String productId, int quantity) {
-        // 移除分布式锁，直接使用Lua脚本原子操作
-        Long remainingStock = stockManagementService.decrementStock(productId, quantity);
+        return executePurchase(userId, productId, quantity, null);
+    }
+
+    /**
+     * 执行抢购，ticketId 不为空时同步更新凭证状态
+     */
+    private String executePurchase(String userId, String productId, int quantity, String ticketId) {
+        // 移除分布式锁，直接使用Lua脚本原子操作（开启限购时在同一脚本中校验每人限购）
+        boolean userLimited = purchaseLimitService.isEnabled();
+        Long remainingStock = userLimited
+                ? stockManagementService.decrementStockWithUserLimit(userId, productId, quantity)
+                : stockManagementService.decrementStock(productId, quantity);
         
         if (remainingStock >= 0) {
             // 库存扣减成功，异步发送订单消息
             try {
                 OrderMessage orderMessage = new OrderMessage(userId, productId, quantity);
+                orderMessage.setUserLimited(userLimited);
+                if (ticketId != null) {
+                    // 异步模式预先分配订单号，先更新凭证再发消息，避免覆盖消费者写入的终态
+                    String orderId = orderIdGeneratorService.generateOrderId();
+                    orderMessage.setTicketId(ticketId);
+                    orderMessage.setOrderId(orderId);
+                    purchaseTicketService.updateStatus(ticketId, PurchaseTicketService.TicketStatus.RESERVED,
+                            "库存已预占，订单正在处理中", orderId);
+                }
                 rabbitTemplate.convertAndSend(RabbitMQConfig.ORDER_EXCHANGE, 
                                             RabbitMQConfig.ORDER_ROUTING_KEY, 
                                             orderMessage);
@@ -91,14 +196,94 @@ public class FlashSaleService {
             } catch (Exception e) {
                 // 消息发送失败，需要回滚库存
                 stockManagementService.incrementStock(productId, quantity);
+                if (userLimited) {
+                    stockManagementService.releaseUserQuota(userId, productId, quantity);
+                }
                 log.error("发送订单消息失败，已回滚库存: userId={}, productId={}", userId, productId, e);
+                purchaseTicketService.updateStatus(ticketId, PurchaseTicketService.TicketStatus.FAILED, "系统繁忙，请稍后再试", null);
                 return "系统繁忙，请稍后再试";
             }
-        } else if (remainingStock == -1) {
-            return "商品库存不足";
+        }
+
+        String message;
+        if (remainingStock == -1) {
+            message = "商品库存不足";
+        } else if (remainingStock == PurchaseLimitService.LIMIT_EXCEEDED) {
+            message = "超出每人限购数量";
         } else {
-            return "商品不存在";
+            message = "商品不存在";
         }
+        purchaseTicketService.updateStatus(ticketId, PurchaseTicketService.TicketStatus.REJECTED, message, null);
+        return message;
+    }
+
+    /**
+     * 检查并使用排队放行资格，商品未开启排队时直接通过
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @return 是否允许进入抢购
+     */
+    public boolean tryEnterPurchase(String userId, String productId) {
+        return waitingRoomService.tryConsumeAdmission(userId, productId);
+    }
+
+    /**
+     * 抢购请求未被受理时归还放行资格
+     * @param userId 用户ID
+     * @param productId 商品ID
+     */
+    public void restoreAdmission(String userId, String productId) {
+        waitingRoomService.restoreAdmission(userId, productId);
+    }
+
+    /**
+     * 加入秒杀排队
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @return 排队状态和位置
+     */
+    public Map<String, Object> joinWaitingRoom(String userId, String productId) {
+        return waitingRoomService.join(userId, productId);
+    }
+
+    /**
+     * 查询秒杀排队位置
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @return 排队状态和位置
+     */
+    public Map<String, Object> getWaitingRoomPosition(String userId, String productId) {
+        return waitingRoomService.getPosition(userId, productId);
+    }
+
+    /**
+     * 开启或关闭商品排队
+     * @param productId 商品ID
+     * @param open 是否开启
+     */
+    public void setWaitingRoomOpen(String productId, boolean open) {
+        if (open) {
+            waitingRoomService.openRoom(productId);
+        } else {
+            waitingRoomService.closeRoom(productId);
+        }
+    }
+
+    /**
+     * 获取排队统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getWaitingRoomStats() {
+        return waitingRoomService.getStats();
+    }
+
+    /**
+     * 设置商品每人限购数量
+     * @param productId 商品ID
+     * @param limit 限购数量
+     */
+    public void setUserLimit(String productId, int limit) {
+        purchaseLimitService.setProductLimit(productId, limit);
     }
 
     /**
@@ -107,13 +292,9 @@ public class FlashSaleService {
      * @return 库存数量
      */
     public Long getProductRedisStock(String productId) {
-        // 从 StringRedisTemplate 获取的值直接就是 String
-        String stockStr = stringRedisTemplate.opsForValue().get(PRODUCT_STOCK_PREFIX + productId); // <-- 修改：使用 stringRedisTemplate
-        try {
-            return (stockStr != null) ? Long.parseLong(stockStr) : null;
-        } catch (NumberFormatException e) {
-            log.error("Redis 库存值 {} 无法转换为数字 for product {}", stockStr, productId);
-            return null; // 或者抛出异常，根据业务需求
-        }
+        // 秒杀期间轮询库存的商品计入热点探测
+        hotProductDetector.record(productId);
+        // 统一走库存服务，分片商品会汇总各分桶库存
+        return stockManagementService.getCurrentStock(productId);
     }
 }
\ No newline at end of file
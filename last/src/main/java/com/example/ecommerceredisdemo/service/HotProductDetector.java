@@ -0,0 +1,213 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.CountMinSketch;
+import com.example.ecommerceredisdemo.util.NodeIdentity;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点商品探测
+ * 按采样率把商品详情和秒杀库存查询记入进程内 Count-Min Sketch，同时维护本节点的 Top-K 候选；
+ * 定时把本节点 Top-K 写入 Redis 有序集合，用 ZUNION 合并所有节点的结果，超过阈值的商品即为热点。
+ * 每轮合并后计数减半，热度随访问下降自然衰减。
+ * 各节点的 key 使用相同 hash tag，集群模式下 ZUNION 在同一槽位执行。
+ */
+@Service
+@Slf4j
+public class HotProductDetector {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${product.hot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.hot.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${product.hot.sketch-width:4096}")
+    private int sketchWidth;
+
+    @Value("${product.hot.sketch-depth:4}")
+    private int sketchDepth;
+
+    @Value("${product.hot.top-k:20}")
+    private int topK;
+
+    @Value("${product.hot.min-count:50}")
+    private long minCount;
+
+    @Value("${product.hot.merge-interval-ms:5000}")
+    private long mergeIntervalMs;
+
+    private static final String NODES_KEY = "product:hot:{nodes}";
+    private static final String NODE_TOPK_PREFIX = "product:hot:{nodes}:";
+
+    private CountMinSketch sketch;
+    private String nodeKey;
+
+    // 本节点 Top-K 候选：商品ID -> 估计次数，合并时裁剪到 topK 个
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    // 进入候选的最低估计次数（上一轮第 topK 名），候选未满时为0
+    private volatile long candidateFloor;
+    // 全局热点：商品ID -> 合并后的次数，按次数降序
+    private volatile Map<String, Long> hotProducts = Map.of();
+
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder mergeFailures = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        sketch = new CountMinSketch(sketchWidth, sketchDepth);
+        nodeKey = NODE_TOPK_PREFIX + NodeIdentity.get();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 按采样率记录一次商品访问
+     * @param productId 商品ID
+     */
+    public void record(String productId) {
+        if (!enabled || productId == null
+                || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        sampledCount.increment();
+        long estimate = sketch.add(productId);
+        // 候选数量留出余量，超出后只接纳不低于当前第 topK 名的商品
+        if (estimate >= candidateFloor && (candidates.size() < topK * 4 || candidates.containsKey(productId))) {
+            candidates.put(productId, estimate);
+        }
+    }
+
+    /**
+     * 定时任务：发布本节点 Top-K 并合并所有节点的结果
+     */
+    @Scheduled(initialDelayString = "${product.hot.merge-interval-ms:5000}",
+            fixedDelayString = "${product.hot.merge-interval-ms:5000}")
+    public void mergeTopK() {
+        if (!enabled) {
+            return;
+        }
+        List<Map.Entry<String, Long>> localTop = trimCandidates();
+        try {
+            publishLocalTop(localTop);
+            hotProducts = mergeAllNodes();
+        } catch (Exception e) {
+            mergeFailures.increment();
+            log.error("合并热点商品失败: {}", e.getMessage());
+        }
+        sketch.halve();
+    }
+
+    /**
+     * 按最新估计值把候选裁剪到 topK 个
+     */
+    private List<Map.Entry<String, Long>> trimCandidates() {
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+        for (String productId : candidates.keySet()) {
+            ranked.add(Map.entry(productId, sketch.estimate(productId)));
+        }
+        ranked.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        List<Map.Entry<String, Long>> top = ranked.subList(0, Math.min(topK, ranked.size()));
+        Set<String> keep = new HashSet<>();
+        top.forEach(entry -> keep.add(entry.getKey()));
+        candidates.keySet().retainAll(keep);
+        // 计数随后减半，门槛同样减半
+        candidateFloor = top.size() < topK ? 0 : top.get(top.size() - 1).getValue() / 2;
+        return new ArrayList<>(top);
+    }
+
+    private void publishLocalTop(List<Map.Entry<String, Long>> localTop) {
+        stringRedisTemplate.delete(nodeKey);
+        if (localTop.isEmpty()) {
+            return;
+        }
+        Set<TypedTuple<String>> tuples = new HashSet<>();
+        localTop.forEach(entry -> tuples.add(new DefaultTypedTuple<>(entry.getKey(), entry.getValue().doubleValue())));
+        stringRedisTemplate.opsForZSet().add(nodeKey, tuples);
+        // 节点下线后其结果在3个合并周期后过期
+        stringRedisTemplate.expire(nodeKey, Duration.ofMillis(mergeIntervalMs * 3));
+        stringRedisTemplate.opsForSet().add(NODES_KEY, NodeIdentity.get());
+    }
+
+    private Map<String, Long> mergeAllNodes() {
+        Set<String> nodes = stringRedisTemplate.opsForSet().members(NODES_KEY);
+        if (nodes == null || nodes.isEmpty()) {
+            return Map.of();
+        }
+        List<String> nodeKeys = new ArrayList<>();
+        for (String node : nodes) {
+            String key = NODE_TOPK_PREFIX + node;
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                nodeKeys.add(key);
+            } else if (!node.equals(NodeIdentity.get())) {
+                // 已下线的节点
+                stringRedisTemplate.opsForSet().remove(NODES_KEY, node);
+            }
+        }
+        if (nodeKeys.isEmpty()) {
+            return Map.of();
+        }
+        Set<TypedTuple<String>> merged = stringRedisTemplate.opsForZSet()
+                .unionWithScores(nodeKeys.get(0), nodeKeys.subList(1, nodeKeys.size()));
+        if (merged == null) {
+            return Map.of();
+        }
+        List<TypedTuple<String>> ranked = new ArrayList<>(merged);
+        ranked.sort(Comparator.comparing(TypedTuple<String>::getScore, Comparator.reverseOrder()));
+        Map<String, Long> hot = new LinkedHashMap<>();
+        for (TypedTuple<String> tuple : ranked) {
+            if (hot.size() >= topK || tuple.getScore() == null || tuple.getScore() < minCount) {
+                break;
+            }
+            hot.put(tuple.getValue(), tuple.getScore().longValue());
+        }
+        return hot;
+    }
+
+    /**
+     * 当前全局热点商品
+     * @return 商品ID -> 合并后的采样次数，按次数降序
+     */
+    public Map<String, Long> getHotProducts() {
+        return hotProducts;
+    }
+
+    /**
+     * 获取热点探测统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sampleRate", sampleRate);
+        stats.put("sampledCount", sampledCount.sum());
+        stats.put("localCandidates", candidates.size());
+        stats.put("minCount", minCount);
+        stats.put("mergeFailures", mergeFailures.sum());
+        return stats;
+    }
+}
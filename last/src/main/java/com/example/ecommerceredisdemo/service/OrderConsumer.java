@@ -1,6 +1,7 @@
 package com.example.ecommerceredisdemo.service;
 
 import com.example.ecommerceredisdemo.config.RabbitMQConfig;
+import com.example.ecommerceredisdemo.dto.CheckoutMessage;
 import com.example.ecommerceredisdemo.dto.OrderMessage;
 import com.example.ecommerceredisdemo.entity.Order;
 import com.example.ecommerceredisdemo.repository.OrderRepository;
@@ -9,9 +10,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
@@ -26,27 +32,111 @@ public class OrderConsumer {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private PurchaseTicketService purchaseTicketService;
+
+    @Autowired
+    private StockManagementService stockManagementService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 处理抢购订单消息：事务提交后才把凭证更新为已持久化，保存或提交失败时归还库存和限购额度
+     */
     @RabbitListener(queues = RabbitMQConfig.ORDER_QUEUE)
-    @Transactional
     public void receiveOrderMessage(OrderMessage orderMessage) {
+        log.info("接收到订单消息: {}", orderMessage);
+
+        // 创建订单并保存到数据库
+        Order order = new Order();
+        // 异步抢购已预先分配订单号
+        order.setOrderId(orderMessage.getOrderId() != null
+                ? orderMessage.getOrderId()
+                : orderIdGeneratorService.generateOrderId());
+        order.setUserId(orderMessage.getUserId());
+        order.setProductId(orderMessage.getProductId());
+        order.setQuantity(orderMessage.getQuantity());
+        order.setOrderTime(LocalDateTime.now());
+        order.setStatus(Order.OrderStatus.SUCCESS); // 假设消息能到这里就是成功
+
         try {
-            log.info("接收到订单消息: {}", orderMessage);
-
-            // 创建订单并保存到数据库
-            Order order = new Order();
-            order.setOrderId(orderIdGeneratorService.generateOrderId());
-            order.setUserId(orderMessage.getUserId());
-            order.setProductId(orderMessage.getProductId());
-            order.setQuantity(orderMessage.getQuantity());
-            order.setOrderTime(LocalDateTime.now());
-            order.setStatus(Order.OrderStatus.SUCCESS); // 假设消息能到这里就是成功
-
-            orderRepository.save(order);
+            transactionTemplate.executeWithoutResult(status -> {
+                orderRepository.save(order);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        purchaseTicketService.updateStatus(orderMessage.getTicketId(), PurchaseTicketService.TicketStatus.PERSISTED,
+                                "抢购成功，订单已创建", order.getOrderId());
+                    }
+                });
+            });
             log.info("订单创建成功，订单号: {}", order.getOrderId());
-
         } catch (Exception e) {
             log.error("处理订单消息失败: {}", orderMessage, e);
-            // 这里可以加入消息重试或死信队列逻辑
+            handleOrderFailure(orderMessage, order.getOrderId());
+        }
+    }
+
+    /**
+     * 订单创建失败：归还已扣减的库存和限购额度，凭证标记为失败
+     */
+    private void handleOrderFailure(OrderMessage orderMessage, String orderId) {
+        // 消息重复投递时订单可能已在上一次投递中提交，此时不能再归还库存
+        try {
+            if (orderMessage.getOrderId() != null && orderRepository.existsById(orderId)) {
+                purchaseTicketService.updateStatus(orderMessage.getTicketId(), PurchaseTicketService.TicketStatus.PERSISTED,
+                        "抢购成功，订单已创建", orderId);
+                return;
+            }
+        } catch (Exception e) {
+            log.error("查询订单 {} 是否已创建失败: {}", orderId, e.getMessage());
+        }
+
+        try {
+            stockManagementService.incrementStock(orderMessage.getProductId(), orderMessage.getQuantity());
+            if (orderMessage.isUserLimited()) {
+                stockManagementService.releaseUserQuota(orderMessage.getUserId(), orderMessage.getProductId(), orderMessage.getQuantity());
+            }
+            log.info("订单 {} 创建失败，已归还库存 {} 件", orderId, orderMessage.getQuantity());
+        } catch (Exception e) {
+            // 归还失败会导致少卖，记录下来由对账任务修复
+            log.error("订单 {} 创建失败，归还商品 {} 库存 {} 件失败: {}", orderId, orderMessage.getProductId(),
+                    orderMessage.getQuantity(), e.getMessage());
+        }
+        purchaseTicketService.updateStatus(orderMessage.getTicketId(), PurchaseTicketService.TicketStatus.FAILED,
+                "订单创建失败", orderId);
+    }
+
+    /**
+     * 处理购物车结算消息：每个商品行生成一个订单，在同一事务中保存，保存或提交失败时归还全部预占库存
+     */
+    @RabbitListener(queues = RabbitMQConfig.CHECKOUT_QUEUE)
+    public void receiveCheckoutMessage(CheckoutMessage checkoutMessage) {
+        try {
+            log.info("接收到结算消息: {}", checkoutMessage);
+
+            List<String> orderIds = orderIdGeneratorService.generateOrderIds(checkoutMessage.getLines().size());
+            LocalDateTime orderTime = LocalDateTime.now();
+            List<Order> orders = new ArrayList<>();
+            int index = 0;
+            for (Map.Entry<String, Integer> line : checkoutMessage.getLines().entrySet()) {
+                Order order = new Order();
+                order.setOrderId(orderIds.get(index++));
+                order.setUserId(checkoutMessage.getUserId());
+                order.setProductId(line.getKey());
+                order.setQuantity(line.getValue());
+                order.setOrderTime(orderTime);
+                order.setStatus(Order.OrderStatus.SUCCESS);
+                orders.add(order);
+            }
+
+            transactionTemplate.executeWithoutResult(status -> orderRepository.saveAll(orders));
+            log.info("结算 {} 创建订单成功，共 {} 个订单", checkoutMessage.getCheckoutId(), orders.size());
+        } catch (Exception e) {
+            log.error("处理结算消息失败，归还预占库存: {}", checkoutMessage, e);
+            // 归还失败的商品行由 compensate 记录日志，交给对账任务修复
+            stockManagementService.compensate(checkoutMessage.getLines());
         }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
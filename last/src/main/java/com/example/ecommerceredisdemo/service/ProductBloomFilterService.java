@@ -0,0 +1,307 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.BloomFilter;
+import com.example.ecommerceredisdemo.util.RedisLock;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品ID布隆过滤器（防缓存穿透）
+ * 启动时从数据库流式读取全部商品ID构建进程内布隆过滤器，判定不存在的ID在访问 Redis 和数据库之前直接拒绝；
+ * 误判为存在的ID仍走原有的空值缓存兜底。
+ * 可选镜像到 Redis 位图：新节点直接加载位图，新增商品通过 SETBIT 写入位图并广播给其他节点。
+ * 定时全量重建，兜底直接写入数据库（不经过应用）的新商品。
+ */
+@Service
+@Slf4j
+public class ProductBloomFilterService implements ApplicationRunner, MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private RedisLock redisLock;
+
+    @Value("${product.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${product.bloom.fpp:0.001}")
+    private double fpp;
+
+    @Value("${product.bloom.redis-mirror:false}")
+    private boolean redisMirror;
+
+    private static final String BITMAP_KEY = "product:bloom:bits";
+    private static final String META_KEY = "product:bloom:meta"; // bitSize、hashFunctions，参数不一致时不加载位图
+    private static final String REBUILD_LOCK_KEY = "product:bloom:rebuild:lock";
+    private static final String BLOOM_CHANNEL = "product:bloom:channel";
+    private static final String ADD_PREFIX = "ADD:";
+    private static final String RELOAD = "RELOAD";
+    private static final String SELECT_IDS_SQL = "SELECT product_id FROM product";
+
+    // 构建完成前为null，此时不拦截任何请求
+    private volatile BloomFilter filter;
+    // 重建期间登记的商品ID，替换前补入新过滤器；不在重建时为null，读写都在 registrationLock 内
+    private Set<String> pendingRegistrations;
+    private final Object registrationLock = new Object();
+    private volatile long lastBuildMillis = -1;
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder insertedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (enabled && redisMirror) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_CHANNEL));
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!redisMirror || !loadFromRedis()) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            // 构建失败时不拦截，退化为只有空值缓存防穿透
+            log.error("商品布隆过滤器构建失败，暂不拦截不存在的商品ID: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 判断商品ID是否可能存在；过滤器未就绪时返回true
+     * @param productId 商品ID
+     * @return false 表示一定不存在
+     */
+    public boolean mightExist(String productId) {
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(productId)) {
+            return true;
+        }
+        rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 登记新增的商品ID（商品写入数据库后调用）
+     * @param productId 商品ID
+     */
+    public void registerProduct(String productId) {
+        if (productId == null) {
+            return;
+        }
+        recordPending(productId);
+        BloomFilter current = filter;
+        if (current == null || current.mightContain(productId)) {
+            return;
+        }
+        current.put(productId);
+        insertedCount.increment();
+        if (!redisMirror) {
+            return;
+        }
+        try {
+            long[] indexes = current.indexes(productId);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] key = BITMAP_KEY.getBytes(StandardCharsets.UTF_8);
+                for (long index : indexes) {
+                    connection.stringCommands().setBit(key, index, true);
+                }
+                return null;
+            });
+            stringRedisTemplate.convertAndSend(BLOOM_CHANNEL, ADD_PREFIX + productId);
+        } catch (Exception e) {
+            // 其他节点在下次重建时补上
+            log.error("同步新增商品 {} 到布隆过滤器位图失败: {}", productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 定时全量重建，开启位图镜像时只有拿到锁的节点重建，其他节点收到广播后重新加载位图
+     */
+    @Scheduled(initialDelayString = "${product.bloom.rebuild-interval-ms:600000}",
+            fixedDelayString = "${product.bloom.rebuild-interval-ms:600000}")
+    public void scheduledRebuild() {
+        if (!enabled) {
+            return;
+        }
+        if (!redisMirror) {
+            rebuild();
+            return;
+        }
+        String lockId = redisLock.tryLock(REBUILD_LOCK_KEY, 60);
+        if (lockId == null) {
+            return;
+        }
+        try {
+            rebuild();
+        } finally {
+            redisLock.releaseLock(REBUILD_LOCK_KEY, lockId);
+        }
+    }
+
+    /**
+     * 从数据库流式读取全部商品ID构建新的过滤器后整体替换
+     * 读取期间新登记的商品ID可能不在读取结果中，替换前补入新过滤器
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (registrationLock) {
+            pendingRegistrations = new HashSet<>();
+        }
+        BloomFilter rebuilt = new BloomFilter(expectedInsertions, fpp);
+        LongAdder count = new LongAdder();
+        int replayed;
+        try {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(SELECT_IDS_SQL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(Integer.MIN_VALUE);
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                rebuilt.put(rs.getString(1));
+                count.increment();
+            });
+            // 与 recordPending 互斥：替换前登记的ID在这里补入，替换后登记的直接写入新过滤器
+            synchronized (registrationLock) {
+                replayed = pendingRegistrations.size();
+                pendingRegistrations.forEach(rebuilt::put);
+                filter = rebuilt;
+            }
+        } finally {
+            synchronized (registrationLock) {
+                pendingRegistrations = null;
+            }
+        }
+        if (replayed > 0) {
+            log.info("补入重建期间新登记的商品ID {} 个", replayed);
+        }
+        lastBuildMillis = System.currentTimeMillis() - start;
+        log.info("商品布隆过滤器构建完成，商品数 {}，位数 {}，哈希函数 {}，耗时 {} ms",
+                count.sum(), rebuilt.getBitSize(), rebuilt.getHashFunctions(), lastBuildMillis);
+        if (count.sum() > expectedInsertions) {
+            log.warn("商品数 {} 超过布隆过滤器预计容量 {}，误判率将高于 {}", count.sum(), expectedInsertions, fpp);
+        }
+
+        if (redisMirror) {
+            writeToRedis(rebuilt);
+        }
+    }
+
+    private void writeToRedis(BloomFilter source) {
+        try {
+            byte[] bitmap = source.toBitmap();
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.stringCommands().set(BITMAP_KEY.getBytes(StandardCharsets.UTF_8), bitmap);
+                return null;
+            });
+            stringRedisTemplate.opsForHash().putAll(META_KEY, Map.of(
+                    "bitSize", String.valueOf(source.getBitSize()),
+                    "hashFunctions", String.valueOf(source.getHashFunctions())));
+            stringRedisTemplate.convertAndSend(BLOOM_CHANNEL, RELOAD);
+        } catch (Exception e) {
+            log.error("写入商品布隆过滤器位图失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 Redis 位图加载，参数与本节点配置不一致或位图不存在时返回false
+     */
+    private boolean loadFromRedis() {
+        BloomFilter loaded = new BloomFilter(expectedInsertions, fpp);
+        Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(META_KEY);
+        if (!String.valueOf(loaded.getBitSize()).equals(meta.get("bitSize"))
+                || !String.valueOf(loaded.getHashFunctions()).equals(meta.get("hashFunctions"))) {
+            return false;
+        }
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(BITMAP_KEY.getBytes(StandardCharsets.UTF_8)));
+        if (bitmap == null) {
+            return false;
+        }
+        loaded.mergeBitmap(bitmap);
+        filter = loaded;
+        log.info("已从Redis位图加载商品布隆过滤器，{} 字节", bitmap.length);
+        return true;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        BloomFilter current = filter;
+        if (body.startsWith(ADD_PREFIX)) {
+            String productId = body.substring(ADD_PREFIX.length());
+            recordPending(productId);
+            if (current != null) {
+                current.put(productId);
+            }
+        } else if (RELOAD.equals(body)) {
+            try {
+                loadFromRedis();
+            } catch (Exception e) {
+                log.error("重新加载商品布隆过滤器位图失败: {}", e.getMessage());
+            }
+        } else {
+            log.warn("收到无法识别的布隆过滤器广播消息: {}", body);
+        }
+    }
+
+    private void recordPending(String productId) {
+        synchronized (registrationLock) {
+            if (pendingRegistrations != null) {
+                pendingRegistrations.add(productId);
+            }
+        }
+    }
+
+    /**
+     * 获取布隆过滤器统计信息
+     */
+    public Map<String, Object> getStats() {
+        BloomFilter current = filter;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", current != null);
+        stats.put("redisMirror", redisMirror);
+        stats.put("bitSize", current != null ? current.getBitSize() : 0);
+        stats.put("hashFunctions", current != null ? current.getHashFunctions() : 0);
+        stats.put("lastBuildMillis", lastBuildMillis);
+        stats.put("rejectedCount", rejectedCount.sum());
+        stats.put("insertedCount", insertedCount.sum());
+        return stats;
+    }
+}
@@ -1,34 +1,246 @@
 package com.example.ecommerceredisdemo.service;
 
+import com.example.ecommerceredisdemo.codec.ProductCacheEntryCodec;
+import com.example.ecommerceredisdemo.codec.ProductCacheEntryCodec.CacheEntry;
 import com.example.ecommerceredisdemo.entity.Product;
 import com.example.ecommerceredisdemo.repository.ProductRepository;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.example.ecommerceredisdemo.util.RedisLock;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.Counter;
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 商品详情两级缓存
+ * L1 为进程内 Caffeine 缓存（容量和过期时间受限），L2 为 Redis，最后回源数据库。
+ * 任一节点更新或删除缓存时通过 Redis 发布订阅广播，所有节点清除 L1；
+ * 读取 L2 期间收到失效广播时不回填 L1，避免把刚失效的旧值放回去。
+ * 布隆过滤器判定不存在的商品ID直接返回，空值缓存只作为误判时的兜底。
+ * 未命中时同一商品在进程内只有一个线程加载，集群内由短时互斥锁决定哪个节点回源数据库。
+ * Redis 条目带逻辑过期时间和版本，逻辑过期后立即返回旧值并提交后台刷新，物理 TTL 更长作为兜底。
+ * 热点探测选出的商品常驻本节点内存（不受 L1 容量和过期限制），并在逻辑过期前提前刷新。
+ * 开启多副本的热点商品额外写入 N 个不同 hash tag 的副本（product:detail:{商品ID#k}），分布在不同槽位，
+ * 读取时随机选择一个副本，把单个热点商品的读流量分散到多个主节点；写入和删除在一个管道内覆盖所有副本。
+ * 详情接口直接输出商品JSON字节：文本格式条目原样截取JSON，其他情况只序列化一次并缓存在进程内，
+ * 命中时不再经过 JSON -> Product -> JSON 的两次转换。
+ * 条目内容的编码由 product.cache.codec 决定（JSON 或紧凑二进制，可按大小压缩），读取时兼容所有格式，
+ * 切换编码后旧条目在刷新或过期时自然迁移。
+ */
 @Service
 @Slf4j
-public class ProductCacheService {
+public class ProductCacheService implements MessageListener {
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private RedisLock redisLock;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductBloomFilterService productBloomFilterService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private HotProductDetector hotProductDetector;
+
+    @Autowired
+    private ProductReplicaRegistry productReplicaRegistry;
+
+    @Autowired
+    private ProductVersionService productVersionService;
+
     private static final String PRODUCT_CACHE_PREFIX = "product:detail:";
     private static final String PRODUCT_NULL_PREFIX = "product:null:";
-    private static final long CACHE_TTL = 3600; // 1小时
+    private static final long CACHE_TTL = 3600; // 1小时，物理过期时间，逻辑过期后的兜底
     private static final long NULL_CACHE_TTL = 300; // 5分钟（空值缓存时间短一些）
+    public static final String INVALIDATE_CHANNEL = "product:cache:invalidate";
+    private static final String PRODUCT_LOAD_LOCK_PREFIX = "product:detail:lock:";
+    private static final long LOAD_LOCK_EXPIRE_SECONDS = 3;
+    private static final long LOCK_POLL_INTERVAL_MS = 20;
+
+    // 缓存条目格式：
+    // 二进制：0x01 + 版本(8字节) + 逻辑过期时间毫秒(8字节) + 商品编码
+    // 文本：~版本:逻辑过期时间(毫秒):商品JSON，以 '{' 开头的为更早的纯JSON
+
+    @Value("${product.cache.codec:auto}")
+    private String codecName;
+
+    @Value("${product.cache.compression-threshold:512}")
+    private int compressionThreshold;
+
+    @Value("${product.cache.batch-max-size:100}")
+    private int batchMaxSize;
+
+    @Value("${product.cache.lock-wait-ms:200}")
+    private long lockWaitMs;
+
+    @Value("${product.cache.soft-ttl-seconds:600}")
+    private long softTtlSeconds;
+
+    @Value("${product.cache.ttl-jitter-percent:10}")
+    private int ttlJitterPercent;
+
+    @Value("${product.hot.refresh-ahead-seconds:60}")
+    private long refreshAheadSeconds;
+
+    @Value("${product.hot.replica-copies:4}")
+    private int hotReplicaCopies;
+
+    @Value("${product.cache.refresh.threads:2}")
+    private int refreshThreads;
+
+    @Value("${product.cache.refresh.queue-capacity:1000}")
+    private int refreshQueueCapacity;
+
+    @Value("${product.cache.pass-through:true}")
+    private boolean passThrough;
+
+    @Value("${product.cache.l1.enabled:true}")
+    private boolean l1Enabled;
+
+    @Value("${product.cache.l1.max-size:10000}")
+    private long l1MaxSize;
+
+    @Value("${product.cache.l1.ttl-seconds:10}")
+    private long l1TtlSeconds;
+
+    // productId -> 商品详情，Optional.empty() 表示商品不存在
+    private Cache<String, Optional<Product>> l1Cache;
+
+    // productId -> 已序列化的商品JSON（详情接口直接输出）及读取时的 ETag，与 l1Cache 同时失效
+    private Cache<String, DetailJson> jsonCache;
+
+    // 读取时所有格式都支持，写入格式由 product.cache.codec 决定
+    private ProductCacheEntryCodec entryCodec;
+
+    private byte[] replaceEntryScript;
+
+    // 热点商品常驻缓存，每轮热点合并后整体更新，收到失效广播时移除
+    private final Map<String, Optional<Product>> pinnedProducts = new ConcurrentHashMap<>();
+
+    // 按商品ID分段的失效计数，读取 L2 前后该商品所在分段的计数不一致说明期间有失效，
+    // 只跳过这些商品的 L1 写入，其他商品的失效不影响（同分段的误判只是少写一次 L1）
+    private static final int EPOCH_STRIPES = 1024;
+    private final AtomicLongArray invalidationEpochs = new AtomicLongArray(EPOCH_STRIPES);
+
+    // productId -> 正在进行的加载，同一商品的并发未命中共用一次加载
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<Product>>> inFlightLoads = new ConcurrentHashMap<>();
+
+    private Counter localCoalesced;
+    private Counter clusterCoalesced;
+    private Counter lockWaitTimeouts;
+    private Counter databaseLoads;
+
+    // 逻辑过期后的后台刷新，队列满时丢弃（下一个读到过期条目的请求会再次提交）
+    private ThreadPoolExecutor refreshExecutor;
+    private final Set<String> refreshingProducts = ConcurrentHashMap.newKeySet();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder refreshRejected = new LongAdder();
+    private final LongAdder refreshCompleted = new LongAdder();
+    private final LongAdder refreshAhead = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder replicaMisses = new LongAdder();
+    private final LongAdder passThroughHits = new LongAdder();
+    private final LongAdder staleL1Evicted = new LongAdder();
+    private final LongAdder batchRequests = new LongAdder();
+    private final LongAdder batchDatabaseLoads = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        // auto：开启直接输出JSON时写文本格式，Redis 中的条目可以原样截取JSON；否则写紧凑二进制
+        boolean writeBinary = "binary".equalsIgnoreCase(codecName) || ("auto".equalsIgnoreCase(codecName) && !passThrough);
+        if (writeBinary && passThrough) {
+            log.warn("商品详情缓存使用二进制编码，详情接口只有进程内缓存命中时才能直接输出JSON，Redis 中的条目需解码后重新序列化");
+        }
+        entryCodec = new ProductCacheEntryCodec(objectMapper, writeBinary, compressionThreshold);
+        DefaultRedisScript<Long> replaceScript = new DefaultRedisScript<>();
+        replaceScript.setLocation(new ClassPathResource("lua/replace_cache_entry.lua"));
+        replaceEntryScript = replaceScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        log.info("商品详情缓存写入编码: {}", entryCodec.name());
+        l1Cache = Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(Duration.ofSeconds(l1TtlSeconds))
+                .recordStats()
+                .build();
+        jsonCache = Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(Duration.ofSeconds(l1TtlSeconds))
+                .build();
+        localCoalesced = Counter.builder("product.cache.coalesced").tag("scope", "local")
+                .description("进程内等待同一商品加载结果的请求数").register(meterRegistry);
+        clusterCoalesced = Counter.builder("product.cache.coalesced").tag("scope", "cluster")
+                .description("等待其他节点加载后从Redis读取的请求数").register(meterRegistry);
+        lockWaitTimeouts = Counter.builder("product.cache.lock.wait.timeouts")
+                .description("等待其他节点加载超时后自行回源的次数").register(meterRegistry);
+        databaseLoads = Counter.builder("product.cache.db.loads")
+                .description("商品详情回源数据库次数").register(meterRegistry);
+        refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(refreshQueueCapacity));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
 
     /**
      * 获取商品详情（带缓存）
@@ -36,50 +248,610 @@ public class ProductCacheService {
      * @return 商品信息
      */
     public Optional<Product> getProductDetail(String productId) {
-        String cacheKey = PRODUCT_CACHE_PREFIX + productId;
-        String nullCacheKey = PRODUCT_NULL_PREFIX + productId;
+        // 布隆过滤器判定不存在的ID不访问 Redis 和数据库
+        if (!productBloomFilterService.mightExist(productId)) {
+            return Optional.empty();
+        }
+        hotProductDetector.record(productId);
+        Optional<Product> pinned = pinnedProducts.get(productId);
+        if (pinned != null) {
+            return pinned;
+        }
+        if (l1Enabled) {
+            Optional<Product> cached = l1Cache.getIfPresent(productId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // 同一商品同时只有一个线程加载，其他线程等待它的结果
+        CompletableFuture<Optional<Product>> flight = new CompletableFuture<>();
+        CompletableFuture<Optional<Product>> existing = inFlightLoads.putIfAbsent(productId, flight);
+        if (existing != null) {
+            localCoalesced.increment();
+            Optional<Product> product = existing.join();
+            return product != null ? product : Optional.empty();
+        }
 
         try {
-            // 1. 先检查空值缓存
-            String nullFlag = stringRedisTemplate.opsForValue().get(nullCacheKey);
-            if (nullFlag != null) {
-                log.debug("商品 {} 在空值缓存中找到，返回null", productId);
+            long epoch = epochOf(productId);
+            Optional<Product> product = loadProductDetail(productId);
+            flight.complete(product);
+            if (product == null) {
                 return Optional.empty();
             }
+            if (l1Enabled && epochOf(productId) == epoch) {
+                l1Cache.put(productId, product);
+            }
+            return product;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(productId, flight);
+        }
+    }
+
+    /**
+     * 商品详情JSON及其对应的 ETag
+     * @param json 商品JSON
+     * @param etag 内容对应的 ETag，为null时不返回 ETag
+     */
+    public record DetailJson(byte[] json, String etag) {
+    }
 
-            // 2. 检查商品详情缓存
-            String cachedProduct = stringRedisTemplate.opsForValue().get(cacheKey);
-            if (cachedProduct != null) {
-                Product product = objectMapper.readValue(cachedProduct, Product.class);
-                log.debug("商品 {} 从缓存中获取", productId);
-                return Optional.of(product);
+    /**
+     * 获取商品详情JSON（详情接口直接写入响应）
+     * 进程内缓存的JSON记录读取时的 ETag，与调用方刚读到的 ETag 一致时直接返回；不一致说明期间有更新
+     * （失效广播可能丢失或尚未到达），丢弃本节点的副本后重新读取 Redis。
+     * Redis 中的条目先写入再推进版本，先读 ETag 再读 Redis 得到的内容不会比 ETag 旧。
+     * 开启 pass-through 时未逻辑过期的文本格式条目原样截取其中的JSON，其他条目解码后序列化一次
+     * @param productId 商品ID
+     * @param etag 调用方读取内容之前读到的 ETag，可以为null
+     * @return 商品JSON及对应的 ETag，商品不存在时返回null
+     */
+    public DetailJson getProductDetailJson(String productId, String etag) {
+        if (!productBloomFilterService.mightExist(productId)) {
+            return null;
+        }
+        if (l1Enabled) {
+            DetailJson cached = jsonCache.getIfPresent(productId);
+            if (cached != null && Objects.equals(cached.etag(), etag)) {
+                hotProductDetector.record(productId);
+                passThroughHits.increment();
+                return cached;
             }
+            if (cached != null) {
+                staleL1Evicted.increment();
+                evictLocal(List.of(productId));
+            }
+        }
 
-            // 3. 缓存未命中，从数据库查询
-            Optional<Product> productOptional = productRepository.findById(productId);
-            
-            if (productOptional.isPresent()) {
-                // 4. 商品存在，缓存商品详情
-                Product product = productOptional.get();
-                String productJson = objectMapper.writeValueAsString(product);
-                stringRedisTemplate.opsForValue().set(cacheKey, productJson, CACHE_TTL, TimeUnit.SECONDS);
-                log.info("商品 {} 已缓存到Redis，TTL: {}秒", productId, CACHE_TTL);
-                return productOptional;
+        long epoch = epochOf(productId);
+        byte[] raw;
+        try {
+            raw = readDetail(productId);
+        } catch (Exception e) {
+            // Redis 异常时走完整流程，内容可能来自本节点的副本，版本未知，不返回 ETag
+            log.debug("读取商品 {} 缓存字节失败: {}", productId, e.getMessage());
+            return getProductDetail(productId).map(product -> new DetailJson(entryCodec.toJson(product), null)).orElse(null);
+        }
+
+        byte[] json = raw != null && passThrough ? ProductCacheEntryCodec.sliceJson(raw, System.currentTimeMillis()) : null;
+        if (json != null) {
+            hotProductDetector.record(productId);
+            passThroughHits.increment();
+        } else if (raw != null) {
+            hotProductDetector.record(productId);
+            CacheEntry entry = decodeEntry(raw);
+            if (System.currentTimeMillis() >= entry.softExpireAt()) {
+                staleServed.increment();
+                scheduleRefresh(productId, entry);
+            }
+            json = entryCodec.toJson(entry.product());
+        } else {
+            // Redis 中没有条目，本节点的副本可能早于删除，丢弃后走完整流程回源
+            l1Cache.invalidate(productId);
+            pinnedProducts.remove(productId);
+            Optional<Product> product = getProductDetail(productId);
+            if (product.isEmpty()) {
+                return null;
+            }
+            json = entryCodec.toJson(product.get());
+        }
+        DetailJson detail = new DetailJson(json, etag);
+        if (l1Enabled && epochOf(productId) == epoch) {
+            jsonCache.put(productId, detail);
+        }
+        return detail;
+    }
+
+    /**
+     * 批量获取商品详情（商品列表页使用）
+     * 未命中 L1 的商品把详情key和空值key按槽位分组，一个管道内每组一次 MGET；
+     * Redis 未命中的商品一次 findAllById 回源，结果在一个管道内回写。
+     * 批量回源不加集群互斥锁，单个热点商品的并发未命中仍由 getProductDetail 合并。
+     * @param productIds 商品ID列表
+     * @return 与请求顺序一致的商品信息，不存在的商品为 Optional.empty()
+     */
+    public List<Optional<Product>> getProductDetails(List<String> productIds) {
+        if (productIds == null || productIds.isEmpty()) {
+            return List.of();
+        }
+        if (productIds.size() > batchMaxSize) {
+            throw new IllegalArgumentException("单次最多查询 " + batchMaxSize + " 个商品");
+        }
+        batchRequests.increment();
+
+        Map<String, Optional<Product>> found = new HashMap<>();
+        List<String> toRead = new ArrayList<>();
+        for (String productId : new LinkedHashSet<>(productIds)) {
+            if (!productBloomFilterService.mightExist(productId)) {
+                found.put(productId, Optional.empty());
+                continue;
+            }
+            hotProductDetector.record(productId);
+            Optional<Product> cached = pinnedProducts.get(productId);
+            if (cached == null && l1Enabled) {
+                cached = l1Cache.getIfPresent(productId);
+            }
+            if (cached != null) {
+                found.put(productId, cached);
             } else {
-                // 5. 商品不存在，缓存空值（防止缓存穿透）
-                stringRedisTemplate.opsForValue().set(nullCacheKey, "null", NULL_CACHE_TTL, TimeUnit.SECONDS);
-                log.info("商品 {} 不存在，已缓存空值标记，TTL: {}秒", productId, NULL_CACHE_TTL);
-                return Optional.empty();
+                toRead.add(productId);
             }
+        }
+
+        if (!toRead.isEmpty()) {
+            long[] epochs = epochsOf(toRead);
+            Map<String, Optional<Product>> loaded = new HashMap<>();
+            List<String> misses = toRead;
+            try {
+                misses = readRedisCaches(toRead, loaded, 0);
+            } catch (Exception e) {
+                // Redis 异常时全部回源数据库，不回写
+                log.error("批量读取 {} 个商品缓存失败，直接回源数据库: {}", toRead.size(), e.getMessage());
+                loadAllFromDatabase(toRead, loaded, false);
+                misses = List.of();
+            }
+            if (!misses.isEmpty()) {
+                loadAllFromDatabase(misses, loaded, true);
+            }
+            if (l1Enabled) {
+                l1Cache.putAll(unchangedSince(toRead, epochs, loaded));
+            }
+            found.putAll(loaded);
+        }
+
+        List<Optional<Product>> result = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            result.add(found.getOrDefault(productId, Optional.empty()));
+        }
+        return result;
+    }
+
+    /**
+     * 按槽位分组批量读取详情缓存和空值缓存
+     * @param loaded 命中的商品写入这里
+     * @param refreshAheadMillis 距逻辑过期不足该时长的条目也提交后台刷新，0 表示过期后才刷新
+     * @return Redis 中两种缓存都未命中的商品ID
+     */
+    private List<String> readRedisCaches(List<String> productIds, Map<String, Optional<Product>> loaded,
+                                         long refreshAheadMillis) {
+        Map<Integer, List<String>> slotGroups = new HashMap<>();
+        Map<String, String> readKeys = new HashMap<>();
+        for (String productId : productIds) {
+            // 多副本商品只读随机一个副本，副本未命中时按未命中回源（回写会覆盖所有副本）
+            String readKey = readKey(productId);
+            readKeys.put(productId, readKey);
+            for (String key : List.of(readKey, PRODUCT_NULL_PREFIX + productId)) {
+                slotGroups.computeIfAbsent(SlotHash.getSlot(key), s -> new ArrayList<>()).add(key);
+            }
+        }
+        List<List<String>> groups = new ArrayList<>(slotGroups.values());
+        // 不传结果序列化器，保留原始字节（二进制条目不能按字符串解码）
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (List<String> group : groups) {
+                connection.stringCommands().mGet(group.stream()
+                        .map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new));
+            }
+            return null;
+        }, null);
+
+        Map<String, byte[]> values = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            List<?> groupValues = (List<?>) results.get(i);
+            for (int j = 0; j < groups.get(i).size(); j++) {
+                if (groupValues.get(j) != null) {
+                    values.put(groups.get(i).get(j), (byte[]) groupValues.get(j));
+                }
+            }
+        }
+
+        List<String> misses = new ArrayList<>();
+        for (String productId : productIds) {
+            byte[] raw = values.get(readKeys.get(productId));
+            if (raw != null) {
+                CacheEntry entry = decodeEntry(raw);
+                long now = System.currentTimeMillis();
+                if (now >= entry.softExpireAt()) {
+                    staleServed.increment();
+                    scheduleRefresh(productId, entry);
+                } else if (now + refreshAheadMillis >= entry.softExpireAt()) {
+                    refreshAhead.increment();
+                    scheduleRefresh(productId, entry);
+                }
+                loaded.put(productId, Optional.of(entry.product()));
+            } else if (values.containsKey(PRODUCT_NULL_PREFIX + productId)) {
+                loaded.put(productId, Optional.empty());
+            } else {
+                misses.add(productId);
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * 一次 findAllById 回源，按需在一个管道内回写详情缓存和空值缓存
+     */
+    private void loadAllFromDatabase(List<String> productIds, Map<String, Optional<Product>> loaded, boolean backfill) {
+        batchDatabaseLoads.increment();
+        Map<String, Product> products = new HashMap<>();
+        for (Product product : productRepository.findAllById(productIds)) {
+            products.put(product.getProductId(), product);
+        }
+        for (String productId : productIds) {
+            loaded.put(productId, Optional.ofNullable(products.get(productId)));
+        }
+        if (!backfill) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String productId : productIds) {
+                    Product product = products.get(productId);
+                    if (product != null) {
+                        setEntry(connection, productId, StockWarmupService.toVersion(product.getUpdatedAt()), product);
+                    } else {
+                        connection.stringCommands().set((PRODUCT_NULL_PREFIX + productId).getBytes(StandardCharsets.UTF_8),
+                                "null".getBytes(StandardCharsets.UTF_8), Expiration.seconds(NULL_CACHE_TTL), SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            Map<String, LocalDateTime> updatedAts = new HashMap<>();
+            products.forEach((productId, product) -> updatedAts.put(productId, product.getUpdatedAt()));
+            productVersionService.advance(updatedAts);
+            log.info("批量回源 {} 个商品，已回写缓存（存在 {} 个）", productIds.size(), products.size());
+        } catch (Exception e) {
+            log.error("批量回写 {} 个商品缓存失败: {}", productIds.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 定时任务：把热点探测选出的商品常驻本节点，即将逻辑过期的条目提前刷新
+     */
+    @Scheduled(initialDelayString = "${product.hot.merge-interval-ms:5000}",
+            fixedDelayString = "${product.hot.merge-interval-ms:5000}")
+    public void promoteHotProducts() {
+        if (!hotProductDetector.isEnabled()) {
+            return;
+        }
+        Set<String> hot = hotProductDetector.getHotProducts().keySet();
+        pinnedProducts.keySet().retainAll(hot);
+        if (hot.isEmpty()) {
+            return;
+        }
+        List<String> hotIds = new ArrayList<>(hot);
+        long[] epochs = epochsOf(hotIds);
+        Map<String, Optional<Product>> loaded = new HashMap<>();
+        try {
+            List<String> misses = readRedisCaches(hotIds, loaded, refreshAheadSeconds * 1000);
+            if (!misses.isEmpty()) {
+                loadAllFromDatabase(misses, loaded, true);
+            }
+        } catch (Exception e) {
+            log.error("加载 {} 个热点商品失败: {}", hot.size(), e.getMessage());
+            return;
+        }
+        // 读取期间收到失效广播的商品本轮不更新，下一轮重新加载
+        pinnedProducts.putAll(unchangedSince(hotIds, epochs, loaded));
+    }
 
-        } catch (JsonProcessingException e) {
+    /**
+     * 定时任务：热点商品自动开启详情多副本，不再是热点时关闭（只关闭自动开启的，手动开启的保持不变）
+     */
+    @Scheduled(initialDelayString = "${product.hot.merge-interval-ms:5000}",
+            fixedDelayString = "${product.hot.merge-interval-ms:5000}")
+    public void syncHotReplicas() {
+        if (!hotProductDetector.isEnabled() || hotReplicaCopies <= 0) {
+            return;
+        }
+        Set<String> hot = hotProductDetector.getHotProducts().keySet();
+        try {
+            for (String productId : hot) {
+                if (productReplicaRegistry.getCopies(productId) == 0) {
+                    productReplicaRegistry.registerHot(productId, hotReplicaCopies);
+                    copyPrimaryToReplicas(productId, hotReplicaCopies);
+                    log.info("热点商品 {} 已自动开启详情多副本，副本数: {}", productId, hotReplicaCopies);
+                }
+            }
+            for (String productId : productReplicaRegistry.getHotRegistered()) {
+                if (!hot.contains(productId)) {
+                    disableReplicas(productId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("同步热点商品详情多副本失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 Redis 读取商品详情，未命中时回源数据库
+     * @return 商品信息，读取异常时返回null（不写入 L1）
+     */
+    private Optional<Product> loadProductDetail(String productId) {
+        try {
+            Optional<Product> cached = readRedisCache(productId);
+            if (cached != null) {
+                return cached;
+            }
+            return loadFromDatabase(productId);
+        } catch (IllegalArgumentException e) {
             log.error("商品 {} 缓存序列化/反序列化失败: {}", productId, e.getMessage());
             // 缓存异常时，直接从数据库查询
             return productRepository.findById(productId);
         } catch (Exception e) {
             log.error("获取商品 {} 详情时发生异常: {}", productId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 读取 Redis 中的空值缓存和商品详情缓存
+     * @return 命中时返回商品信息（空值缓存返回 Optional.empty()），未命中返回null
+     */
+    private Optional<Product> readRedisCache(String productId) {
+        // 1. 检查商品详情缓存，逻辑过期时先返回旧值，再提交后台刷新
+        byte[] cachedProduct = readDetail(productId);
+        if (cachedProduct != null) {
+            log.debug("商品 {} 从缓存中获取", productId);
+            CacheEntry entry = decodeEntry(cachedProduct);
+            if (System.currentTimeMillis() >= entry.softExpireAt()) {
+                staleServed.increment();
+                scheduleRefresh(productId, entry);
+            }
+            return Optional.of(entry.product());
+        }
+
+        // 2. 再检查空值缓存（布隆过滤器误判为存在的ID）
+        String nullFlag = stringRedisTemplate.opsForValue().get(PRODUCT_NULL_PREFIX + productId);
+        if (nullFlag != null) {
+            log.debug("商品 {} 在空值缓存中找到，返回null", productId);
             return Optional.empty();
         }
+        return null;
+    }
+
+    /**
+     * 读取商品详情条目的原始字节，多副本商品随机读一个副本，副本缺失时读主key并补写该副本
+     */
+    private byte[] readDetail(String productId) {
+        String readKey = readKey(productId);
+        byte[] key = readKey.getBytes(StandardCharsets.UTF_8);
+        byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key));
+        if (readKey.equals(PRODUCT_CACHE_PREFIX + productId)) {
+            return raw;
+        }
+        replicaReads.increment();
+        if (raw != null) {
+            return raw;
+        }
+        replicaMisses.increment();
+        byte[] primaryKey = (PRODUCT_CACHE_PREFIX + productId).getBytes(StandardCharsets.UTF_8);
+        byte[] primary = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(primaryKey));
+        if (primary != null) {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.stringCommands().set(key, primary, Expiration.seconds(withJitter(CACHE_TTL)), SetOption.upsert()));
+        }
+        return primary;
+    }
+
+    /**
+     * 读取使用的详情key：多副本商品随机选择一个副本，否则为主key
+     */
+    private String readKey(String productId) {
+        int copies = productReplicaRegistry.getCopies(productId);
+        return copies > 0 ? replicaKey(productId, ThreadLocalRandom.current().nextInt(copies)) : PRODUCT_CACHE_PREFIX + productId;
+    }
+
+    /**
+     * 副本key，hash tag 为 商品ID#副本序号，使各副本分布在不同槽位
+     */
+    private static String replicaKey(String productId, int index) {
+        return PRODUCT_CACHE_PREFIX + "{" + productId + "#" + index + "}";
+    }
+
+    private static List<String> replicaKeys(String productId, int copies) {
+        List<String> keys = new ArrayList<>(copies);
+        for (int i = 0; i < copies; i++) {
+            keys.add(replicaKey(productId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 提交后台刷新，同一商品在本节点同时只排队一次
+     */
+    private void scheduleRefresh(String productId, CacheEntry staleEntry) {
+        if (!refreshingProducts.add(productId)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refreshEntry(productId, staleEntry);
+                } finally {
+                    refreshingProducts.remove(productId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshRejected.increment();
+            refreshingProducts.remove(productId);
+        }
+    }
+
+    /**
+     * 从数据库重新加载商品并写入新条目；其他节点正在刷新（持有加载锁）时跳过
+     */
+    private void refreshEntry(String productId, CacheEntry staleEntry) {
+        String lockKey = PRODUCT_LOAD_LOCK_PREFIX + productId;
+        String lockId = redisLock.tryLock(lockKey, LOAD_LOCK_EXPIRE_SECONDS);
+        if (lockId == null) {
+            return;
+        }
+        try {
+            databaseLoads.increment();
+            Optional<Product> productOptional = productRepository.findById(productId);
+            if (productOptional.isEmpty()) {
+                deleteProductCache(productId);
+                return;
+            }
+            Product product = productOptional.get();
+            // 数据库版本比缓存旧（缓存由 updateProductCache 直接写入），保留缓存内容只延长逻辑过期；
+            // 旧格式的条目在这里按当前编码重写
+            if (StockWarmupService.toVersion(product.getUpdatedAt()) < staleEntry.version()) {
+                product = staleEntry.product();
+            }
+            long version = Math.max(staleEntry.version(), StockWarmupService.toVersion(product.getUpdatedAt()));
+            writeEntry(productId, version, product);
+            refreshCompleted.increment();
+            if (!product.equals(staleEntry.product())) {
+                invalidateL1(productId);
+                productVersionService.bump(productId);
+            }
+        } catch (Exception e) {
+            log.error("后台刷新商品 {} 缓存失败: {}", productId, e.getMessage());
+        } finally {
+            redisLock.releaseLock(lockKey, lockId);
+        }
+    }
+
+    /**
+     * 按当前编码写入缓存条目，物理过期时间加随机抖动
+     */
+    private void writeEntry(String productId, long version, Product product) {
+        RedisCallback<Object> callback = connection -> {
+            setEntry(connection, productId, version, product);
+            return null;
+        };
+        if (productReplicaRegistry.getCopies(productId) > 0) {
+            // 主key和所有副本在一个管道内写入
+            stringRedisTemplate.executePipelined(callback);
+        } else {
+            stringRedisTemplate.execute(callback);
+        }
+    }
+
+    /**
+     * 写入主key，多副本商品同时写入所有副本（调用方负责管道）
+     */
+    private void setEntry(RedisConnection connection, String productId, long version, Product product) {
+        byte[] value = encodeEntry(version, product);
+        connection.stringCommands().set((PRODUCT_CACHE_PREFIX + productId).getBytes(StandardCharsets.UTF_8),
+                value, Expiration.seconds(withJitter(CACHE_TTL)), SetOption.upsert());
+        for (String replicaKey : replicaKeys(productId, productReplicaRegistry.getCopies(productId))) {
+            connection.stringCommands().set(replicaKey.getBytes(StandardCharsets.UTF_8),
+                    value, Expiration.seconds(withJitter(CACHE_TTL)), SetOption.upsert());
+        }
+    }
+
+    private void writeEntry(Product product) {
+        writeEntry(product.getProductId(), StockWarmupService.toVersion(product.getUpdatedAt()), product);
+    }
+
+    /**
+     * 编码缓存条目，逻辑过期时间加随机抖动，避免批量预热的条目同时过期
+     */
+    private byte[] encodeEntry(long version, Product product) {
+        return encodeEntry(version, System.currentTimeMillis() + withJitter(softTtlSeconds) * 1000, product);
+    }
+
+    private byte[] encodeEntry(long version, long softExpireAt, Product product) {
+        return entryCodec.encode(version, softExpireAt, product);
+    }
+
+    private CacheEntry decodeEntry(byte[] raw) {
+        return entryCodec.decode(raw);
+    }
+
+    /**
+     * 在基础时长上增加 0~ttl-jitter-percent% 的随机抖动
+     */
+    private long withJitter(long seconds) {
+        long maxJitter = seconds * ttlJitterPercent / 100;
+        return maxJitter > 0 ? seconds + ThreadLocalRandom.current().nextLong(maxJitter + 1) : seconds;
+    }
+
+    /**
+     * 缓存未命中时回源数据库
+     * 集群内用短时互斥锁只让一个节点回源，其他节点在 lock-wait-ms 内轮询 Redis 等待写入，
+     * 超时仍未写入（持锁节点变慢或宕机）时自行回源
+     */
+    private Optional<Product> loadFromDatabase(String productId) {
+        String lockKey = PRODUCT_LOAD_LOCK_PREFIX + productId;
+        String lockId = redisLock.tryLock(lockKey, LOAD_LOCK_EXPIRE_SECONDS);
+        if (lockId == null) {
+            long deadline = System.currentTimeMillis() + lockWaitMs;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(LOCK_POLL_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                Optional<Product> loaded = readRedisCache(productId);
+                if (loaded != null) {
+                    clusterCoalesced.increment();
+                    return loaded;
+                }
+            }
+            lockWaitTimeouts.increment();
+            log.warn("等待其他节点加载商品 {} 超时，直接回源数据库", productId);
+        }
+
+        try {
+            // 拿到锁后再查一次，上一个持锁节点可能刚写入
+            if (lockId != null) {
+                Optional<Product> loaded = readRedisCache(productId);
+                if (loaded != null) {
+                    return loaded;
+                }
+            }
+
+            // 3. 缓存未命中，从数据库查询
+            databaseLoads.increment();
+            Optional<Product> productOptional = productRepository.findById(productId);
+
+            if (productOptional.isPresent()) {
+                // 4. 商品存在，缓存商品详情
+                writeEntry(productOptional.get());
+                // 缓存过期期间数据库可能已变化，只有数据比当前版本新时才推进版本
+                productVersionService.advance(Collections.singletonMap(productId, productOptional.get().getUpdatedAt()));
+                log.info("商品 {} 已缓存到Redis，TTL: {}秒", productId, CACHE_TTL);
+            } else {
+                // 5. 商品不存在，缓存空值（防止缓存穿透）
+                stringRedisTemplate.opsForValue().set(PRODUCT_NULL_PREFIX + productId, "null", NULL_CACHE_TTL, TimeUnit.SECONDS);
+                log.info("商品 {} 不存在，已缓存空值标记，TTL: {}秒", productId, NULL_CACHE_TTL);
+            }
+            return productOptional;
+        } finally {
+            if (lockId != null) {
+                redisLock.releaseLock(lockKey, lockId);
+            }
+        }
     }
 
     /**
@@ -92,18 +864,20 @@ public class ProductCacheService {
         }
 
         try {
-            String cacheKey = PRODUCT_CACHE_PREFIX + product.getProductId();
             String nullCacheKey = PRODUCT_NULL_PREFIX + product.getProductId();
 
             // 删除空值缓存
             stringRedisTemplate.delete(nullCacheKey);
 
             // 更新商品详情缓存
-            String productJson = objectMapper.writeValueAsString(product);
-            stringRedisTemplate.opsForValue().set(cacheKey, productJson, CACHE_TTL, TimeUnit.SECONDS);
+            writeEntry(product);
+            deleteUnregisteredReplicas(product.getProductId());
+            invalidateL1(product.getProductId());
+            productVersionService.bump(product.getProductId());
+            productBloomFilterService.registerProduct(product.getProductId());
             
             log.info("商品 {} 缓存已更新", product.getProductId());
-        } catch (JsonProcessingException e) {
+        } catch (IllegalArgumentException e) {
             log.error("更新商品 {} 缓存时序列化失败: {}", product.getProductId(), e.getMessage());
         }
     }
@@ -117,16 +891,318 @@ public class ProductCacheService {
             return;
         }
 
-        String cacheKey = PRODUCT_CACHE_PREFIX + productId;
-        String nullCacheKey = PRODUCT_NULL_PREFIX + productId;
+        List<String> keys = possibleDetailKeys(productId);
+        keys.add(PRODUCT_NULL_PREFIX + productId);
 
-        // 删除商品详情缓存和空值缓存
-        stringRedisTemplate.delete(cacheKey);
-        stringRedisTemplate.delete(nullCacheKey);
+        // 在一个管道内删除商品详情缓存（含所有副本）和空值缓存
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.keyCommands().del(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        invalidateL1(productId);
+        productVersionService.bump(productId);
         
         log.info("商品 {} 缓存已删除", productId);
     }
 
+    /**
+     * 库存批量写回数据库后，原地更新已缓存条目中的库存（主key和所有副本），不删除条目，热点商品不会因同步回源数据库
+     * 逻辑过期时间和剩余物理过期时间保持不变；条目在读取后被其他写入修改过时放弃，以那次写入为准
+     * @param stocks 商品ID -> 写回的库存
+     * @param updatedAt 写回数据库的 updated_at
+     */
+    public void updateCachedStocks(Map<String, Long> stocks, LocalDateTime updatedAt) {
+        if (stocks == null || stocks.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        List<String> keyProducts = new ArrayList<>();
+        for (String productId : stocks.keySet()) {
+            for (String key : allDetailKeys(productId)) {
+                keys.add(key);
+                keyProducts.add(productId);
+            }
+        }
+        // 不传结果序列化器，保留原始字节
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }, null);
+
+        long syncedVersion = StockWarmupService.toVersion(updatedAt);
+        List<byte[][]> replacements = new ArrayList<>();
+        Set<String> updated = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] raw = (byte[]) values.get(i);
+            if (raw == null) {
+                continue;
+            }
+            String productId = keyProducts.get(i);
+            try {
+                CacheEntry entry = decodeEntry(raw);
+                Product product = entry.product();
+                int stock = stocks.get(productId).intValue();
+                if (product.getStock() != null && product.getStock() == stock) {
+                    continue;
+                }
+                product.setStock(stock);
+                product.setUpdatedAt(updatedAt);
+                byte[] value = encodeEntry(Math.max(entry.version(), syncedVersion), entry.softExpireAt(), product);
+                replacements.add(new byte[][]{keys.get(i).getBytes(StandardCharsets.UTF_8), raw, value});
+                updated.add(productId);
+            } catch (Exception e) {
+                log.warn("商品 {} 缓存条目无法解析，跳过库存更新: {}", productId, e.getMessage());
+            }
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[][] replacement : replacements) {
+                connection.scriptingCommands().eval(replaceEntryScript, ReturnType.INTEGER, 1, replacement);
+            }
+            return null;
+        });
+        invalidateL1(updated);
+        productVersionService.bump(updated);
+    }
+
+    /**
+     * 商品详情的主key和所有可能存在的副本key
+     * 配置未同步的节点不会删除或覆盖新开启的副本，删除时不依赖本地副本数
+     */
+    private List<String> possibleDetailKeys(String productId) {
+        List<String> keys = new ArrayList<>(replicaKeys(productId, ProductReplicaRegistry.MAX_COPIES));
+        keys.add(PRODUCT_CACHE_PREFIX + productId);
+        return keys;
+    }
+
+    /**
+     * 删除本节点未登记的副本key：其他节点刚开启的副本本节点不会覆盖，删除后读取时从主key补写
+     */
+    private void deleteUnregisteredReplicas(String productId) {
+        List<String> keys = replicaKeys(productId, ProductReplicaRegistry.MAX_COPIES);
+        List<String> unregistered = keys.subList(productReplicaRegistry.getCopies(productId), keys.size());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : unregistered) {
+                connection.keyCommands().del(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 商品详情的主key和当前登记的所有副本key
+     */
+    private List<String> allDetailKeys(String productId) {
+        List<String> keys = new ArrayList<>(replicaKeys(productId, productReplicaRegistry.getCopies(productId)));
+        keys.add(PRODUCT_CACHE_PREFIX + productId);
+        return keys;
+    }
+
+    /**
+     * 开启商品详情多副本（热点商品，管理员接口）
+     * 登记配置后把主key当前内容复制到各副本，主key不存在时由下一次加载写入
+     * @param productId 商品ID
+     * @param copies 副本数
+     */
+    public void enableReplicas(String productId, int copies) {
+        productReplicaRegistry.register(productId, copies);
+        copyPrimaryToReplicas(productId, copies);
+        log.info("商品 {} 已开启详情多副本，副本数: {}", productId, copies);
+    }
+
+    /**
+     * 把主key当前内容复制到各副本，主key不存在时由下一次加载写入
+     */
+    private void copyPrimaryToReplicas(String productId, int copies) {
+        byte[] primaryKey = (PRODUCT_CACHE_PREFIX + productId).getBytes(StandardCharsets.UTF_8);
+        byte[] primary = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(primaryKey));
+        if (primary != null) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String replicaKey : replicaKeys(productId, copies)) {
+                    connection.stringCommands().set(replicaKey.getBytes(StandardCharsets.UTF_8),
+                            primary, Expiration.seconds(withJitter(CACHE_TTL)), SetOption.upsert());
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 关闭商品详情多副本并删除所有副本，读取回到主key
+     * @param productId 商品ID
+     * @return 原副本数，0表示未开启
+     */
+    public int disableReplicas(String productId) {
+        int copies = productReplicaRegistry.unregister(productId);
+        if (copies > 0) {
+            stringRedisTemplate.delete(replicaKeys(productId, copies));
+            log.info("商品 {} 已关闭详情多副本，删除副本: {}", productId, copies);
+        }
+        return copies;
+    }
+
+    /**
+     * 当前开启多副本的商品及副本读取统计
+     * @return 统计信息
+     */
+    public Map<String, Object> getReplicaStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("products", productReplicaRegistry.getAll());
+        result.put("replicaReads", replicaReads.sum());
+        result.put("replicaMisses", replicaMisses.sum());
+        return result;
+    }
+
+    private void invalidateL1(String productId) {
+        invalidateL1(List.of(productId));
+    }
+
+    /**
+     * 清除本节点 L1 并广播到其他节点，消息体为商品ID的JSON数组
+     * @param productIds 商品ID
+     */
+    private void invalidateL1(Collection<String> productIds) {
+        evictLocal(productIds);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, objectMapper.writeValueAsString(productIds));
+        } catch (Exception e) {
+            // 广播失败时其他节点的 L1 最多在 TTL 后过期
+            log.error("广播商品缓存失效失败: {}, {}", productIds, e.getMessage());
+        }
+    }
+
+    private void evictLocal(Collection<String> productIds) {
+        // 先推进计数再清除，清除后开始的读取看到的是新计数
+        for (String productId : productIds) {
+            invalidationEpochs.incrementAndGet(stripeOf(productId));
+        }
+        l1Cache.invalidateAll(productIds);
+        jsonCache.invalidateAll(productIds);
+        pinnedProducts.keySet().removeAll(productIds);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            evictLocal(objectMapper.readValue(message.getBody(), new TypeReference<List<String>>() { }));
+        } catch (Exception e) {
+            log.error("收到无法解析的商品缓存失效消息: {}, {}",
+                    new String(message.getBody(), StandardCharsets.UTF_8), e.getMessage());
+        }
+    }
+
+    private static int stripeOf(String productId) {
+        int h = productId.hashCode();
+        return (h ^ (h >>> 16)) & (EPOCH_STRIPES - 1);
+    }
+
+    private long epochOf(String productId) {
+        return invalidationEpochs.get(stripeOf(productId));
+    }
+
+    private long[] epochsOf(List<String> productIds) {
+        long[] epochs = new long[productIds.size()];
+        for (int i = 0; i < epochs.length; i++) {
+            epochs[i] = epochOf(productIds.get(i));
+        }
+        return epochs;
+    }
+
+    /**
+     * 筛出读取期间没有收到失效的商品
+     * @param epochs 读取前按 productIds 顺序记录的失效计数
+     */
+    private Map<String, Optional<Product>> unchangedSince(List<String> productIds, long[] epochs,
+                                                          Map<String, Optional<Product>> loaded) {
+        Map<String, Optional<Product>> unchanged = new HashMap<>();
+        for (int i = 0; i < epochs.length; i++) {
+            String productId = productIds.get(i);
+            Optional<Product> product = loaded.get(productId);
+            if (product != null && epochOf(productId) == epochs[i]) {
+                unchanged.put(productId, product);
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * 获取 L1 缓存统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getL1Stats() {
+        CacheStats stats = l1Cache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", l1Enabled);
+        result.put("size", l1Cache.estimatedSize());
+        result.put("jsonSize", jsonCache.estimatedSize());
+        result.put("staleEvicted", staleL1Evicted.sum());
+        result.put("passThrough", passThrough);
+        result.put("passThroughHits", passThroughHits.sum());
+        result.put("maxSize", l1MaxSize);
+        result.put("ttlSeconds", l1TtlSeconds);
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    /**
+     * 获取热点商品及其常驻状态
+     * @return 热点信息
+     */
+    public Map<String, Object> getHotProducts() {
+        List<Map<String, Object>> products = new ArrayList<>();
+        hotProductDetector.getHotProducts().forEach((productId, count) -> {
+            Map<String, Object> item = new HashMap<>();
+            item.put("productId", productId);
+            item.put("count", count);
+            item.put("pinned", pinnedProducts.containsKey(productId));
+            products.add(item);
+        });
+        Map<String, Object> result = new HashMap<>(hotProductDetector.getStats());
+        result.put("hotProducts", products);
+        result.put("pinnedCount", pinnedProducts.size());
+        return result;
+    }
+
+    /**
+     * 获取商品ID布隆过滤器统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getBloomStats() {
+        return productBloomFilterService.getStats();
+    }
+
+    /**
+     * 获取缓存加载（未命中合并）统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getLoaderStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("inFlightLoads", inFlightLoads.size());
+        result.put("localCoalesced", (long) localCoalesced.count());
+        result.put("clusterCoalesced", (long) clusterCoalesced.count());
+        result.put("lockWaitTimeouts", (long) lockWaitTimeouts.count());
+        result.put("databaseLoads", (long) databaseLoads.count());
+        result.put("staleServed", staleServed.sum());
+        result.put("refreshQueued", refreshExecutor.getQueue().size());
+        result.put("refreshRejected", refreshRejected.sum());
+        result.put("refreshCompleted", refreshCompleted.sum());
+        result.put("refreshAhead", refreshAhead.sum());
+        result.put("codec", entryCodec.name());
+        result.put("batchRequests", batchRequests.sum());
+        result.put("batchDatabaseLoads", batchDatabaseLoads.sum());
+        return result;
+    }
+
     /**
      * 预热热门商品缓存
      * @param productIds 商品ID列表
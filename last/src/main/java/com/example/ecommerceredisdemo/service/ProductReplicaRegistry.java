@@ -0,0 +1,111 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.SyncedProductConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 热点商品详情多副本配置
+ * 记录哪些商品的详情缓存写成多个副本（副本key由 ProductCacheService 生成），
+ * 配置保存在 Redis Hash 中，各节点本地缓存并通过发布订阅同步（SyncedProductConfig，与分片库存配置共用）。
+ * 由热点探测自动开启的商品另外记录在 product:detail:replica:auto 中，冷却后只自动关闭这些商品，手动开启的保持不变。
+ */
+@Service
+@Slf4j
+public class ProductReplicaRegistry {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private static final String REPLICA_CONFIG_KEY = "product:detail:replica:config"; // productId -> 副本数
+    private static final String REPLICA_CHANNEL = "product:detail:replica:channel";
+    private static final String REPLICA_AUTO_KEY = "product:detail:replica:auto"; // 热点探测自动开启的商品
+    public static final int MAX_COPIES = 16;
+
+    // productId -> 副本数，未开启多副本的商品不在表中
+    private SyncedProductConfig replicaCounts;
+
+    @PostConstruct
+    public void init() {
+        replicaCounts = new SyncedProductConfig(stringRedisTemplate, REPLICA_CONFIG_KEY, REPLICA_CHANNEL, "商品详情多副本配置");
+        replicaCounts.start(redisMessageListenerContainer);
+    }
+
+    /**
+     * 获取商品详情的副本数（仅查本地缓存）
+     * @param productId 商品ID
+     * @return 副本数，0表示未开启
+     */
+    public int getCopies(String productId) {
+        return replicaCounts.get(productId);
+    }
+
+    /**
+     * 登记多副本配置并广播（手动开启，不会被热点探测自动关闭）
+     */
+    public void register(String productId, int copies) {
+        checkCopies(copies);
+        replicaCounts.put(productId, copies);
+        stringRedisTemplate.opsForSet().remove(REPLICA_AUTO_KEY, productId);
+    }
+
+    /**
+     * 热点探测自动登记多副本配置并广播
+     */
+    public void registerHot(String productId, int copies) {
+        checkCopies(copies);
+        stringRedisTemplate.opsForSet().add(REPLICA_AUTO_KEY, productId);
+        replicaCounts.put(productId, copies);
+    }
+
+    /**
+     * 移除多副本配置并广播
+     * @return 原副本数，0表示未开启
+     */
+    public int unregister(String productId) {
+        int copies = replicaCounts.remove(productId);
+        stringRedisTemplate.opsForSet().remove(REPLICA_AUTO_KEY, productId);
+        return copies;
+    }
+
+    /**
+     * 由热点探测自动开启多副本的商品
+     */
+    public Set<String> getHotRegistered() {
+        Set<String> products = stringRedisTemplate.opsForSet().members(REPLICA_AUTO_KEY);
+        return products != null ? products : Set.of();
+    }
+
+    /**
+     * 定时刷新多副本配置，兜底发布订阅消息丢失的情况
+     */
+    @Scheduled(fixedRate = 30000)
+    public void refreshReplicaConfig() {
+        replicaCounts.refresh();
+    }
+
+    /**
+     * 当前开启多副本的商品
+     * @return 商品ID -> 副本数
+     */
+    public Map<String, Integer> getAll() {
+        return replicaCounts.getAll();
+    }
+
+    private static void checkCopies(int copies) {
+        if (copies < 2 || copies > MAX_COPIES) {
+            throw new IllegalArgumentException("副本数必须在2-" + MAX_COPIES + "之间");
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.ecommerceredisdemo.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商品版本号（商品详情和库存接口的 ETag）
+ * 每个商品一个版本key（product:version:商品ID），缓存更新、删除时立即加一；
+ * 回源只在数据库 updated_at 比当前版本新时推进版本，内容未变化的回源不改变 ETag；
+ * 库存变更频繁，先在本地合并，每隔 flush-interval-ms 在一个管道内统一加一，ETag 最多滞后一个间隔。
+ * 条件请求只需读取这一个小key即可判断是否返回 304。
+ */
+@Service
+@Slf4j
+public class ProductVersionService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${product.etag.enabled:true}")
+    private boolean enabled;
+
+    private static final String VERSION_PREFIX = "product:version:";
+
+    private DefaultRedisScript<Long> bumpVersionScript;
+    private byte[] bumpVersionScriptBytes;
+    private byte[] advanceVersionScriptBytes;
+
+    // 待合并加一的商品（库存变更）
+    private final Set<String> pendingBumps = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder bumpedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        bumpVersionScript = new DefaultRedisScript<>();
+        bumpVersionScript.setLocation(new ClassPathResource("lua/bump_version.lua"));
+        bumpVersionScript.setResultType(Long.class);
+        bumpVersionScriptBytes = bumpVersionScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+        DefaultRedisScript<Long> advanceVersionScript = new DefaultRedisScript<>();
+        advanceVersionScript.setLocation(new ClassPathResource("lua/advance_version.lua"));
+        advanceVersionScriptBytes = advanceVersionScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取商品的强 ETag
+     * 版本key不存在时返回null（不为未知商品创建版本key），此时不做条件判断
+     * @param productId 商品ID
+     * @return 带引号的 ETag，如 "1718000000123"
+     */
+    public String getETag(String productId) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            String version = stringRedisTemplate.opsForValue().get(VERSION_PREFIX + productId);
+            return version != null ? "\"" + version + "\"" : null;
+        } catch (Exception e) {
+            log.error("读取商品 {} 版本失败: {}", productId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * If-None-Match 是否与当前 ETag 匹配（GET 请求按弱比较，忽略 W/ 前缀）
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 立即将商品版本加一（商品缓存内容变化时调用）
+     * @param productId 商品ID
+     */
+    public void bump(String productId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(bumpVersionScript, Collections.singletonList(VERSION_PREFIX + productId),
+                    String.valueOf(System.currentTimeMillis()));
+            bumpedCount.increment();
+        } catch (Exception e) {
+            log.error("更新商品 {} 版本失败: {}", productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 在一个管道内将多个商品的版本加一
+     * @param productIds 商品ID
+     */
+    public void bump(Collection<String> productIds) {
+        if (!enabled || productIds.isEmpty()) {
+            return;
+        }
+        byte[] now = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String productId : productIds) {
+                    connection.scriptingCommands().eval(bumpVersionScriptBytes, ReturnType.INTEGER, 1,
+                            (VERSION_PREFIX + productId).getBytes(StandardCharsets.UTF_8), now);
+                }
+                return null;
+            });
+            bumpedCount.add(productIds.size());
+        } catch (Exception e) {
+            log.error("批量更新 {} 个商品版本失败: {}", productIds.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 回源后按数据的 updated_at 推进版本（在一个管道内），版本已不低于 updated_at 时不变
+     * 版本从当前毫秒时间开始计数，直接写入数据库（不经过应用）的修改 updated_at 更新，回源时 ETag 随之变化
+     * @param updatedAts 商品ID -> updated_at
+     */
+    public void advance(Map<String, LocalDateTime> updatedAts) {
+        if (!enabled || updatedAts.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                updatedAts.forEach((productId, updatedAt) -> connection.scriptingCommands().eval(
+                        advanceVersionScriptBytes, ReturnType.INTEGER, 1,
+                        (VERSION_PREFIX + productId).getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(toMillis(updatedAt)).getBytes(StandardCharsets.UTF_8)));
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("推进 {} 个商品版本失败: {}", updatedAts.size(), e.getMessage());
+        }
+    }
+
+    private static long toMillis(LocalDateTime updatedAt) {
+        return updatedAt == null ? 0 : updatedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 记录库存变更，版本在下一次合并时加一
+     * @param productId 商品ID
+     */
+    public void markChanged(String productId) {
+        if (enabled) {
+            pendingBumps.add(productId);
+        }
+    }
+
+    /**
+     * 定时任务：合并本地记录的库存变更，统一加一
+     */
+    @Scheduled(fixedDelayString = "${product.etag.flush-interval-ms:100}")
+    public void flushPendingBumps() {
+        if (pendingBumps.isEmpty()) {
+            return;
+        }
+        List<String> productIds = new ArrayList<>(pendingBumps);
+        pendingBumps.removeAll(productIds);
+        bump(productIds);
+    }
+
+    /**
+     * 获取版本号统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("etagEnabled", enabled);
+        stats.put("versionBumped", bumpedCount.sum());
+        stats.put("versionPending", pendingBumps.size());
+        return stats;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.BloomFilter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀每人限购
+ * 已购数量记录在与库存key同槽的 Hash 中（flash_sale:buyers:{product:stock:商品ID}），
+ * 由扣减库存的同一个 Lua 脚本检查并记录；已买满的用户同时记入本地布隆过滤器，
+ * 重复抢购在访问 Redis 之前即被拒绝
+ * 布隆过滤器按商品划分，与已购记录 Hash 的过期时间一起轮换；限购调整时广播到所有节点丢弃该商品的过滤器，
+ * 归还额度时广播到所有节点（归还通常发生在消费订单消息的节点，而记录该用户的是受理抢购的节点）
+ */
+@Service
+@Slf4j
+public class PurchaseLimitService implements MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${flash-sale.user-limit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${flash-sale.user-limit.max-per-user:1}")
+    private int defaultLimit;
+
+    @Value("${flash-sale.user-limit.bloom-expected-insertions:100000}")
+    private long bloomExpectedInsertions;
+
+    @Value("${flash-sale.user-limit.bloom-fpp:0.00001}")
+    private double bloomFpp;
+
+    private static final String BUYERS_KEY_PREFIX = "flash_sale:buyers:";
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final String LIMIT_FIELD = "__limit";
+    public static final String LIMIT_CHANGED_CHANNEL = "flash_sale:limit:channel";
+    // 消息体为 [商品ID, 用户ID] 的JSON数组
+    public static final String QUOTA_RELEASED_CHANNEL = "flash_sale:limit:released:channel";
+    // 与 Lua 脚本中已购记录 Hash 的过期时间一致
+    private static final long BUYERS_TTL_MS = 86400_000L;
+    // 单个商品记录的归还用户数上限，超过时丢弃该商品的过滤器重新积累
+    private static final int MAX_RELEASED_BUYERS = 10000;
+
+    public static final long LIMIT_EXCEEDED = -4L;
+
+    private DefaultRedisScript<List> reserveUserQuotaScript;
+    private DefaultRedisScript<Long> releaseUserQuotaScript;
+
+    // productId -> 该商品已买满的用户
+    private final ConcurrentHashMap<String, BuyerFilter> buyerFilters = new ConcurrentHashMap<>();
+
+    private final LongAdder bloomRejectedCount = new LongAdder();
+    private final LongAdder limitRejectedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        reserveUserQuotaScript = new DefaultRedisScript<>();
+        reserveUserQuotaScript.setLocation(new ClassPathResource("lua/reserve_user_quota.lua"));
+        reserveUserQuotaScript.setResultType(List.class);
+
+        releaseUserQuotaScript = new DefaultRedisScript<>();
+        releaseUserQuotaScript.setLocation(new ClassPathResource("lua/release_user_quota.lua"));
+        releaseUserQuotaScript.setResultType(Long.class);
+
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LIMIT_CHANGED_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(QUOTA_RELEASED_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getDefaultLimit() {
+        return defaultLimit;
+    }
+
+    /**
+     * 已购用户记录key，hash tag 为库存key本身，保证与库存key在同一槽位
+     */
+    public String getBuyersKey(String productId) {
+        return BUYERS_KEY_PREFIX + "{" + PRODUCT_STOCK_PREFIX + productId + "}";
+    }
+
+    /**
+     * 本地判断用户是否已买满（布隆过滤器，可能误判为已买满）
+     * @return 是否应直接拒绝
+     */
+    public boolean isKnownRepeatBuyer(String userId, String productId) {
+        BuyerFilter buyerFilter = currentFilter(productId);
+        if (buyerFilter != null && buyerFilter.filter.mightContain(userId) && !buyerFilter.released.contains(userId)) {
+            bloomRejectedCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 根据脚本返回的 {结果, 已购数量, 限购数量} 更新本地布隆过滤器
+     */
+    public void recordScriptResult(String userId, String productId, long result, long bought, long limit) {
+        if (result == LIMIT_EXCEEDED) {
+            limitRejectedCount.increment();
+        }
+        if (result == LIMIT_EXCEEDED || (result >= 0 && bought >= limit)) {
+            BuyerFilter buyerFilter = currentFilter(productId);
+            if (buyerFilter == null) {
+                buyerFilter = buyerFilters.computeIfAbsent(productId,
+                        k -> new BuyerFilter(new BloomFilter(bloomExpectedInsertions, bloomFpp)));
+            }
+            buyerFilter.filter.put(userId);
+            buyerFilter.released.remove(userId);
+        }
+    }
+
+    /**
+     * 单独占用限购额度（分片、租借等不走单key扣减脚本的商品）
+     * @return 0 占用成功，-4 超出限购
+     */
+    public long reserveQuota(String userId, String productId, int quantity) {
+        List<?> result = stringRedisTemplate.execute(
+                reserveUserQuotaScript,
+                Collections.singletonList(getBuyersKey(productId)),
+                userId, String.valueOf(quantity), String.valueOf(defaultLimit)
+        );
+        if (result == null || result.size() != 3) {
+            throw new IllegalStateException("限购额度脚本返回结果异常");
+        }
+        long code = ((Number) result.get(0)).longValue();
+        recordScriptResult(userId, productId, code, ((Number) result.get(1)).longValue(), ((Number) result.get(2)).longValue());
+        return code;
+    }
+
+    /**
+     * 归还限购额度（库存扣减失败、订单回滚时调用）
+     * 先归还 Redis 中的额度再广播，其他节点收到后回源 Redis 判断该用户
+     */
+    public void releaseQuota(String userId, String productId, int quantity) {
+        markReleased(userId, productId);
+        try {
+            stringRedisTemplate.execute(
+                    releaseUserQuotaScript,
+                    Collections.singletonList(getBuyersKey(productId)),
+                    userId, String.valueOf(quantity)
+            );
+        } catch (Exception e) {
+            log.error("归还用户 {} 商品 {} 限购额度失败: {}", userId, productId, e.getMessage());
+            return;
+        }
+        try {
+            stringRedisTemplate.convertAndSend(QUOTA_RELEASED_CHANNEL, objectMapper.writeValueAsString(List.of(productId, userId)));
+        } catch (Exception e) {
+            // 其他节点的过滤器最迟在轮换时丢弃
+            log.error("广播用户 {} 商品 {} 限购额度归还失败: {}", userId, productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 本地记录归还过额度的用户，之后不再由布隆过滤器直接拒绝
+     */
+    private void markReleased(String userId, String productId) {
+        BuyerFilter buyerFilter = buyerFilters.get(productId);
+        if (buyerFilter != null && buyerFilter.filter.mightContain(userId)) {
+            buyerFilter.released.add(userId);
+            if (buyerFilter.released.size() > MAX_RELEASED_BUYERS) {
+                buyerFilters.remove(productId, buyerFilter);
+            }
+        }
+    }
+
+    /**
+     * 设置商品的每人限购数量（覆盖默认值）
+     * 所有节点丢弃该商品的布隆过滤器，已买满的用户回源 Redis 按新限购判断
+     */
+    public void setProductLimit(String productId, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("限购数量必须大于0");
+        }
+        String buyersKey = getBuyersKey(productId);
+        stringRedisTemplate.opsForHash().put(buyersKey, LIMIT_FIELD, String.valueOf(limit));
+        buyerFilters.remove(productId);
+        try {
+            stringRedisTemplate.convertAndSend(LIMIT_CHANGED_CHANNEL, productId);
+        } catch (Exception e) {
+            // 其他节点的过滤器最迟在轮换时丢弃
+            log.error("广播商品 {} 限购变更失败: {}", productId, e.getMessage());
+        }
+        log.info("商品 {} 每人限购数量设置为: {}", productId, limit);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        if (!QUOTA_RELEASED_CHANNEL.equals(channel)) {
+            buyerFilters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+            return;
+        }
+        try {
+            List<String> released = objectMapper.readValue(message.getBody(), new TypeReference<List<String>>() { });
+            markReleased(released.get(1), released.get(0));
+        } catch (Exception e) {
+            log.error("收到无法解析的限购额度归还消息: {}, {}",
+                    new String(message.getBody(), StandardCharsets.UTF_8), e.getMessage());
+        }
+    }
+
+    /**
+     * 定时清理过期的商品过滤器（秒杀结束后不再访问的商品）
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpiredFilters() {
+        long now = System.currentTimeMillis();
+        buyerFilters.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+    }
+
+    /**
+     * 获取商品当前有效的过滤器，超过已购记录过期时间的过滤器直接丢弃
+     */
+    private BuyerFilter currentFilter(String productId) {
+        BuyerFilter buyerFilter = buyerFilters.get(productId);
+        if (buyerFilter != null && buyerFilter.isExpired(System.currentTimeMillis())) {
+            buyerFilters.remove(productId, buyerFilter);
+            return null;
+        }
+        return buyerFilter;
+    }
+
+    /**
+     * 获取限购统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("userLimitEnabled", enabled);
+        stats.put("defaultLimitPerUser", defaultLimit);
+        stats.put("bloomFilterProducts", buyerFilters.size());
+        stats.put("bloomRejectedCount", bloomRejectedCount.sum());
+        stats.put("limitRejectedCount", limitRejectedCount.sum());
+        return stats;
+    }
+
+    /**
+     * 单个商品的已买满用户过滤器
+     * released 记录归还过额度的用户，布隆过滤器无法删除，命中这里时回源 Redis 判断
+     */
+    private static class BuyerFilter {
+        final BloomFilter filter;
+        final Set<String> released = ConcurrentHashMap.newKeySet();
+        final long createdAt = System.currentTimeMillis();
+
+        BuyerFilter(BloomFilter filter) {
+            this.filter = filter;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > BUYERS_TTL_MS;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.ecommerceredisdemo.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步抢购凭证
+ * 抢购请求受理后立即返回凭证ID，处理进度（库存预占、订单号分配、订单落库或失败）记录在 Redis Hash 中，
+ * 客户端通过轮询或 SSE 获取结果；状态变化通过发布订阅推送到持有 SSE 连接的节点
+ */
+@Service
+@Slf4j
+public class PurchaseTicketService implements MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${flash-sale.async-ticket.ttl-seconds:1800}")
+    private long ticketTtlSeconds;
+
+    @Value("${flash-sale.async-ticket.sse-timeout-ms:60000}")
+    private long sseTimeoutMs;
+
+    private static final String TICKET_PREFIX = "flash_sale:ticket:";
+    private static final String TICKET_CHANNEL = "flash_sale:ticket:channel";
+
+    // ticketId -> 本节点上等待该凭证结果的 SSE 连接
+    private final ConcurrentHashMap<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    public enum TicketStatus {
+        PENDING,        // 已受理，排队处理中
+        RESERVED,       // 库存已预占，订单号已分配，等待订单落库
+        PERSISTED,      // 订单已落库，抢购成功
+        REJECTED,       // 抢购未成功（库存不足、超出限购等）
+        FAILED;         // 系统异常
+
+        public boolean isFinal() {
+            return this == PERSISTED || this == REJECTED || this == FAILED;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(TICKET_CHANNEL));
+    }
+
+    /**
+     * 创建抢购凭证
+     * @return 凭证ID
+     */
+    public String createTicket(String userId, String productId, int quantity) {
+        String ticketId = UUID.randomUUID().toString().replace("-", "");
+        Map<String, String> ticket = new HashMap<>();
+        ticket.put("ticketId", ticketId);
+        ticket.put("userId", userId);
+        ticket.put("productId", productId);
+        ticket.put("quantity", String.valueOf(quantity));
+        ticket.put("status", TicketStatus.PENDING.name());
+        ticket.put("updatedAt", String.valueOf(System.currentTimeMillis()));
+
+        String ticketKey = TICKET_PREFIX + ticketId;
+        stringRedisTemplate.opsForHash().putAll(ticketKey, ticket);
+        stringRedisTemplate.expire(ticketKey, ticketTtlSeconds, TimeUnit.SECONDS);
+        return ticketId;
+    }
+
+    /**
+     * 更新凭证状态并通知等待中的客户端
+     * @param ticketId 凭证ID
+     * @param status 新状态
+     * @param message 结果描述
+     * @param orderId 订单号，可为空
+     */
+    public void updateStatus(String ticketId, TicketStatus status, String message, String orderId) {
+        if (ticketId == null) {
+            return;
+        }
+        try {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("status", status.name());
+            fields.put("message", message);
+            fields.put("updatedAt", String.valueOf(System.currentTimeMillis()));
+            if (orderId != null) {
+                fields.put("orderId", orderId);
+            }
+            stringRedisTemplate.opsForHash().putAll(TICKET_PREFIX + ticketId, fields);
+            stringRedisTemplate.convertAndSend(TICKET_CHANNEL, ticketId);
+        } catch (Exception e) {
+            log.error("更新抢购凭证 {} 状态为 {} 失败: {}", ticketId, status, e.getMessage());
+        }
+    }
+
+    /**
+     * 查询凭证
+     * @param ticketId 凭证ID
+     * @return 凭证内容，不存在时为空Map
+     */
+    public Map<String, String> getTicket(String ticketId) {
+        Map<Object, Object> raw = stringRedisTemplate.opsForHash().entries(TICKET_PREFIX + ticketId);
+        Map<String, String> ticket = new HashMap<>();
+        raw.forEach((k, v) -> ticket.put(k.toString(), v.toString()));
+        return ticket;
+    }
+
+    /**
+     * 订阅凭证结果（SSE），立即推送当前状态，终态后关闭连接
+     * @param ticketId 凭证ID
+     * @return SseEmitter
+     */
+    public SseEmitter subscribe(String ticketId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        List<SseEmitter> ticketEmitters = emitters.computeIfAbsent(ticketId, id -> new CopyOnWriteArrayList<>());
+        ticketEmitters.add(emitter);
+        Runnable cleanup = () -> removeEmitter(ticketId, emitter);
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(e -> cleanup.run());
+
+        push(ticketId, List.of(emitter));
+        return emitter;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String ticketId = new String(message.getBody(), StandardCharsets.UTF_8);
+        List<SseEmitter> ticketEmitters = emitters.get(ticketId);
+        if (ticketEmitters != null && !ticketEmitters.isEmpty()) {
+            push(ticketId, ticketEmitters);
+        }
+    }
+
+    private void push(String ticketId, List<SseEmitter> targets) {
+        Map<String, String> ticket = getTicket(ticketId);
+        if (ticket.isEmpty()) {
+            targets.forEach(emitter -> emitter.completeWithError(new IllegalStateException("抢购凭证不存在或已过期")));
+            return;
+        }
+        boolean isFinal = TicketStatus.valueOf(ticket.get("status")).isFinal();
+        for (SseEmitter emitter : targets) {
+            try {
+                emitter.send(SseEmitter.event().name("ticket").data(ticket));
+                if (isFinal) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                removeEmitter(ticketId, emitter);
+            }
+        }
+    }
+
+    private void removeEmitter(String ticketId, SseEmitter emitter) {
+        emitters.computeIfPresent(ticketId, (id, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+}
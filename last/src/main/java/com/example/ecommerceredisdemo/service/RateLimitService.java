@@ -0,0 +1,135 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.config.RateLimitProperties;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Refill;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌桶限流
+ * 商品维度使用 Redis 中的全局令牌桶（所有节点共享限额，按 Redis 服务器时间补充令牌），
+ * 用户维度使用本地 bucket4j 令牌桶
+ */
+@Service
+@Slf4j
+public class RateLimitService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RateLimitProperties rateLimitProperties;
+
+    private static final String SKU_BUCKET_PREFIX = "rate_limit:sku:";
+    private static final long USER_BUCKET_IDLE_MILLIS = 60000;
+
+    private DefaultRedisScript<Long> tokenBucketScript;
+
+    // route:userId -> 本地令牌桶
+    private final ConcurrentHashMap<String, UserBucket> userBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder skuRejectedCount = new LongAdder();
+    private final LongAdder userRejectedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        tokenBucketScript = new DefaultRedisScript<>();
+        tokenBucketScript.setLocation(new ClassPathResource("lua/token_bucket.lua"));
+        tokenBucketScript.setResultType(Long.class);
+    }
+
+    public boolean isEnabled() {
+        return rateLimitProperties.isEnabled();
+    }
+
+    /**
+     * 消耗用户本地令牌桶中的一个令牌
+     * @return 是否获取成功
+     */
+    public boolean tryConsumeUserToken(RateLimitProperties.Route route, String userId) {
+        UserBucket userBucket = userBuckets.computeIfAbsent(route.getPath() + ":" + userId, key -> {
+            long burst = route.getUserBurst() > 0 ? route.getUserBurst() : route.getUserPermitsPerSecond();
+            Bucket bucket = Bucket.builder()
+                    .addLimit(Bandwidth.classic(burst, Refill.greedy(route.getUserPermitsPerSecond(), Duration.ofSeconds(1))))
+                    .build();
+            return new UserBucket(bucket);
+        });
+        userBucket.lastAccess = System.currentTimeMillis();
+        if (userBucket.bucket.tryConsume(1)) {
+            return true;
+        }
+        userRejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 消耗商品全局令牌桶中的一个令牌，Redis 故障时放行
+     * @return 是否获取成功
+     */
+    public boolean tryConsumeSkuToken(RateLimitProperties.Route route, String skuId) {
+        long burst = route.getSkuBurst() > 0 ? route.getSkuBurst() : (long) Math.ceil(route.getSkuPermitsPerSecond());
+        try {
+            Long allowed = stringRedisTemplate.execute(
+                    tokenBucketScript,
+                    Collections.singletonList(SKU_BUCKET_PREFIX + route.getPath() + ":" + skuId),
+                    String.valueOf(route.getSkuPermitsPerSecond()),
+                    String.valueOf(burst),
+                    "1"
+            );
+            if (allowed == null || allowed == 1) {
+                return true;
+            }
+            skuRejectedCount.increment();
+            return false;
+        } catch (Exception e) {
+            // 限流器故障时放行，不影响正常业务
+            log.error("商品 {} 全局限流检查失败，放行请求: {}", skuId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 定时清理空闲的用户令牌桶，防止内存无限增长
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictIdleUserBuckets() {
+        long now = System.currentTimeMillis();
+        userBuckets.entrySet().removeIf(entry -> now - entry.getValue().lastAccess > USER_BUCKET_IDLE_MILLIS);
+    }
+
+    /**
+     * 获取限流统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("rateLimitEnabled", rateLimitProperties.isEnabled());
+        stats.put("skuRejectedCount", skuRejectedCount.sum());
+        stats.put("userRejectedCount", userRejectedCount.sum());
+        stats.put("activeUserBuckets", userBuckets.size());
+        return stats;
+    }
+
+    private static class UserBucket {
+        private final Bucket bucket;
+        private volatile long lastAccess;
+
+        private UserBucket(Bucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
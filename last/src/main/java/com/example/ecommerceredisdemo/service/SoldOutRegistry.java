@@ -0,0 +1,125 @@
+package com.example.ecommerceredisdemo.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地售罄登记表
+ * 商品售罄后在本节点内存中打标，并通过 Redis 发布订阅广播到所有节点，
+ * 后续抢购请求直接在进程内拒绝，不再访问 Redis
+ */
+@Service
+@Slf4j
+public class SoldOutRegistry implements MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    public static final String SOLD_OUT_CHANNEL = "stock:soldout:channel";
+    private static final String MARK_PREFIX = "SET:";
+    private static final String CLEAR_PREFIX = "CLEAR:";
+
+    /**
+     * 售罄标记有效期（毫秒）
+     * 过期后放行一次请求回源 Redis 确认，避免广播乱序导致商品被永久误判为售罄
+     */
+    @Value("${stock.sold-out.ttl-ms:5000}")
+    private long soldOutTtlMs;
+
+    // productId -> 打标时间
+    private final ConcurrentHashMap<String, Long> soldOutProducts = new ConcurrentHashMap<>();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 判断商品是否已售罄（仅查本地内存）
+     * @param productId 商品ID
+     * @return 是否售罄
+     */
+    public boolean isSoldOut(String productId) {
+        Long markedAt = soldOutProducts.get(productId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > soldOutTtlMs) {
+            soldOutProducts.remove(productId, markedAt);
+            return false;
+        }
+        rejectedCount.increment();
+        return true;
+    }
+
+    /**
+     * 标记商品售罄，并广播到其他节点
+     * @param productId 商品ID
+     */
+    public void markSoldOut(String productId) {
+        if (soldOutProducts.put(productId, System.currentTimeMillis()) == null) {
+            log.info("商品 {} 已售罄，本地打标并广播", productId);
+            publish(MARK_PREFIX + productId);
+        }
+    }
+
+    /**
+     * 清除商品售罄标记（补货、回滚库存时调用），并广播到其他节点
+     * @param productId 商品ID
+     */
+    public void clearSoldOut(String productId) {
+        soldOutProducts.remove(productId);
+        publish(CLEAR_PREFIX + productId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(MARK_PREFIX)) {
+            soldOutProducts.put(body.substring(MARK_PREFIX.length()), System.currentTimeMillis());
+        } else if (body.startsWith(CLEAR_PREFIX)) {
+            soldOutProducts.remove(body.substring(CLEAR_PREFIX.length()));
+        } else {
+            log.warn("收到无法识别的售罄广播消息: {}", body);
+        }
+    }
+
+    /**
+     * 获取售罄登记统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("soldOutCount", soldOutProducts.size());
+        stats.put("soldOutRejectedCount", rejectedCount.sum());
+        return stats;
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SOLD_OUT_CHANNEL, message);
+        } catch (Exception e) {
+            // 广播失败只影响其他节点的短路效果，不影响库存正确性
+            log.error("广播售罄消息失败: {}, {}", message, e.getMessage());
+        }
+    }
+}
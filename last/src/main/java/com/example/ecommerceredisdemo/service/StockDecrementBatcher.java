@@ -0,0 +1,228 @@
+package com.example.ecommerceredisdemo.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 库存扣减合并提交（group commit）
+ * 同一商品在一个短时间窗口内的并发扣减请求被收集成一批，
+ * 通过一次批量 Lua 脚本按到达顺序分配库存，再逐个完成各请求的 future
+ */
+@Service
+@Slf4j
+public class StockDecrementBatcher {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    @Value("${stock.batch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${stock.batch.window-micros:1000}")
+    private long windowMicros;
+
+    @Value("${stock.batch.max-size:64}")
+    private int maxBatchSize;
+
+    @Value("${stock.batch.flush-threads:4}")
+    private int flushThreads;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+
+    private DefaultRedisScript<List> batchDecrStockScript;
+    private ScheduledExecutorService flushScheduler;
+
+    // productId -> 正在收集中的批次
+    private final ConcurrentHashMap<String, Batch> openBatches = new ConcurrentHashMap<>();
+
+    // 批次成功扣减后的回调（productId, 批次结束时的剩余库存）
+    private volatile BiConsumer<String, Long> batchAppliedListener = (productId, remaining) -> { };
+
+    // 批次统计
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder failedBatchCount = new LongAdder();
+    private final AtomicInteger maxObservedBatchSize = new AtomicInteger();
+    private final AtomicLong lastBatchLatencyMicros = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        batchDecrStockScript = new DefaultRedisScript<>();
+        batchDecrStockScript.setLocation(new ClassPathResource("lua/batch_decr_stock.lua"));
+        batchDecrStockScript.setResultType(List.class);
+
+        flushScheduler = Executors.newScheduledThreadPool(flushThreads);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setBatchAppliedListener(BiConsumer<String, Long> listener) {
+        this.batchAppliedListener = listener;
+    }
+
+    /**
+     * 提交一次扣减请求，加入该商品当前批次
+     * @param productId 商品ID
+     * @param quantity 扣减数量
+     * @return 扣减结果future，结果含义同 check_and_decr_stock.lua
+     */
+    public CompletableFuture<Long> submit(String productId, int quantity) {
+        PendingDecrement pending = new PendingDecrement(quantity);
+        while (true) {
+            Batch batch = openBatches.computeIfAbsent(productId, this::openBatch);
+            synchronized (batch) {
+                if (batch.closed) {
+                    continue; // 批次已被提交，重新获取新批次
+                }
+                batch.items.add(pending);
+                if (batch.items.size() >= maxBatchSize) {
+                    batch.closed = true;
+                    openBatches.remove(productId, batch);
+                    flushScheduler.execute(() -> flush(batch));
+                }
+            }
+            return pending.future;
+        }
+    }
+
+    private Batch openBatch(String productId) {
+        Batch batch = new Batch(productId);
+        flushScheduler.schedule(() -> closeAndFlush(batch), windowMicros, TimeUnit.MICROSECONDS);
+        return batch;
+    }
+
+    private void closeAndFlush(Batch batch) {
+        synchronized (batch) {
+            if (batch.closed) {
+                return;
+            }
+            batch.closed = true;
+        }
+        openBatches.remove(batch.productId, batch);
+        flush(batch);
+    }
+
+    private void flush(Batch batch) {
+        List<PendingDecrement> items = batch.items;
+        List<String> quantities = new ArrayList<>(items.size());
+        for (PendingDecrement item : items) {
+            quantities.add(String.valueOf(item.quantity));
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<?> results = stringRedisTemplate.execute(
+                    batchDecrStockScript,
+                    stockJournalService.scriptKeys(PRODUCT_STOCK_PREFIX + batch.productId),
+                    quantities.toArray()
+            );
+            if (results == null || results.size() != items.size()) {
+                throw new IllegalStateException("批量扣减脚本返回结果数量不匹配");
+            }
+
+            Long lastRemaining = null;
+            for (int i = 0; i < items.size(); i++) {
+                Long result = ((Number) results.get(i)).longValue();
+                if (result >= 0) {
+                    lastRemaining = result;
+                }
+                items.get(i).future.complete(result);
+            }
+            if (lastRemaining != null) {
+                batchAppliedListener.accept(batch.productId, lastRemaining);
+            }
+        } catch (Exception e) {
+            failedBatchCount.increment();
+            log.error("商品 {} 批量扣减失败，批次大小: {}, {}", batch.productId, items.size(), e.getMessage());
+            for (PendingDecrement item : items) {
+                item.future.completeExceptionally(e);
+            }
+        } finally {
+            batchCount.increment();
+            requestCount.add(items.size());
+            maxObservedBatchSize.accumulateAndGet(items.size(), Math::max);
+            lastBatchLatencyMicros.set((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 获取批量扣减统计信息
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        long batches = batchCount.sum();
+        long requests = requestCount.sum();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("batchEnabled", enabled);
+        stats.put("batchWindowMicros", windowMicros);
+        stats.put("batchMaxSize", maxBatchSize);
+        stats.put("batchCount", batches);
+        stats.put("batchRequestCount", requests);
+        stats.put("batchFailedCount", failedBatchCount.sum());
+        stats.put("batchAvgSize", batches > 0 ? (double) requests / batches : 0);
+        stats.put("batchMaxObservedSize", maxObservedBatchSize.get());
+        stats.put("batchLastLatencyMicros", lastBatchLatencyMicros.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 提交所有未满的批次后再关闭
+        openBatches.values().forEach(this::closeAndFlush);
+        flushScheduler.shutdown();
+        try {
+            if (!flushScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                flushScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flushScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Batch {
+        private final String productId;
+        private final List<PendingDecrement> items = new ArrayList<>();
+        private boolean closed;
+
+        private Batch(String productId) {
+            this.productId = productId;
+        }
+    }
+
+    private static class PendingDecrement {
+        private final int quantity;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private PendingDecrement(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.NodeIdentity;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 库存变更日志（写后异步落库）
+ * 库存 Lua 脚本在修改库存的同时向同槽位的 Stream（stock:journal:{库存key的hash tag}）追加一条变更记录，
+ * 后台消费组定时读取各 Stream，批量多行插入 product_stock_log 后 XACK 并 XDEL，
+ * 每一次 Redis 扣减都有记录，数据库上不再需要库存更新触发器。
+ * journal_id 唯一约束保证重复投递（落库成功但 XACK 失败）时不会重复插入。
+ * 日志流必须与库存key同槽位，无法合并为固定数量的流；写入前在活跃集合（ZSET，分数为登记时间）中登记，
+ * 落库只在一个管道内读取活跃的流，超过 idle-seconds 未再登记且已读空的流移出活跃集合并删除。
+ */
+@Service
+@Slf4j
+public class StockJournalService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${stock.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${stock.journal.batch-size:500}")
+    private int batchSize;
+
+    @Value("${stock.journal.claim-idle-seconds:60}")
+    private long claimIdleSeconds;
+
+    @Value("${stock.journal.idle-seconds:300}")
+    private long idleSeconds;
+
+    private static final String JOURNAL_PREFIX = "stock:journal:";
+    private static final String ACTIVE_KEY = "stock:journal:active"; // 活跃日志流，分数为最近登记时间（毫秒）
+    private static final String LEGACY_STREAMS_KEY = "stock:journal:streams"; // 旧版本的日志流登记集合
+    private static final String GROUP = "stock-journal-writer";
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final int PRUNE_BATCH = 1000;
+
+    private static final String INSERT_PREFIX =
+            "INSERT IGNORE INTO product_stock_log (journal_id, product_id, old_stock, new_stock, change_amount, operation, reason, created_at) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // 本节点登记过的日志流 -> 登记时间，距上次登记超过 idle-seconds 的一半时重新登记
+    private final ConcurrentHashMap<String, Long> markedStreams = new ConcurrentHashMap<>();
+
+    private Consumer consumer;
+    private byte[] readScript;
+    private byte[] cleanupScript;
+    private DefaultRedisScript<Long> deactivateScript;
+
+    private final LongAdder writtenRows = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder prunedStreams = new LongAdder();
+
+    /**
+     * 从日志流读取的一条记录
+     */
+    private record JournalRecord(String stream, String id, Map<String, String> fields) {
+    }
+
+    @PostConstruct
+    public void init() {
+        consumer = Consumer.from(GROUP, NodeIdentity.get());
+        readScript = loadScript("lua/journal_read.lua");
+        cleanupScript = loadScript("lua/journal_cleanup.lua");
+        deactivateScript = new DefaultRedisScript<>();
+        deactivateScript.setLocation(new ClassPathResource("lua/journal_deactivate.lua"));
+        deactivateScript.setResultType(Long.class);
+        if (enabled) {
+            migrateLegacyRegistry();
+        }
+    }
+
+    private static byte[] loadScript(String location) {
+        DefaultRedisScript<Object> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        return script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 旧版本把所有日志流登记在一个 SET 中，启动时分批转入活跃集合后删除，其中已读空的流由清理任务移除
+     */
+    private void migrateLegacyRegistry() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(LEGACY_STREAMS_KEY))) {
+                return;
+            }
+            List<String> batch = new ArrayList<>();
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(LEGACY_STREAMS_KEY,
+                    ScanOptions.scanOptions().count(PRUNE_BATCH).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() >= PRUNE_BATCH) {
+                        markActive(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            markActive(batch);
+            stringRedisTemplate.delete(LEGACY_STREAMS_KEY);
+            log.info("旧的库存日志流登记集合已转入活跃集合");
+        } catch (Exception e) {
+            log.error("转移旧的库存日志流登记集合失败: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 库存key对应的日志流key，hash tag 与库存key相同，保证在同一槽位
+     * 分桶key（product:stock:{P001#0}）取其 hash tag，普通库存key取整个key
+     * 返回前在活跃集合中登记（本节点每 idle-seconds/2 最多登记一次），调用方随后写入该流
+     * @param stockKey 库存key
+     * @return 日志流key
+     */
+    public String journalKey(String stockKey) {
+        String journalKey = toJournalKey(stockKey);
+        Long markedAt = markedStreams.get(journalKey);
+        if (markedAt == null || System.currentTimeMillis() - markedAt > idleSeconds * 500) {
+            markActive(List.of(journalKey));
+        }
+        return journalKey;
+    }
+
+    /**
+     * 批量获取日志流key，不登记（预热等批量场景只对实际写入了日志的流调用 markActive）
+     * @param stockKeys 库存key列表
+     * @return 与库存key一一对应的日志流key
+     */
+    public List<String> journalKeys(List<String> stockKeys) {
+        List<String> journalKeys = new ArrayList<>(stockKeys.size());
+        for (String stockKey : stockKeys) {
+            journalKeys.add(toJournalKey(stockKey));
+        }
+        return journalKeys;
+    }
+
+    /**
+     * 在活跃集合中登记日志流，一次 ZADD
+     * @param journalKeys 日志流key
+     */
+    public void markActive(Collection<String> journalKeys) {
+        if (journalKeys.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        for (String journalKey : journalKeys) {
+            tuples.add(ZSetOperations.TypedTuple.of(journalKey, (double) now));
+        }
+        stringRedisTemplate.opsForZSet().add(ACTIVE_KEY, tuples);
+        for (String journalKey : journalKeys) {
+            markedStreams.put(journalKey, now);
+        }
+    }
+
+    private static String toJournalKey(String stockKey) {
+        int open = stockKey.indexOf('{');
+        int close = open >= 0 ? stockKey.indexOf('}', open + 1) : -1;
+        String tag = close > open + 1 ? stockKey.substring(open + 1, close) : stockKey;
+        return JOURNAL_PREFIX + "{" + tag + "}";
+    }
+
+    /**
+     * 库存脚本的 KEYS：库存key，开启日志时追加日志流key
+     * @param stockKey 库存key
+     * @return 脚本 KEYS
+     */
+    public List<String> scriptKeys(String stockKey) {
+        return enabled ? List.of(stockKey, journalKey(stockKey)) : List.of(stockKey);
+    }
+
+    /**
+     * 非脚本修改库存时（如管理员直接设置）单独追加一条日志
+     */
+    public void append(String stockKey, long oldStock, long newStock, String reason) {
+        if (!enabled || oldStock == newStock) {
+            return;
+        }
+        try {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("key", stockKey);
+            fields.put("delta", String.valueOf(newStock - oldStock));
+            fields.put("old", String.valueOf(oldStock));
+            fields.put("new", String.valueOf(newStock));
+            fields.put("reason", reason);
+            stringRedisTemplate.opsForStream().add(journalKey(stockKey), fields);
+        } catch (Exception e) {
+            log.error("追加库存变更日志失败 {}: {}", stockKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 定时任务：在一个管道内读取所有活跃日志流的新记录，批量写入 product_stock_log
+     * 读满一批的流继续读取下一轮，其余的流等下一次调度
+     */
+    @Scheduled(fixedDelayString = "${stock.journal.flush-interval-ms:1000}")
+    public void drainJournals() {
+        if (!enabled) {
+            return;
+        }
+        List<String> streams;
+        try {
+            Set<String> active = stringRedisTemplate.opsForZSet().range(ACTIVE_KEY, 0, -1);
+            streams = active != null ? new ArrayList<>(active) : List.of();
+        } catch (Exception e) {
+            log.error("读取活跃库存日志流失败: {}", e.getMessage());
+            return;
+        }
+
+        while (!streams.isEmpty()) {
+            try {
+                List<JournalRecord> records = new ArrayList<>();
+                List<String> full = new ArrayList<>();
+                List<String> round = streams;
+                List<Object> replies = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    byte[] group = GROUP.getBytes(StandardCharsets.UTF_8);
+                    byte[] name = consumer.getName().getBytes(StandardCharsets.UTF_8);
+                    byte[] count = String.valueOf(batchSize).getBytes(StandardCharsets.UTF_8);
+                    for (String stream : round) {
+                        connection.scriptingCommands().eval(readScript, ReturnType.MULTI, 1,
+                                stream.getBytes(StandardCharsets.UTF_8), group, name, count);
+                    }
+                    return null;
+                }, null);
+                for (int i = 0; i < round.size(); i++) {
+                    List<JournalRecord> streamRecords = parseRecords(round.get(i), (List<?>) replies.get(i));
+                    records.addAll(streamRecords);
+                    if (streamRecords.size() == batchSize) {
+                        full.add(round.get(i));
+                    }
+                }
+                for (int from = 0; from < records.size(); from += batchSize) {
+                    writeAndAck(records.subList(from, Math.min(records.size(), from + batchSize)));
+                }
+                streams = full;
+            } catch (Exception e) {
+                failedBatches.increment();
+                log.error("库存日志流落库失败（{} 个流）: {}", streams.size(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static List<JournalRecord> parseRecords(String stream, List<?> reply) {
+        List<JournalRecord> records = new ArrayList<>(reply.size() / 2);
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            List<?> values = (List<?>) reply.get(i + 1);
+            Map<String, String> fields = new HashMap<>();
+            for (int j = 0; j + 1 < values.size(); j += 2) {
+                fields.put(toText(values.get(j)), toText(values.get(j + 1)));
+            }
+            records.add(new JournalRecord(stream, toText(reply.get(i)), fields));
+        }
+        return records;
+    }
+
+    private static String toText(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * 定时任务：超过 idle-seconds 未登记的日志流，读空且没有未确认记录时移出活跃集合并删除
+     * 先按读取时的分数条件移除，期间有新的写入登记则保留；删除后再写入时由 XADD 重建并重新登记
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void pruneIdleStreams() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // 本节点的登记记录同样按一半空闲时间淘汰，下次写入时重新登记
+        markedStreams.values().removeIf(markedAt -> now - markedAt > idleSeconds * 500);
+        try {
+            Set<ZSetOperations.TypedTuple<String>> idle = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(ACTIVE_KEY, Double.NEGATIVE_INFINITY, now - idleSeconds * 1000, 0, PRUNE_BATCH);
+            if (idle == null) {
+                return;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : idle) {
+                String stream = tuple.getValue();
+                String score = String.valueOf(tuple.getScore().longValue());
+                Long removed = stringRedisTemplate.execute(deactivateScript, List.of(ACTIVE_KEY), stream, score);
+                if (removed == null || removed == 0) {
+                    continue;
+                }
+                Long deleted = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                        connection.scriptingCommands().eval(cleanupScript, ReturnType.INTEGER, 1,
+                                stream.getBytes(StandardCharsets.UTF_8), GROUP.getBytes(StandardCharsets.UTF_8)));
+                if (deleted != null && deleted == 1) {
+                    prunedStreams.increment();
+                } else {
+                    // 仍有记录，放回活跃集合（保留原分数，读空后再清理）
+                    stringRedisTemplate.opsForZSet().addIfAbsent(ACTIVE_KEY, stream, tuple.getScore());
+                }
+            }
+        } catch (Exception e) {
+            log.error("清理空闲库存日志流失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定时任务：接管其他节点读取后长时间未确认的记录（节点宕机或重启后遗留）
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void claimStaleEntries() {
+        if (!enabled) {
+            return;
+        }
+        Set<String> streams = stringRedisTemplate.opsForZSet().range(ACTIVE_KEY, 0, -1);
+        if (streams == null) {
+            return;
+        }
+        Duration minIdle = Duration.ofSeconds(claimIdleSeconds);
+        for (String stream : streams) {
+            try {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(stream, GROUP, Range.unbounded(), batchSize);
+                List<RecordId> staleIds = new ArrayList<>();
+                for (PendingMessage message : pending) {
+                    if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                        staleIds.add(message.getId());
+                    }
+                }
+                if (staleIds.isEmpty()) {
+                    continue;
+                }
+                List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream()
+                        .claim(stream, GROUP, consumer.getName(), minIdle, staleIds.toArray(new RecordId[0]));
+                if (!claimed.isEmpty()) {
+                    log.info("接管库存日志流 {} 中 {} 条未确认记录", stream, claimed.size());
+                    List<JournalRecord> records = new ArrayList<>(claimed.size());
+                    for (MapRecord<String, Object, Object> record : claimed) {
+                        Map<String, String> fields = new HashMap<>();
+                        record.getValue().forEach((field, value) -> fields.put(String.valueOf(field), String.valueOf(value)));
+                        records.add(new JournalRecord(stream, record.getId().getValue(), fields));
+                    }
+                    writeAndAck(records);
+                }
+            } catch (Exception e) {
+                // 消费组尚未创建（流还没有被读取过）时同样跳过
+                log.debug("接管库存日志流 {} 未确认记录失败: {}", stream, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 一条多行 INSERT 写入一批记录，提交后在一个管道内按流确认并删除
+     */
+    private void writeAndAck(List<JournalRecord> records) {
+        List<Object> params = new ArrayList<>(records.size() * 8);
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+        Map<String, List<RecordId>> idsByStream = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            JournalRecord record = records.get(i);
+            Map<String, String> fields = record.fields();
+            long delta = Long.parseLong(fields.get("delta"));
+
+            sql.append(i == 0 ? "" : ", ").append(INSERT_ROW);
+            params.add(record.stream() + "-" + record.id());
+            params.add(productIdOf(fields.get("key")));
+            params.add(Long.parseLong(fields.get("old")));
+            params.add(Long.parseLong(fields.get("new")));
+            params.add(delta);
+            // 与原触发器保持一致，统计视图按“增加/减少”汇总
+            params.add(delta >= 0 ? "增加" : "减少");
+            params.add(fields.get("reason"));
+            params.add(new Timestamp(RecordId.of(record.id()).getTimestamp()));
+            idsByStream.computeIfAbsent(record.stream(), s -> new ArrayList<>()).add(RecordId.of(record.id()));
+        }
+
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update(sql.toString(), params.toArray()));
+        writtenRows.add(records.size());
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            idsByStream.forEach((stream, ids) -> {
+                byte[] key = stream.getBytes(StandardCharsets.UTF_8);
+                RecordId[] recordIds = ids.toArray(new RecordId[0]);
+                connection.streamCommands().xAck(key, GROUP, recordIds);
+                connection.streamCommands().xDel(key, recordIds);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 从库存key解析商品ID：product:stock:P001 或分桶 product:stock:{P001#0}
+     */
+    private static String productIdOf(String stockKey) {
+        String id = stockKey.startsWith(PRODUCT_STOCK_PREFIX) ? stockKey.substring(PRODUCT_STOCK_PREFIX.length()) : stockKey;
+        if (id.startsWith("{") && id.endsWith("}")) {
+            id = id.substring(1, id.length() - 1);
+            int shardSeparator = id.lastIndexOf('#');
+            if (shardSeparator > 0) {
+                id = id.substring(0, shardSeparator);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * 获取日志落库统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("journalEnabled", enabled);
+        stats.put("journalStreams", markedStreams.size());
+        try {
+            Long active = stringRedisTemplate.opsForZSet().zCard(ACTIVE_KEY);
+            stats.put("journalActiveStreams", active != null ? active : 0);
+        } catch (Exception e) {
+            stats.put("journalActiveStreams", -1);
+        }
+        stats.put("journalPrunedStreams", prunedStreams.sum());
+        stats.put("journalWrittenRows", writtenRows.sum());
+        stats.put("journalFailedBatches", failedBatches.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,445 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.NodeIdentity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 本地库存租借
+ * 每个节点一次从商品库存key中原子租借一块库存，租借的数量记入与库存key同槽的租约Hash
+ * （stock:lease:{product:stock:商品ID}，节点 -> 保留数量和到期时间），每次只把 release-size 件转为本地可售，
+ * 之后的购买直接扣减本地计数器，本地低于水位时异步从保留部分继续转出或续租，租约到期或应用关闭时归还未售出的部分。
+ * 节点宕机时其他节点在租约过期后归还Hash中的保留数量，最多少卖本地已转出的 release-size 件，不会超卖。
+ * 管理员设置库存时纪元加一并清除所有保留数量，各节点丢弃本地可售部分，旧纪元的归还不再计入库存。
+ */
+@Service
+@Slf4j
+public class StockLeaseService implements MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${stock.lease.enabled:false}")
+    private boolean enabled;
+
+    @Value("${stock.lease.product-ids:}")
+    private String leaseProductIds;
+
+    @Value("${stock.lease.block-size:50}")
+    private int blockSize;
+
+    @Value("${stock.lease.release-size:10}")
+    private int releaseSize;
+
+    @Value("${stock.lease.low-watermark:3}")
+    private int lowWatermark;
+
+    @Value("${stock.lease.ttl-seconds:60}")
+    private long leaseTtlSeconds;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final long EXHAUSTED_BACKOFF_MS = 1000;
+    private static final String LEASE_KEY_PREFIX = "stock:lease:";
+    private static final String LEASE_PRODUCTS_KEY = "stock:lease:products"; // 有过租约的商品，供过期清理遍历
+    public static final String REVOKE_CHANNEL = "stock:lease:revoke:channel";
+
+    private DefaultRedisScript<List> leaseStockScript;
+    private DefaultRedisScript<Long> returnLeaseScript;
+    private DefaultRedisScript<Long> sweepLeasesScript;
+    private DefaultRedisScript<Long> revokeLeasesScript;
+
+    // 为空表示对所有商品生效
+    private Set<String> leaseProducts = Collections.emptySet();
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Set<String> registeredProducts = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refillExecutor = Executors.newFixedThreadPool(2);
+
+    // 全局库存变化（租借、归还）后的回调
+    private volatile Consumer<String> stockChangedListener = productId -> { };
+
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder returnedUnits = new LongAdder();
+    private final LongAdder sweptUnits = new LongAdder();
+    private final LongAdder revokedUnits = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        leaseStockScript = new DefaultRedisScript<>();
+        leaseStockScript.setLocation(new ClassPathResource("lua/lease_stock.lua"));
+        leaseStockScript.setResultType(List.class);
+
+        returnLeaseScript = new DefaultRedisScript<>();
+        returnLeaseScript.setLocation(new ClassPathResource("lua/return_lease.lua"));
+        returnLeaseScript.setResultType(Long.class);
+
+        sweepLeasesScript = new DefaultRedisScript<>();
+        sweepLeasesScript.setLocation(new ClassPathResource("lua/sweep_leases.lua"));
+        sweepLeasesScript.setResultType(Long.class);
+
+        revokeLeasesScript = new DefaultRedisScript<>();
+        revokeLeasesScript.setLocation(new ClassPathResource("lua/revoke_leases.lua"));
+        revokeLeasesScript.setResultType(Long.class);
+
+        if (!leaseProductIds.isBlank()) {
+            leaseProducts = new HashSet<>(Arrays.asList(leaseProductIds.trim().split("\\s*,\\s*")));
+        }
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(REVOKE_CHANNEL));
+    }
+
+    public void setStockChangedListener(Consumer<String> listener) {
+        this.stockChangedListener = listener;
+    }
+
+    /**
+     * 商品是否走本地租借模式
+     * @param productId 商品ID
+     * @return 是否租借模式
+     */
+    public boolean isLeaseMode(String productId) {
+        return enabled && (leaseProducts.isEmpty() || leaseProducts.contains(productId));
+    }
+
+    /**
+     * 租约Hash的key，hash tag 为库存key本身，保证与库存key在同一槽位
+     */
+    private static String leaseKey(String productId) {
+        return LEASE_KEY_PREFIX + "{" + PRODUCT_STOCK_PREFIX + productId + "}";
+    }
+
+    /**
+     * 租约脚本的 KEYS：库存key、租约Hash，开启日志时追加日志流key
+     */
+    private List<String> leaseScriptKeys(String productId) {
+        String stockKey = PRODUCT_STOCK_PREFIX + productId;
+        List<String> keys = new ArrayList<>(3);
+        keys.add(stockKey);
+        keys.add(leaseKey(productId));
+        if (stockJournalService.isEnabled()) {
+            keys.add(stockJournalService.journalKey(stockKey));
+        }
+        return keys;
+    }
+
+    /**
+     * 从本地租借库存中扣减，本地不足时同步转出或续租一次
+     * @param productId 商品ID
+     * @param quantity 扣减数量
+     * @return >=0 扣减成功并返回本地剩余可售库存，-1 库存不足，-2 商品库存不存在
+     */
+    public Long decrementStock(String productId, int quantity) {
+        Lease lease = leases.computeIfAbsent(productId, id -> new Lease());
+
+        long remaining = lease.tryTake(quantity);
+        if (remaining < 0) {
+            // 本地不足，加锁续租，避免大量线程同时各租一块
+            synchronized (lease) {
+                remaining = lease.tryTake(quantity);
+                // 全局库存刚被租空时短暂退避，避免售罄后每个请求都去Redis租借
+                if (remaining < 0 && System.currentTimeMillis() - lease.exhaustedAt > EXHAUSTED_BACKOFF_MS) {
+                    long leased = refill(productId, lease, Math.max(releaseSize, quantity));
+                    if (leased == -2 && lease.available.get() == 0) {
+                        return -2L;
+                    }
+                    remaining = lease.tryTake(quantity);
+                }
+            }
+        }
+
+        if (remaining < 0) {
+            return -1L;
+        }
+        if (remaining <= lowWatermark) {
+            scheduleRefill(productId, lease);
+        }
+        return remaining;
+    }
+
+    /**
+     * 从本节点的保留数量中转出 want 件为本地可售，保留不足时先从全局库存租借一块（调用方持有 lease 锁）
+     * @return 租借结果：>=0 本次从全局库存租借的数量，-2 表示key不存在
+     */
+    private long refill(String productId, Lease lease, int want) {
+        if (registeredProducts.add(productId)) {
+            stringRedisTemplate.opsForSet().add(LEASE_PRODUCTS_KEY, productId);
+        }
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseTtlSeconds);
+        List<?> result = stringRedisTemplate.execute(
+                leaseStockScript,
+                leaseScriptKeys(productId),
+                String.valueOf(blockSize), String.valueOf(want), NodeIdentity.get(), String.valueOf(expireAt)
+        );
+        if (result == null || result.size() != 4) {
+            throw new IllegalStateException("租借库存脚本返回结果异常");
+        }
+        long leased = ((Number) result.get(0)).longValue();
+        long released = ((Number) result.get(1)).longValue();
+        lease.reserved = ((Number) result.get(2)).longValue();
+        long epoch = ((Number) result.get(3)).longValue();
+        if (lease.epoch != epoch) {
+            // 期间管理员设置过库存（撤销广播可能丢失），旧纪元转出的本地部分作废
+            lease.available.set(0);
+            lease.epoch = epoch;
+        }
+
+        if (released > 0) {
+            lease.available.addAndGet(released);
+            lease.expireAt = expireAt;
+        } else if (leased == 0) {
+            lease.exhaustedAt = System.currentTimeMillis();
+        }
+        if (leased > 0) {
+            leaseCount.increment();
+            stockChangedListener.accept(productId);
+            log.debug("商品 {} 租借库存 {} 件，本地可售: {}，保留: {}", productId, leased, lease.available.get(), lease.reserved);
+        }
+        return leased;
+    }
+
+    private void scheduleRefill(String productId, Lease lease) {
+        if (!lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        refillExecutor.execute(() -> {
+            try {
+                synchronized (lease) {
+                    if (lease.available.get() <= lowWatermark) {
+                        refill(productId, lease, releaseSize);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("商品 {} 异步续租失败: {}", productId, e.getMessage());
+            } finally {
+                lease.refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * 定时任务：归还本节点已到期租约中未售出的库存
+     */
+    @Scheduled(fixedRate = 5000)
+    public void returnExpiredLeases() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        leases.forEach((productId, lease) -> {
+            if (lease.expireAt > 0 && lease.expireAt < now) {
+                returnLease(productId, lease);
+            }
+        });
+    }
+
+    /**
+     * 定时任务：归还已失效节点（宕机未归还）的保留数量
+     * 节点租约到期后自己会在 5 秒内归还，这里再多等一个租约有效期，只处理确实无人归还的租约
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void sweepExpiredLeases() {
+        if (!enabled) {
+            return;
+        }
+        Set<String> productIds;
+        try {
+            productIds = stringRedisTemplate.opsForSet().members(LEASE_PRODUCTS_KEY);
+        } catch (Exception e) {
+            log.error("读取租借商品列表失败: {}", e.getMessage());
+            return;
+        }
+        if (productIds == null) {
+            return;
+        }
+        String cutoff = String.valueOf(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(leaseTtlSeconds));
+        for (String productId : productIds) {
+            try {
+                Long swept = stringRedisTemplate.execute(sweepLeasesScript, leaseScriptKeys(productId), cutoff);
+                if (swept != null && swept > 0) {
+                    sweptUnits.add(swept);
+                    stockChangedListener.accept(productId);
+                    log.warn("商品 {} 归还失效节点的租借库存 {} 件", productId, swept);
+                }
+            } catch (Exception e) {
+                log.error("商品 {} 清理过期租约失败: {}", productId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 归还租约中未售出的库存（本地可售部分和保留部分）
+     */
+    private void returnLease(String productId, Lease lease) {
+        synchronized (lease) {
+            // getAndSet 与扣减的 CAS 互斥，已归还的部分不会再被售出
+            long unsold = lease.available.getAndSet(0);
+            lease.expireAt = 0;
+            if (unsold <= 0 && lease.reserved <= 0) {
+                return;
+            }
+            try {
+                Long returned = stringRedisTemplate.execute(
+                        returnLeaseScript,
+                        leaseScriptKeys(productId),
+                        NodeIdentity.get(), String.valueOf(unsold), String.valueOf(lease.epoch)
+                );
+                lease.reserved = 0;
+                if (returned != null && returned > 0) {
+                    returnedUnits.add(returned);
+                    stockChangedListener.accept(productId);
+                    log.info("商品 {} 归还未售出租借库存 {} 件", productId, returned);
+                }
+            } catch (Exception e) {
+                // 归还失败放回本地，下次到期再试（保留部分仍在租约Hash中）
+                lease.available.addAndGet(unsold);
+                lease.expireAt = System.currentTimeMillis();
+                log.error("商品 {} 归还租借库存失败: {}", productId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 管理员设置库存：原子写入新库存并撤销所有节点的租约，广播各节点丢弃本地可售部分
+     * @param productId 商品ID
+     * @param stock 新库存
+     * @return 设置前的库存
+     */
+    public long setStockAndRevoke(String productId, int stock) {
+        Long previous = stringRedisTemplate.execute(revokeLeasesScript, leaseScriptKeys(productId), String.valueOf(stock));
+        discardLocal(productId);
+        try {
+            stringRedisTemplate.convertAndSend(REVOKE_CHANNEL, productId);
+        } catch (Exception e) {
+            // 其他节点在下一次转出时发现纪元变化后丢弃
+            log.error("广播商品 {} 租约撤销失败: {}", productId, e.getMessage());
+        }
+        return previous != null ? previous : 0;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        discardLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void discardLocal(String productId) {
+        Lease lease = leases.get(productId);
+        if (lease == null) {
+            return;
+        }
+        synchronized (lease) {
+            long discarded = lease.available.getAndSet(0);
+            lease.reserved = 0;
+            lease.expireAt = 0;
+            revokedUnits.add(discarded);
+            if (discarded > 0) {
+                log.info("商品 {} 库存已被重新设置，丢弃本地租借库存 {} 件", productId, discarded);
+            }
+        }
+    }
+
+    /**
+     * 获取本地租借统计信息（已租借未售出的库存不在 Redis 库存中）
+     * @return 统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> leasedByProduct = new HashMap<>();
+        long leasedUnits = 0;
+        long reservedUnits = 0;
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            long available = entry.getValue().available.get();
+            reservedUnits += entry.getValue().reserved;
+            if (available > 0) {
+                leasedByProduct.put(entry.getKey(), available);
+                leasedUnits += available;
+            }
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("leaseEnabled", enabled);
+        stats.put("leaseNodeId", NodeIdentity.get());
+        stats.put("leasedUnsoldUnits", leasedUnits);
+        stats.put("leasedUnsoldByProduct", leasedByProduct);
+        stats.put("leaseReservedUnits", reservedUnits);
+        stats.put("leaseCount", leaseCount.sum());
+        stats.put("leaseReturnedUnits", returnedUnits.sum());
+        stats.put("leaseSweptUnits", sweptUnits.sum());
+        stats.put("leaseRevokedUnits", revokedUnits.sum());
+        return stats;
+    }
+
+    /**
+     * 应用关闭时归还所有未售出的租借库存
+     */
+    @PreDestroy
+    public void returnAllLeases() {
+        refillExecutor.shutdown();
+        try {
+            refillExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        leases.forEach(this::returnLease);
+    }
+
+    private static class Lease {
+        private final AtomicLong available = new AtomicLong();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        // 租约Hash中本节点的保留数量（仅用于统计和判断是否需要归还），由 lease 锁保护
+        private volatile long reserved;
+        // 转出本地可售部分时的纪元，-1 表示尚未租借
+        private volatile long epoch = -1;
+        private volatile long expireAt;
+        private volatile long exhaustedAt;
+
+        /**
+         * CAS 扣减本地库存，不足时不扣减
+         * @return 扣减后的剩余量，不足时返回-1
+         */
+        private long tryTake(int quantity) {
+            while (true) {
+                long current = available.get();
+                if (current < quantity) {
+                    return -1;
+                }
+                if (available.compareAndSet(current, current - quantity)) {
+                    return current - quantity;
+                }
+            }
+        }
+    }
+}
@@ -2,21 +2,25 @@ package com.example.ecommerceredisdemo.service;
 
 import com.example.ecommerceredisdemo.entity.Product;
 import com.example.ecommerceredisdemo.repository.ProductRepository;
+import io.lettuce.core.cluster.SlotHash;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.annotation.PostConstruct;
-import java.util.Collections;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.TreeMap;
 
 @Service
 @Slf4j
@@ -31,12 +35,43 @@ public class StockManagementService {
     @Autowired
     private ProductCacheService productCacheService;
 
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    private StockShardingService stockShardingService;
+
+    @Autowired
+    private StockDecrementBatcher stockDecrementBatcher;
+
+    @Autowired
+    private StockLeaseService stockLeaseService;
+
+    @Autowired
+    private PurchaseLimitService purchaseLimitService;
+
+    @Autowired
+    private StockWarmupService stockWarmupService;
+
+    @Autowired
+    private StockSyncService stockSyncService;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    @Autowired
+    private ProductVersionService productVersionService;
+
+    @Autowired
+    private StockReconciliationService stockReconciliationService;
+
     private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
     private static final String STOCK_LOCK_PREFIX = "stock:lock:";
-    private static final String STOCK_SYNC_FLAG_PREFIX = "stock:sync:";
 
     private DefaultRedisScript<Long> checkAndDecrStockScript;
     private DefaultRedisScript<Long> checkAndIncrStockScript;
+    private DefaultRedisScript<List> flashSaleDecrStockScript;
+    private DefaultRedisScript<List> multiDecrStockScript;
 
     @PostConstruct
     public void init() {
@@ -48,78 +83,287 @@ public class StockManagementService {
         checkAndIncrStockScript = new DefaultRedisScript<>();
         checkAndIncrStockScript.setLocation(new ClassPathResource("lua/check_and_incr_stock.lua"));
         checkAndIncrStockScript.setResultType(Long.class);
+
+        flashSaleDecrStockScript = new DefaultRedisScript<>();
+        flashSaleDecrStockScript.setLocation(new ClassPathResource("lua/flash_sale_decr_stock.lua"));
+        flashSaleDecrStockScript.setResultType(List.class);
+
+        multiDecrStockScript = new DefaultRedisScript<>();
+        multiDecrStockScript.setLocation(new ClassPathResource("lua/multi_decr_stock.lua"));
+        multiDecrStockScript.setResultType(List.class);
+
+        // 合并提交模式下，每个批次只标记一次同步
+        stockDecrementBatcher.setBatchAppliedListener((productId, remaining) -> markStockForSync(productId));
+        // 租借模式下，全局库存在租借/归还时变化
+        stockLeaseService.setStockChangedListener(this::markStockForSync);
     }
 
     /**
-     * 库存预热：将商品库存数据从 MySQL 加载到 Redis 中
+     * 原子扣减库存
+     * @param productId 商品ID
+     * @param quantity 扣减数量
+     * @return 扣减结果：>=0表示成功并返回剩余库存，-1表示库存不足，-2表示商品不存在
      */
-    @PostConstruct
-    public void preloadStockToRedis() {
-        log.info("开始库存预热...");
+    public Long decrementStock(String productId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("扣减数量必须大于0");
+        }
+
+        // 租借模式：直接从本地租借的库存中扣减，只在续租时访问Redis
+        if (stockLeaseService.isLeaseMode(productId)) {
+            try {
+                Long result = stockLeaseService.decrementStock(productId, quantity);
+                if (result == -1) {
+                    log.warn("商品 {} 库存不足（租借模式），扣减数量: {}", productId, quantity);
+                }
+                return result;
+            } catch (Exception e) {
+                log.error("商品 {} 租借库存扣减异常: {}", productId, e.getMessage());
+                throw new RuntimeException("库存扣减失败", e);
+            }
+        }
+
+        // 本地已标记售罄，直接拒绝，不访问Redis
+        if (soldOutRegistry.isSoldOut(productId)) {
+            return -1L;
+        }
+
+        String stockKey = PRODUCT_STOCK_PREFIX + productId;
+        boolean sharded = stockShardingService.isSharded(productId);
+        boolean batched = !sharded && stockDecrementBatcher.isEnabled();
         
         try {
-            List<Product> products = productRepository.findAll();
-            int successCount = 0;
-            
-            for (Product product : products) {
-                try {
-                    String stockKey = PRODUCT_STOCK_PREFIX + product.getProductId();
-                    stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(product.getStock()));
-                    successCount++;
-                    log.debug("商品 {} 库存预热成功: {}", product.getProductId(), product.getStock());
-                } catch (Exception e) {
-                    log.error("商品 {} 库存预热失败: {}", product.getProductId(), e.getMessage());
-                }
+            Long result;
+            if (sharded) {
+                result = stockShardingService.decrementStock(productId, quantity);
+            } else if (batched) {
+                result = stockDecrementBatcher.submit(productId, quantity).join();
+            } else {
+                result = stringRedisTemplate.execute(
+                        checkAndDecrStockScript,
+                        stockJournalService.scriptKeys(stockKey),
+                        String.valueOf(quantity)
+                );
             }
-            
-            log.info("库存预热完成，成功预热 {} 个商品", successCount);
+
+            if (result == null) {
+                log.error("执行库存扣减脚本失败，返回结果为null. productId: {}", productId);
+                throw new RuntimeException("库存扣减失败");
+            }
+
+            // 合并提交模式由批次回调统一标记同步
+            handleDecrementResult(productId, quantity, result, sharded, !batched);
+            return result;
         } catch (Exception e) {
-            log.error("库存预热过程中发生异常: {}", e.getMessage());
+            log.error("商品 {} 库存扣减异常: {}", productId, e.getMessage());
+            throw new RuntimeException("库存扣减失败", e);
         }
     }
 
     /**
-     * 原子扣减库存
+     * 带每人限购的原子扣减库存（秒杀下单使用）
+     * 普通商品在同一个 Lua 脚本中检查限购、扣减库存并记录已购数量；
+     * 分片、租借或合并提交模式的商品先占用限购额度，扣减失败时归还
+     * @param userId 用户ID
      * @param productId 商品ID
      * @param quantity 扣减数量
-     * @return 扣减结果：>=0表示成功并返回剩余库存，-1表示库存不足，-2表示商品不存在
+     * @return 扣减结果：同 decrementStock，另外 -4 表示超出限购
      */
-    public Long decrementStock(String productId, int quantity) {
+    public Long decrementStockWithUserLimit(String userId, String productId, int quantity) {
         if (quantity <= 0) {
             throw new IllegalArgumentException("扣减数量必须大于0");
         }
 
-        String stockKey = PRODUCT_STOCK_PREFIX + productId;
-        
+        // 本地布隆过滤器判定已买满，直接拒绝
+        if (purchaseLimitService.isKnownRepeatBuyer(userId, productId)) {
+            return PurchaseLimitService.LIMIT_EXCEEDED;
+        }
+
+        boolean sharded = stockShardingService.isSharded(productId);
+        if (sharded || stockLeaseService.isLeaseMode(productId) || stockDecrementBatcher.isEnabled()) {
+            long reserved = purchaseLimitService.reserveQuota(userId, productId, quantity);
+            if (reserved == PurchaseLimitService.LIMIT_EXCEEDED) {
+                return reserved;
+            }
+            Long result = null;
+            try {
+                result = decrementStock(productId, quantity);
+                return result;
+            } finally {
+                if (result == null || result < 0) {
+                    purchaseLimitService.releaseQuota(userId, productId, quantity);
+                }
+            }
+        }
+
+        if (soldOutRegistry.isSoldOut(productId)) {
+            return -1L;
+        }
+
         try {
-            Long result = stringRedisTemplate.execute(
-                    checkAndDecrStockScript,
-                    Collections.singletonList(stockKey),
-                    String.valueOf(quantity)
+            String stockKey = PRODUCT_STOCK_PREFIX + productId;
+            List<String> keys = stockJournalService.isEnabled()
+                    ? List.of(stockKey, purchaseLimitService.getBuyersKey(productId), stockJournalService.journalKey(stockKey))
+                    : List.of(stockKey, purchaseLimitService.getBuyersKey(productId));
+            List<?> scriptResult = stringRedisTemplate.execute(
+                    flashSaleDecrStockScript,
+                    keys,
+                    userId, String.valueOf(quantity), String.valueOf(purchaseLimitService.getDefaultLimit())
             );
 
-            if (result == null) {
-                log.error("执行库存扣减脚本失败，返回结果为null. productId: {}", productId);
+            if (scriptResult == null || scriptResult.size() != 3) {
+                log.error("执行限购扣减脚本失败，返回结果异常. productId: {}", productId);
                 throw new RuntimeException("库存扣减失败");
             }
 
-            if (result >= 0) {
-                log.info("商品 {} 库存扣减成功，扣减数量: {}，剩余库存: {}", productId, quantity, result);
-                // 标记需要同步到数据库
-                markStockForSync(productId);
-            } else if (result == -1) {
-                log.warn("商品 {} 库存不足，当前库存无法满足扣减数量: {}", productId, quantity);
-            } else if (result == -2) {
-                log.error("商品 {} 库存key不存在，可能未预热", productId);
-            }
+            Long result = ((Number) scriptResult.get(0)).longValue();
+            purchaseLimitService.recordScriptResult(userId, productId, result,
+                    ((Number) scriptResult.get(1)).longValue(), ((Number) scriptResult.get(2)).longValue());
 
+            if (result == PurchaseLimitService.LIMIT_EXCEEDED) {
+                log.warn("用户 {} 购买商品 {} 超出限购数量", userId, productId);
+            } else {
+                handleDecrementResult(productId, quantity, result, false, true);
+            }
             return result;
         } catch (Exception e) {
-            log.error("商品 {} 库存扣减异常: {}", productId, e.getMessage());
+            log.error("商品 {} 限购扣减异常: {}", productId, e.getMessage());
             throw new RuntimeException("库存扣减失败", e);
         }
     }
 
+    /**
+     * 多商品原子预占库存（购物车结算），要么全部扣减成功，要么全部不扣减
+     * 同一槽位的商品在一个 Lua 脚本中检查并扣减；跨槽位时按槽位分组依次执行，
+     * 后面的分组失败时归还前面已扣减的分组。分片、租借模式的商品逐个扣减，同样参与归还。
+     * @param lines 商品ID -> 扣减数量
+     * @return 预占结果，失败时包含失败的商品ID和错误码（-1 库存不足，-2 商品不存在，-3 数据格式错误）
+     */
+    public ReserveResult reserveStocks(Map<String, Integer> lines) {
+        if (lines == null || lines.isEmpty()) {
+            throw new IllegalArgumentException("结算商品不能为空");
+        }
+
+        // 按槽位分组，TreeMap 保证多个节点按相同顺序访问各分组
+        Map<Integer, List<String>> slotGroups = new TreeMap<>();
+        List<String> individualLines = new ArrayList<>();
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            String productId = line.getKey();
+            if (line.getValue() == null || line.getValue() <= 0) {
+                throw new IllegalArgumentException("商品 " + productId + " 扣减数量必须大于0");
+            }
+            if (soldOutRegistry.isSoldOut(productId)) {
+                return ReserveResult.failed(productId, -1L);
+            }
+            if (stockShardingService.isSharded(productId) || stockLeaseService.isLeaseMode(productId)) {
+                individualLines.add(productId);
+            } else {
+                int slot = SlotHash.getSlot(PRODUCT_STOCK_PREFIX + productId);
+                slotGroups.computeIfAbsent(slot, k -> new ArrayList<>()).add(productId);
+            }
+        }
+
+        Map<String, Integer> reserved = new LinkedHashMap<>();
+        try {
+            for (List<String> group : slotGroups.values()) {
+                List<String> keys = new ArrayList<>(group.size() * 2);
+                String[] quantities = new String[group.size()];
+                for (int i = 0; i < group.size(); i++) {
+                    keys.add(PRODUCT_STOCK_PREFIX + group.get(i));
+                    quantities[i] = String.valueOf(lines.get(group.get(i)));
+                }
+                if (stockJournalService.isEnabled()) {
+                    // 日志流key紧跟在库存key之后，与各库存key一一对应
+                    for (int i = 0; i < group.size(); i++) {
+                        keys.add(stockJournalService.journalKey(keys.get(i)));
+                    }
+                }
+                List<?> result = stringRedisTemplate.execute(multiDecrStockScript, keys, (Object[]) quantities);
+                if (result == null || result.isEmpty()) {
+                    throw new RuntimeException("多商品扣减脚本返回结果异常");
+                }
+
+                long code = ((Number) result.get(0)).longValue();
+                if (code < 0) {
+                    String failedProductId = group.get(((Number) result.get(1)).intValue() - 1);
+                    handleDecrementResult(failedProductId, lines.get(failedProductId), code, false, false);
+                    compensate(reserved);
+                    return ReserveResult.failed(failedProductId, code);
+                }
+                for (int i = 0; i < group.size(); i++) {
+                    String productId = group.get(i);
+                    reserved.put(productId, lines.get(productId));
+                    handleDecrementResult(productId, lines.get(productId), ((Number) result.get(i + 1)).longValue(), false, true);
+                }
+            }
+
+            for (String productId : individualLines) {
+                Long result = decrementStock(productId, lines.get(productId));
+                if (result < 0) {
+                    compensate(reserved);
+                    return ReserveResult.failed(productId, result);
+                }
+                reserved.put(productId, lines.get(productId));
+            }
+            return ReserveResult.success();
+        } catch (RuntimeException e) {
+            log.error("多商品预占库存异常，归还已扣减的 {} 个商品: {}", reserved.size(), e.getMessage());
+            compensate(reserved);
+            throw e;
+        }
+    }
+
+    /**
+     * 归还已预占的库存（结算失败时调用）
+     * @param reserved 商品ID -> 数量
+     */
+    public void compensate(Map<String, Integer> reserved) {
+        reserved.forEach((productId, quantity) -> {
+            try {
+                incrementStock(productId, quantity);
+            } catch (Exception e) {
+                // 归还失败会导致少卖，记录下来由对账任务修复
+                log.error("商品 {} 归还预占库存 {} 件失败: {}", productId, quantity, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 扣减结果的公共处理：日志、同步标记、售罄打标
+     */
+    private void handleDecrementResult(String productId, int quantity, Long result, boolean sharded, boolean markSync) {
+        if (result >= 0) {
+            log.info("商品 {} 库存扣减成功，扣减数量: {}，剩余库存: {}", productId, quantity, result);
+            // 标记需要同步到数据库
+            if (markSync) {
+                markStockForSync(productId);
+            }
+            // 分片模式下单个分桶清零不代表整体售罄
+            if (result == 0 && !sharded && stockShardingService.confirmLayout(productId, false)) {
+                soldOutRegistry.markSoldOut(productId);
+            }
+        } else if (result == -1) {
+            log.warn("商品 {} 库存不足，当前库存无法满足扣减数量: {}", productId, quantity);
+            // 单件都买不到说明库存已为0（分片模式下已探测全部分桶），
+            // 但本地分片配置可能已过期，读到的是切换时清零的key，先复核再标记
+            if (quantity == 1 && stockShardingService.confirmLayout(productId, sharded)) {
+                soldOutRegistry.markSoldOut(productId);
+            }
+        } else if (result == -2) {
+            log.error("商品 {} 库存key不存在，可能未预热", productId);
+        }
+    }
+
+    /**
+     * 归还用户的限购额度（秒杀订单回滚时与 incrementStock 配合使用）
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @param quantity 归还数量
+     */
+    public void releaseUserQuota(String userId, String productId, int quantity) {
+        purchaseLimitService.releaseQuota(userId, productId, quantity);
+    }
+
     /**
      * 原子增加库存（用于取消订单等场景）
      * @param productId 商品ID
@@ -134,11 +378,13 @@ public class StockManagementService {
         String stockKey = PRODUCT_STOCK_PREFIX + productId;
         
         try {
-            Long result = stringRedisTemplate.execute(
-                    checkAndIncrStockScript,
-                    Collections.singletonList(stockKey),
-                    String.valueOf(quantity)
-            );
+            Long result = stockShardingService.isSharded(productId)
+                    ? stockShardingService.incrementStock(productId, quantity)
+                    : stringRedisTemplate.execute(
+                            checkAndIncrStockScript,
+                            stockJournalService.scriptKeys(stockKey),
+                            String.valueOf(quantity)
+                    );
 
             if (result == null) {
                 log.error("执行库存增加脚本失败，返回结果为null. productId: {}", productId);
@@ -149,6 +395,7 @@ public class StockManagementService {
                 log.info("商品 {} 库存增加成功，增加数量: {}，当前库存: {}", productId, quantity, result);
                 // 标记需要同步到数据库
                 markStockForSync(productId);
+                soldOutRegistry.clearSoldOut(productId);
             } else {
                 log.error("商品 {} 库存增加失败，返回结果: {}", productId, result);
             }
@@ -171,29 +418,24 @@ public class StockManagementService {
             return false;
         }
 
-        String stockKey = PRODUCT_STOCK_PREFIX + productId;
-        String stockStr = stringRedisTemplate.opsForValue().get(stockKey);
-        
-        if (stockStr == null) {
+        Long currentStock = getCurrentStock(productId);
+        if (currentStock == null) {
             log.warn("商品 {} 库存key不存在", productId);
             return false;
         }
-
-        try {
-            long currentStock = Long.parseLong(stockStr);
-            return currentStock >= quantity;
-        } catch (NumberFormatException e) {
-            log.error("商品 {} 库存值格式错误: {}", productId, stockStr);
-            return false;
-        }
+        return currentStock >= quantity;
     }
 
     /**
-     * 获取商品当前Redis库存
+     * 获取商品当前Redis库存（分片商品汇总各分桶）
      * @param productId 商品ID
      * @return 库存数量，如果不存在返回null
      */
     public Long getCurrentStock(String productId) {
+        if (stockShardingService.isSharded(productId)) {
+            return stockShardingService.getCurrentStock(productId);
+        }
+
         String stockKey = PRODUCT_STOCK_PREFIX + productId;
         String stockStr = stringRedisTemplate.opsForValue().get(stockKey);
         
@@ -223,9 +465,22 @@ public class StockManagementService {
         String stockKey = PRODUCT_STOCK_PREFIX + productId;
         
         try {
-            stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(stock));
+            if (stockLeaseService.isLeaseMode(productId)) {
+                // 同时撤销各节点的租约，避免之后归还的租借库存叠加到新库存上
+                stockLeaseService.setStockAndRevoke(productId, stock);
+            } else if (stockShardingService.isSharded(productId)) {
+                stockShardingService.setStock(productId, stock);
+            } else {
+                String previous = stringRedisTemplate.opsForValue().getAndSet(stockKey, String.valueOf(stock));
+                stockJournalService.append(stockKey, parseStockOrZero(previous), stock, "set");
+            }
             log.info("商品 {} 库存设置为: {}", productId, stock);
             markStockForSync(productId);
+            if (stock > 0) {
+                soldOutRegistry.clearSoldOut(productId);
+            } else {
+                soldOutRegistry.markSoldOut(productId);
+            }
             return true;
         } catch (Exception e) {
             log.error("设置商品 {} 库存失败: {}", productId, e.getMessage());
@@ -233,72 +488,55 @@ public class StockManagementService {
         }
     }
 
+    private static long parseStockOrZero(String stock) {
+        try {
+            return stock == null ? 0 : Long.parseLong(stock);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
-     * 标记库存需要同步到数据库
+     * 开启商品分片库存（热点商品）
      * @param productId 商品ID
+     * @param shards 分片数
+     * @return 分配到各分桶的总库存
      */
-    private void markStockForSync(String productId) {
-        String syncFlagKey = STOCK_SYNC_FLAG_PREFIX + productId;
-        stringRedisTemplate.opsForValue().set(syncFlagKey, "1", 300, TimeUnit.SECONDS); // 5分钟过期
+    public Long enableShardedStock(String productId, int shards) {
+        Long total = stockShardingService.enableSharding(productId, shards);
+        if (total > 0) {
+            soldOutRegistry.clearSoldOut(productId);
+        }
+        return total;
     }
 
     /**
-     * 定时任务：将Redis库存数据异步同步回MySQL
+     * 商品是否开启了分片库存
+     * @param productId 商品ID
+     * @return 是否分片
      */
-    @Scheduled(fixedRate = 30000) // 每30秒执行一次
-    @Transactional
-    public void syncStockToDatabase() {
-        log.debug("开始同步Redis库存数据到数据库...");
-
-        try {
-            // 获取所有需要同步的库存key
-            java.util.Set<String> syncFlagKeys = stringRedisTemplate.keys(STOCK_SYNC_FLAG_PREFIX + "*");
-            
-            if (syncFlagKeys == null || syncFlagKeys.isEmpty()) {
-                return;
-            }
-
-            int syncCount = 0;
-            for (String syncFlagKey : syncFlagKeys) {
-                String productId = syncFlagKey.replace(STOCK_SYNC_FLAG_PREFIX, "");
-                
-                try {
-                    // 获取Redis中的库存
-                    Long redisStock = getCurrentStock(productId);
-                    if (redisStock == null) {
-                        log.warn("商品 {} Redis库存不存在，跳过同步", productId);
-                        continue;
-                    }
+    public boolean isShardedStock(String productId) {
+        return stockShardingService.isSharded(productId);
+    }
 
-                    // 更新数据库库存
-                    Optional<Product> productOptional = productRepository.findById(productId);
-                    if (productOptional.isPresent()) {
-                        Product product = productOptional.get();
-                        product.setStock(redisStock.intValue());
-                        productRepository.save(product);
-                        
-                        // 更新商品缓存
-                        productCacheService.updateProductCache(product);
-                        
-                        // 删除同步标记
-                        stringRedisTemplate.delete(syncFlagKey);
-                        syncCount++;
-                        
-                        log.debug("商品 {} 库存同步成功: {}", productId, redisStock);
-                    } else {
-                        log.error("商品 {} 在数据库中不存在，但Redis中有库存数据", productId);
-                    }
-                } catch (Exception e) {
-                    log.error("同步商品 {} 库存失败: {}", productId, e.getMessage());
-                }
-            }
+    /**
+     * 关闭商品分片库存，库存合并回单个key
+     * @param productId 商品ID
+     * @return 合并后的总库存
+     */
+    public Long disableShardedStock(String productId) {
+        Long total = stockShardingService.disableSharding(productId);
+        markStockForSync(productId);
+        return total;
+    }
 
-            if (syncCount > 0) {
-                log.info("库存同步完成，成功同步 {} 个商品", syncCount);
-            }
-        } catch (Exception e) {
-            log.error("库存同步过程中发生异常: {}", e.getMessage());
-        }
+    /**
+     * 标记库存需要同步到数据库
+     * @param productId 商品ID
+     */
+    private void markStockForSync(String productId) {
+        stockSyncService.markDirty(productId);
+        productVersionService.markChanged(productId);
     }
 
     /**
@@ -308,14 +546,20 @@ public class StockManagementService {
     public Map<String, Object> getStockStats() {
         try {
             java.util.Set<String> stockKeys = stringRedisTemplate.keys(PRODUCT_STOCK_PREFIX + "*");
-            java.util.Set<String> syncFlagKeys = stringRedisTemplate.keys(STOCK_SYNC_FLAG_PREFIX + "*");
             
             int stockCount = stockKeys != null ? stockKeys.size() : 0;
-            int pendingSyncCount = syncFlagKeys != null ? syncFlagKeys.size() : 0;
             
             Map<String, Object> stats = new java.util.HashMap<>();
             stats.put("stockCount", stockCount);
-            stats.put("pendingSyncCount", pendingSyncCount);
+            stats.putAll(stockSyncService.getStats());
+            stats.putAll(soldOutRegistry.getStats());
+            stats.putAll(stockShardingService.getStats());
+            stats.putAll(stockDecrementBatcher.getStats());
+            stats.putAll(stockLeaseService.getStats());
+            stats.putAll(purchaseLimitService.getStats());
+            stats.putAll(stockWarmupService.getStats());
+            stats.putAll(stockJournalService.getStats());
+            stats.putAll(stockReconciliationService.getStats());
             
             return stats;
         } catch (Exception e) {
@@ -341,7 +585,9 @@ public class StockManagementService {
             if (productOptional.isPresent()) {
                 Product product = productOptional.get();
                 product.setStock(redisStock.intValue());
+                product.setUpdatedAt(LocalDateTime.now().withNano(0));
                 productRepository.save(product);
+                stockWarmupService.recordSyncedVersion(productId, product.getUpdatedAt());
                 
                 // 更新商品缓存
                 productCacheService.updateProductCache(product);
@@ -357,4 +603,23 @@ public class StockManagementService {
             return false;
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 多商品预占结果
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class ReserveResult {
+        private final boolean success;
+        private final String failedProductId;
+        private final long errorCode;
+
+        static ReserveResult success() {
+            return new ReserveResult(true, null, 0);
+        }
+
+        static ReserveResult failed(String productId, long errorCode) {
+            return new ReserveResult(false, productId, errorCode);
+        }
+    }
+}
\ No newline at end of file
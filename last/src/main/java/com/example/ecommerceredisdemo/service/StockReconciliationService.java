@@ -0,0 +1,553 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.RedisLock;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Redis 与 MySQL 库存对账
+ * 数据库侧用只进游标流式读取 product 表，按块与 Redis 库存比较；
+ * Redis 侧对集群每个主节点并行 SCAN 库存key，找出数据库中已不存在的商品。
+ * 内存占用只与块大小和报告的 Top N 有关，不随商品数量增长。
+ * 不一致的商品先排除正在等待同步的，再复查一次数据库和 Redis，仍不一致才计入偏差；
+ * 按配置的方向修复：redis-to-db 标记为待同步，db-to-redis 用 CAS 脚本覆盖 Redis。
+ * 对账在独立线程上运行，并用分布式锁保证集群中同时只有一个节点执行。
+ */
+@Service
+@Slf4j
+public class StockReconciliationService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StockShardingService stockShardingService;
+
+    @Autowired
+    private StockSyncService stockSyncService;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    @Autowired
+    private ProductVersionService productVersionService;
+
+    @Autowired
+    private RedisLock redisLock;
+
+    @Value("${stock.reconcile.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${stock.reconcile.scan-count:1000}")
+    private int scanCount;
+
+    @Value("${stock.reconcile.top-n:20}")
+    private int topN;
+
+    @Value("${stock.reconcile.repair:none}")
+    private String repair;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final String LOCK_KEY = "stock:reconcile:lock";
+    private static final long LOCK_EXPIRE_SECONDS = 60;
+    private static final String SELECT_ALL_SQL = "SELECT product_id, stock FROM product";
+
+    /**
+     * 修复方向
+     */
+    public enum RepairDirection {
+        NONE,        // 只报告不修复
+        REDIS_TO_DB, // 以 Redis 为准，标记为待同步，由增量同步写回数据库
+        DB_TO_REDIS; // 以数据库为准，覆盖 Redis
+
+        static RepairDirection of(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private RepairDirection repairDirection;
+    private DefaultRedisScript<Long> reconcileStockScript;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> new Thread(r, "stock-reconcile"));
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        repairDirection = RepairDirection.of(repair);
+        reconcileStockScript = new DefaultRedisScript<>();
+        reconcileStockScript.setLocation(new ClassPathResource("lua/reconcile_stock.lua"));
+        reconcileStockScript.setResultType(Long.class);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    /**
+     * 定时对账，默认关闭，通过 stock.reconcile.cron 开启
+     */
+    @Scheduled(cron = "${stock.reconcile.cron:-}")
+    public void scheduledReconcile() {
+        startReconciliation();
+    }
+
+    /**
+     * 在后台线程启动一次对账
+     * @return 是否已启动，本节点已有对账在运行时返回false
+     */
+    public boolean startReconciliation() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            runner.execute(() -> {
+                try {
+                    reconcile();
+                } finally {
+                    running.set(false);
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 执行一次完整对账
+     */
+    public void reconcile() {
+        String lockId = redisLock.tryLock(LOCK_KEY, LOCK_EXPIRE_SECONDS);
+        if (lockId == null) {
+            log.info("其他节点正在执行库存对账，本次跳过");
+            return;
+        }
+
+        DriftReport report = new DriftReport(topN, repairDirection);
+        log.info("开始库存对账，修复方向: {}", repairDirection);
+        ExecutorService scanners = null;
+        try {
+            List<RedisClusterNode> masters = getMasterNodes();
+            scanners = Executors.newFixedThreadPool(Math.max(1, masters.size()));
+            List<CompletableFuture<Void>> scans = new ArrayList<>();
+            if (masters.isEmpty()) {
+                scans.add(CompletableFuture.runAsync(() -> scanNode(null, report), scanners));
+            } else {
+                for (RedisClusterNode master : masters) {
+                    scans.add(CompletableFuture.runAsync(() -> scanNode(master, report), scanners));
+                }
+            }
+
+            streamDatabase(report);
+            CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).join();
+            report.finish("completed");
+            log.info("库存对账完成: {}", report.summary());
+        } catch (Exception e) {
+            report.finish("failed: " + e.getMessage());
+            log.error("库存对账失败: {}", e.getMessage(), e);
+        } finally {
+            if (scanners != null) {
+                scanners.shutdownNow();
+            }
+            redisLock.releaseLock(LOCK_KEY, lockId);
+            lastReport = report.toMap();
+        }
+    }
+
+    /**
+     * 只进游标流式读取 product 表，每满一块与 Redis 比较一次
+     * MySQL 驱动在 fetchSize 为 Integer.MIN_VALUE 时逐行返回结果，不会把整张表读入内存
+     */
+    private void streamDatabase(DriftReport report) {
+        List<String> productIds = new ArrayList<>(chunkSize);
+        List<Long> dbStocks = new ArrayList<>(chunkSize);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_ALL_SQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            productIds.add(rs.getString(1));
+            dbStocks.add(rs.getLong(2));
+            if (productIds.size() >= chunkSize) {
+                compareChunk(productIds, dbStocks, report);
+                productIds.clear();
+                dbStocks.clear();
+            }
+        });
+        if (!productIds.isEmpty()) {
+            compareChunk(productIds, dbStocks, report);
+        }
+    }
+
+    /**
+     * 比较一块商品，找出不一致的候选后复查
+     */
+    private void compareChunk(List<String> productIds, List<Long> dbStocks, DriftReport report) {
+        report.dbRows.add(productIds.size());
+        Map<String, String> redisValues = readRedisStocks(productIds);
+
+        Map<String, Long> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < productIds.size(); i++) {
+            String productId = productIds.get(i);
+            if (!String.valueOf(dbStocks.get(i)).equals(redisValues.get(productId))) {
+                candidates.put(productId, dbStocks.get(i));
+            } else {
+                report.matched.increment();
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // 等待同步的商品数据库落后于 Redis 属于正常情况
+        Set<String> pending = stockSyncService.filterPending(new ArrayList<>(candidates.keySet()));
+        report.pendingSync.add(pending.size());
+        candidates.keySet().removeAll(pending);
+        if (!candidates.isEmpty()) {
+            verifyCandidates(candidates, report);
+        }
+    }
+
+    /**
+     * 复查候选商品：流式读取开始后可能已有同步写回数据库，等待一个脏集合刷新间隔后
+     * 重新读取数据库和 Redis，仍不一致才计入偏差
+     */
+    private void verifyCandidates(Map<String, Long> candidates, DriftReport report) {
+        // 其他节点的库存变更最多滞后一个刷新间隔才进入脏集合，等待后再复查，避免把刚扣减的库存当作偏差修复
+        try {
+            Thread.sleep(stockSyncService.getDirtyFlushIntervalMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<String> productIds = new ArrayList<>(candidates.keySet());
+        Map<String, Long> latestDb = new HashMap<>();
+        String placeholders = String.join(",", Collections.nCopies(productIds.size(), "?"));
+        jdbcTemplate.query("SELECT product_id, stock FROM product WHERE product_id IN (" + placeholders + ")",
+                (RowCallbackHandler) rs -> latestDb.put(rs.getString(1), rs.getLong(2)), productIds.toArray());
+        Map<String, String> redisValues = readRedisStocks(productIds);
+        Set<String> pending = stockSyncService.filterPending(productIds);
+
+        for (String productId : productIds) {
+            Long dbStock = latestDb.get(productId);
+            String redisValue = redisValues.get(productId);
+            if (dbStock == null || pending.contains(productId) || String.valueOf(dbStock).equals(redisValue)) {
+                report.matched.increment();
+                continue;
+            }
+
+            if (redisValue == null) {
+                report.missingInRedis.increment();
+            } else {
+                try {
+                    long redisStock = Long.parseLong(redisValue);
+                    report.recordMismatch(productId, redisStock, dbStock);
+                } catch (NumberFormatException e) {
+                    report.badFormat.increment();
+                    log.error("商品 {} Redis库存值格式错误: {}", productId, redisValue);
+                }
+            }
+            repairProduct(productId, redisValue, dbStock, report);
+        }
+    }
+
+    /**
+     * 读取一批商品的 Redis 库存，分片商品汇总各分桶；key不存在时值为null
+     */
+    private Map<String, String> readRedisStocks(List<String> productIds) {
+        Map<String, String> values = new HashMap<>();
+        List<String> plainIds = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            if (stockShardingService.isSharded(productId)) {
+                Long stock = stockShardingService.getCurrentStock(productId);
+                values.put(productId, stock != null ? String.valueOf(stock) : null);
+            } else {
+                plainIds.add(productId);
+            }
+        }
+        if (!plainIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(plainIds.size());
+            plainIds.forEach(productId -> keys.add(PRODUCT_STOCK_PREFIX + productId));
+            List<String> redisValues = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < plainIds.size(); i++) {
+                values.put(plainIds.get(i), redisValues != null ? redisValues.get(i) : null);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 按配置方向修复单个商品
+     * Redis 中缺失库存key时两个方向都用数据库库存补齐
+     */
+    private void repairProduct(String productId, String redisValue, long dbStock, DriftReport report) {
+        if (repairDirection == RepairDirection.NONE) {
+            return;
+        }
+        if (stockShardingService.isSharded(productId)) {
+            // 分片商品的库存分散在各分桶中，只报告不修复
+            report.repairSkipped.increment();
+            return;
+        }
+        try {
+            if (repairDirection == RepairDirection.REDIS_TO_DB && redisValue != null) {
+                stockSyncService.markDirty(productId);
+                report.repaired.increment();
+                return;
+            }
+            // 对账读取后 Redis 库存已被修改（有新的扣减）时放弃，等下次对账
+            String stockKey = PRODUCT_STOCK_PREFIX + productId;
+            Long result = stringRedisTemplate.execute(reconcileStockScript, stockJournalService.scriptKeys(stockKey),
+                    redisValue != null ? redisValue : "", String.valueOf(dbStock));
+            if (result != null && result == 1) {
+                report.repaired.increment();
+                productVersionService.markChanged(productId);
+                log.info("商品 {} Redis库存已按数据库修复: {} -> {}", productId, redisValue, dbStock);
+            } else {
+                report.repairSkipped.increment();
+            }
+        } catch (Exception e) {
+            report.repairSkipped.increment();
+            log.error("修复商品 {} 库存失败: {}", productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 扫描一个主节点上的库存key，分块检查数据库中是否存在对应商品
+     * @param node 集群主节点，单机模式为null
+     */
+    private void scanNode(RedisClusterNode node, DriftReport report) {
+        ScanOptions options = ScanOptions.scanOptions().match(PRODUCT_STOCK_PREFIX + "*").count(scanCount).build();
+        List<String> productIds = new ArrayList<>(chunkSize);
+        Consumer<byte[]> collector = rawKey -> {
+            String key = new String(rawKey, StandardCharsets.UTF_8);
+            report.redisKeysScanned.increment();
+            // 分桶key（product:stock:{P001#0}）随分片商品一起汇总比较
+            if (key.indexOf('{') >= 0) {
+                return;
+            }
+            productIds.add(key.substring(PRODUCT_STOCK_PREFIX.length()));
+            if (productIds.size() >= chunkSize) {
+                checkOrphans(productIds, report);
+                productIds.clear();
+            }
+        };
+
+        if (node == null) {
+            try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+                cursor.forEachRemaining(key -> collector.accept(key.getBytes(StandardCharsets.UTF_8)));
+            }
+        } else {
+            try (RedisClusterConnection connection = stringRedisTemplate.getRequiredConnectionFactory().getClusterConnection();
+                 Cursor<byte[]> cursor = connection.scan(node, options)) {
+                cursor.forEachRemaining(collector);
+            }
+        }
+        if (!productIds.isEmpty()) {
+            checkOrphans(productIds, report);
+        }
+    }
+
+    /**
+     * 找出 Redis 中有库存key但数据库中已不存在的商品
+     */
+    private void checkOrphans(List<String> productIds, DriftReport report) {
+        Set<String> existing = new HashSet<>();
+        String placeholders = String.join(",", Collections.nCopies(productIds.size(), "?"));
+        jdbcTemplate.query("SELECT product_id FROM product WHERE product_id IN (" + placeholders + ")",
+                (RowCallbackHandler) rs -> existing.add(rs.getString(1)), productIds.toArray());
+        for (String productId : productIds) {
+            if (!existing.contains(productId)) {
+                report.recordOrphan(productId);
+            }
+        }
+    }
+
+    private List<RedisClusterNode> getMasterNodes() {
+        RedisConnectionFactory factory = stringRedisTemplate.getRequiredConnectionFactory();
+        if (!(factory instanceof LettuceConnectionFactory lettuce) || !lettuce.isClusterAware()) {
+            return Collections.emptyList();
+        }
+        List<RedisClusterNode> masters = new ArrayList<>();
+        try (RedisClusterConnection connection = factory.getClusterConnection()) {
+            for (RedisClusterNode node : connection.clusterGetNodes()) {
+                if (node.isMaster() && node.isConnected()) {
+                    masters.add(node);
+                }
+            }
+        }
+        return masters;
+    }
+
+    /**
+     * 获取最近一次对账报告
+     */
+    public Map<String, Object> getLastReport() {
+        Map<String, Object> report = new LinkedHashMap<>(lastReport);
+        report.put("running", running.get());
+        return report;
+    }
+
+    /**
+     * 获取对账统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("reconcileRunning", running.get());
+        stats.put("reconcileRepairDirection", repairDirection.name());
+        stats.put("lastReconcileMismatched", lastReport.getOrDefault("mismatched", 0L));
+        stats.put("lastReconcileFinishedAt", lastReport.getOrDefault("finishedAt", ""));
+        return stats;
+    }
+
+    /**
+     * 一次对账的偏差报告，计数可被数据库流式线程和各节点扫描线程并发更新
+     */
+    private static class DriftReport {
+        private final int topN;
+        private final RepairDirection repairDirection;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private final long startNanos = System.nanoTime();
+
+        private final LongAdder dbRows = new LongAdder();
+        private final LongAdder redisKeysScanned = new LongAdder();
+        private final LongAdder matched = new LongAdder();
+        private final LongAdder mismatched = new LongAdder();
+        private final LongAdder missingInRedis = new LongAdder();
+        private final LongAdder badFormat = new LongAdder();
+        private final LongAdder pendingSync = new LongAdder();
+        private final LongAdder orphanInRedis = new LongAdder();
+        private final LongAdder totalAbsDrift = new LongAdder();
+        private final LongAdder repaired = new LongAdder();
+        private final LongAdder repairSkipped = new LongAdder();
+
+        // 偏差绝对值最大的 Top N，堆顶为其中最小的
+        private final PriorityQueue<Map<String, Object>> worstOffenders =
+                new PriorityQueue<>(Comparator.comparingLong(o -> Math.abs((Long) o.get("drift"))));
+        private final List<String> orphanSamples = new ArrayList<>();
+
+        private String status = "running";
+        private long durationMs;
+        private LocalDateTime finishedAt;
+
+        DriftReport(int topN, RepairDirection repairDirection) {
+            this.topN = topN;
+            this.repairDirection = repairDirection;
+        }
+
+        void recordMismatch(String productId, long redisStock, long dbStock) {
+            long drift = redisStock - dbStock;
+            mismatched.increment();
+            totalAbsDrift.add(Math.abs(drift));
+            synchronized (worstOffenders) {
+                if (worstOffenders.size() < topN) {
+                    worstOffenders.add(Map.of("productId", productId, "redisStock", redisStock, "dbStock", dbStock, "drift", drift));
+                } else if (!worstOffenders.isEmpty() && Math.abs(drift) > Math.abs((Long) worstOffenders.peek().get("drift"))) {
+                    worstOffenders.poll();
+                    worstOffenders.add(Map.of("productId", productId, "redisStock", redisStock, "dbStock", dbStock, "drift", drift));
+                }
+            }
+        }
+
+        void recordOrphan(String productId) {
+            orphanInRedis.increment();
+            synchronized (orphanSamples) {
+                if (orphanSamples.size() < topN) {
+                    orphanSamples.add(productId);
+                }
+            }
+        }
+
+        void finish(String status) {
+            this.status = status;
+            this.finishedAt = LocalDateTime.now();
+            this.durationMs = (System.nanoTime() - startNanos) / 1_000_000;
+        }
+
+        String summary() {
+            return String.format("数据库 %d 行，扫描Redis %d 个key，耗时 %d ms：一致 %d，不一致 %d，Redis缺失 %d，格式错误 %d，等待同步 %d，数据库已删除 %d，修复 %d，跳过修复 %d",
+                    dbRows.sum(), redisKeysScanned.sum(), durationMs, matched.sum(), mismatched.sum(), missingInRedis.sum(),
+                    badFormat.sum(), pendingSync.sum(), orphanInRedis.sum(), repaired.sum(), repairSkipped.sum());
+        }
+
+        Map<String, Object> toMap() {
+            List<Map<String, Object>> offenders;
+            synchronized (worstOffenders) {
+                offenders = new ArrayList<>(worstOffenders);
+            }
+            offenders.sort(Comparator.comparingLong((Map<String, Object> o) -> Math.abs((Long) o.get("drift"))).reversed());
+            List<String> orphans;
+            synchronized (orphanSamples) {
+                orphans = new ArrayList<>(orphanSamples);
+            }
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("status", status);
+            map.put("repairDirection", repairDirection.name());
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : "");
+            map.put("durationMs", durationMs);
+            map.put("dbRows", dbRows.sum());
+            map.put("redisKeysScanned", redisKeysScanned.sum());
+            map.put("matched", matched.sum());
+            map.put("mismatched", mismatched.sum());
+            map.put("missingInRedis", missingInRedis.sum());
+            map.put("badFormat", badFormat.sum());
+            map.put("pendingSync", pendingSync.sum());
+            map.put("orphanInRedis", orphanInRedis.sum());
+            map.put("totalAbsDrift", totalAbsDrift.sum());
+            map.put("repaired", repaired.sum());
+            map.put("repairSkipped", repairSkipped.sum());
+            map.put("worstOffenders", offenders);
+            map.put("orphanSamples", orphans);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.SyncedProductConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 热点商品分片库存
+ * 将单个商品的库存拆分到 N 个分桶 key 中（product:stock:{productId#k}），
+ * 不同的 hash tag 使分桶落在不同的集群槽位上，从而把扣减流量分散到多个主节点。
+ * 分片配置保存在 Redis Hash 中，各节点本地缓存并通过发布订阅同步（SyncedProductConfig）。
+ * 切换期间尚未收到新配置的节点仍会访问旧的key：切换登记在 stock:shard:migrating 中，
+ * 期间的库存不足不标记售罄，旧key上新归还的库存由定时任务在宽限期内搬到新的key。
+ */
+@Service
+@Slf4j
+public class StockShardingService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final String SHARD_CONFIG_KEY = "stock:shard:config"; // productId -> 分片数
+    private static final String SHARD_CHANNEL = "stock:shard:channel";
+    private static final String MIGRATING_KEY = "stock:shard:migrating"; // productId -> 阶段:分片数:开始时间
+    private static final int MAX_SHARDS = 64;
+    // 两个配置刷新周期，宽限期过后所有节点都已使用新配置
+    private static final long MIGRATION_GRACE_MS = 60000;
+
+    // 切换阶段：进行中的切换不参与搬移，完成后在宽限期内搬移旧key上的库存
+    private static final String PHASE_ENABLING = "enabling";
+    private static final String PHASE_ENABLED = "enabled";
+    private static final String PHASE_DISABLING = "disabling";
+    private static final String PHASE_DISABLED = "disabled";
+
+    private DefaultRedisScript<Long> checkAndDecrStockScript;
+    private DefaultRedisScript<Long> checkAndIncrStockScript;
+    private DefaultRedisScript<Long> takeStockScript;
+
+    // productId -> 分片数，未分片的商品不在表中
+    private SyncedProductConfig shardCounts;
+
+    @PostConstruct
+    public void init() {
+        checkAndDecrStockScript = new DefaultRedisScript<>();
+        checkAndDecrStockScript.setLocation(new ClassPathResource("lua/check_and_decr_stock.lua"));
+        checkAndDecrStockScript.setResultType(Long.class);
+
+        checkAndIncrStockScript = new DefaultRedisScript<>();
+        checkAndIncrStockScript.setLocation(new ClassPathResource("lua/check_and_incr_stock.lua"));
+        checkAndIncrStockScript.setResultType(Long.class);
+
+        takeStockScript = new DefaultRedisScript<>();
+        takeStockScript.setLocation(new ClassPathResource("lua/take_stock.lua"));
+        takeStockScript.setResultType(Long.class);
+
+        shardCounts = new SyncedProductConfig(stringRedisTemplate, SHARD_CONFIG_KEY, SHARD_CHANNEL, "分片库存配置");
+        shardCounts.start(redisMessageListenerContainer);
+    }
+
+    /**
+     * 获取商品的分片数（仅查本地缓存）
+     * @param productId 商品ID
+     * @return 分片数，0表示未分片
+     */
+    public int getShardCount(String productId) {
+        return shardCounts.get(productId);
+    }
+
+    public boolean isSharded(String productId) {
+        return shardCounts.contains(productId);
+    }
+
+    /**
+     * 获取分桶key，hash tag 为 productId#index，保证各分桶分布在不同槽位
+     */
+    public String getBucketKey(String productId, int index) {
+        return PRODUCT_STOCK_PREFIX + "{" + productId + "#" + index + "}";
+    }
+
+    public List<String> getBucketKeys(String productId, int shards) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(getBucketKey(productId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 开启分片库存：原子取出主key中的库存，平均分配到各分桶
+     * 尚未收到新配置的节点扣减已清零的主key时不会标记售罄，归还到主key的库存在宽限期内搬到分桶
+     * @param productId 商品ID
+     * @param shards 分片数
+     * @return 分配到各分桶的总库存
+     */
+    public Long enableSharding(String productId, int shards) {
+        if (shards < 2 || shards > MAX_SHARDS) {
+            throw new IllegalArgumentException("分片数必须在2-" + MAX_SHARDS + "之间");
+        }
+        if (isSharded(productId)) {
+            throw new IllegalStateException("商品 " + productId + " 已开启分片库存");
+        }
+        beginMigration(productId, PHASE_ENABLING, shards);
+
+        // 库存只是在主key与分桶之间搬移，总量不变，不记录库存变更日志
+        Long total = stringRedisTemplate.execute(
+                takeStockScript,
+                Collections.singletonList(PRODUCT_STOCK_PREFIX + productId)
+        );
+        if (total == null || total < 0) {
+            stringRedisTemplate.opsForHash().delete(MIGRATING_KEY, productId);
+            throw new IllegalStateException("商品 " + productId + " 库存不存在或格式错误，无法分片");
+        }
+
+        writeBuckets(productId, shards, total);
+        shardCounts.put(productId, shards);
+        updateMigration(productId, PHASE_ENABLED, shards);
+
+        log.info("商品 {} 已开启分片库存，分片数: {}，总库存: {}", productId, shards, total);
+        return total;
+    }
+
+    /**
+     * 关闭分片库存：取出各分桶库存并合并回主key
+     * 分桶在宽限期结束后才删除，期间尚未收到新配置的节点归还到分桶的库存会被搬回主key
+     * @param productId 商品ID
+     * @return 合并回主key的总库存
+     */
+    public Long disableSharding(String productId) {
+        int shards = getShardCount(productId);
+        if (shards == 0) {
+            throw new IllegalStateException("商品 " + productId + " 未开启分片库存");
+        }
+        beginMigration(productId, PHASE_DISABLING, shards);
+
+        // 先下线分片配置，新的扣减请求回到主key
+        shardCounts.remove(productId);
+
+        // 合并回主key同样只是搬移库存，不记录库存变更日志
+        long total = mergeBuckets(productId, shards);
+        updateMigration(productId, PHASE_DISABLED, shards);
+
+        log.info("商品 {} 已关闭分片库存，合并库存: {}", productId, total);
+        return total;
+    }
+
+    /**
+     * 扣减返回库存不足时复核分片配置，确认后才能标记售罄
+     * 本地配置已过期（其他节点刚切换）或切换尚在宽限期内时，读到的可能是已清零的主key或分桶；
+     * 复核同时用 Redis 中的配置更新本地缓存，之后的请求走新的key
+     * @param productId 商品ID
+     * @param usedSharded 本次扣减是否走的分桶
+     * @return 库存不足是否可信
+     */
+    public boolean confirmLayout(String productId, boolean usedSharded) {
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(MIGRATING_KEY, productId))) {
+                return false;
+            }
+            return (shardCounts.reload(productId) > 0) == usedSharded;
+        } catch (Exception e) {
+            log.error("复核商品 {} 分片配置失败: {}", productId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 定时搬移切换宽限期内旧key上的库存（尚未收到新配置的节点归还的库存），宽限期结束后清理
+     */
+    @Scheduled(fixedRate = 30000)
+    public void drainMigrations() {
+        Map<Object, Object> migrations;
+        try {
+            migrations = stringRedisTemplate.opsForHash().entries(MIGRATING_KEY);
+        } catch (Exception e) {
+            log.error("读取分片切换记录失败: {}", e.getMessage());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        migrations.forEach((k, v) -> {
+            String productId = k.toString();
+            String[] parts = v.toString().split(":");
+            String phase = parts[0];
+            int shards = Integer.parseInt(parts[1]);
+            boolean expired = now - Long.parseLong(parts[2]) > MIGRATION_GRACE_MS;
+            try {
+                if (PHASE_ENABLED.equals(phase)) {
+                    Long residual = stringRedisTemplate.execute(takeStockScript, Collections.singletonList(PRODUCT_STOCK_PREFIX + productId));
+                    if (residual != null && residual > 0) {
+                        stringRedisTemplate.execute(
+                                checkAndIncrStockScript,
+                                Collections.singletonList(getBucketKey(productId, ThreadLocalRandom.current().nextInt(shards))),
+                                String.valueOf(residual)
+                        );
+                        log.info("商品 {} 主key上的 {} 件库存已搬到分桶", productId, residual);
+                    }
+                } else if (PHASE_DISABLED.equals(phase)) {
+                    long residual = mergeBuckets(productId, shards);
+                    if (residual > 0) {
+                        log.info("商品 {} 分桶上的 {} 件库存已合并回主key", productId, residual);
+                    }
+                    if (expired) {
+                        stringRedisTemplate.delete(getBucketKeys(productId, shards));
+                    }
+                } else if (expired) {
+                    // 切换过程中节点宕机，记录无法自动完成
+                    log.error("商品 {} 分片切换未完成（{}），请人工核对库存后删除 {} 中的记录", productId, phase, MIGRATING_KEY);
+                    return;
+                }
+                if (expired) {
+                    stringRedisTemplate.opsForHash().delete(MIGRATING_KEY, productId);
+                }
+            } catch (Exception e) {
+                log.error("商品 {} 搬移切换残留库存失败: {}", productId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 分片扣减：随机选择起始分桶，库存不足时依次探测其他分桶
+     * 单次扣减只在一个分桶内完成，购买数量超过任一分桶剩余量时视为库存不足
+     * @return >=0 扣减成功并返回该分桶剩余库存，-1 所有分桶库存不足，其他值同扣减脚本
+     */
+    public Long decrementStock(String productId, int quantity) {
+        int shards = getShardCount(productId);
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        boolean anyBucketExists = false;
+
+        for (int i = 0; i < shards; i++) {
+            String bucketKey = getBucketKey(productId, (start + i) % shards);
+            Long result = stringRedisTemplate.execute(
+                    checkAndDecrStockScript,
+                    stockJournalService.scriptKeys(bucketKey),
+                    String.valueOf(quantity)
+            );
+            if (result == null) {
+                return null;
+            }
+            if (result >= 0) {
+                return result;
+            }
+            if (result == -1) {
+                anyBucketExists = true;
+            } else if (result != -2) {
+                return result;
+            }
+        }
+        return anyBucketExists ? -1L : -2L;
+    }
+
+    /**
+     * 分片增加库存：随机加到一个分桶
+     * @return 该分桶增加后的库存
+     */
+    public Long incrementStock(String productId, int quantity) {
+        int shards = getShardCount(productId);
+        String bucketKey = getBucketKey(productId, ThreadLocalRandom.current().nextInt(shards));
+        return stringRedisTemplate.execute(
+                checkAndIncrStockScript,
+                stockJournalService.scriptKeys(bucketKey),
+                String.valueOf(quantity)
+        );
+    }
+
+    /**
+     * 分片设置库存：按分片数平均分配
+     */
+    public void setStock(String productId, int stock) {
+        writeBuckets(productId, getShardCount(productId), stock);
+    }
+
+    /**
+     * 汇总各分桶库存
+     * @return 总库存，所有分桶都不存在时返回null
+     */
+    public Long getCurrentStock(String productId) {
+        int shards = getShardCount(productId);
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(getBucketKeys(productId, shards));
+        if (values == null) {
+            return null;
+        }
+
+        long total = 0;
+        boolean found = false;
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            try {
+                total += Long.parseLong(value);
+                found = true;
+            } catch (NumberFormatException e) {
+                log.error("商品 {} 分桶库存值格式错误: {}", productId, value);
+            }
+        }
+        return found ? total : null;
+    }
+
+    /**
+     * 定时刷新分片配置，兜底发布订阅消息丢失的情况
+     */
+    @Scheduled(fixedRate = 30000)
+    public void refreshShardConfig() {
+        shardCounts.refresh();
+    }
+
+    /**
+     * 获取分片库存统计信息
+     */
+    public Map<String, Object> getStats() {
+        return Map.of("shardedProductCount", shardCounts.size());
+    }
+
+    /**
+     * 写入各分桶库存
+     * 分桶分布在不同槽位，无法放进同一个脚本，这里在一次流水线中提交，缩短各分桶新旧值并存的窗口
+     */
+    private void writeBuckets(String productId, int shards, long total) {
+        long base = total / shards;
+        long remainder = total % shards;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shards; i++) {
+                long bucketStock = base + (i < remainder ? 1 : 0);
+                connection.stringCommands().set(
+                        getBucketKey(productId, i).getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(bucketStock).getBytes(StandardCharsets.UTF_8)
+                );
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 取出各分桶库存并加回主key
+     * @return 合并的库存
+     */
+    private long mergeBuckets(String productId, int shards) {
+        long total = 0;
+        for (String bucketKey : getBucketKeys(productId, shards)) {
+            Long taken = stringRedisTemplate.execute(takeStockScript, Collections.singletonList(bucketKey));
+            if (taken != null && taken > 0) {
+                total += taken;
+            }
+        }
+        if (total > 0) {
+            stringRedisTemplate.execute(
+                    checkAndIncrStockScript,
+                    Collections.singletonList(PRODUCT_STOCK_PREFIX + productId),
+                    String.valueOf(total)
+            );
+        }
+        return total;
+    }
+
+    /**
+     * 登记分片切换，同一商品同时只允许一个切换
+     */
+    private void beginMigration(String productId, String phase, int shards) {
+        Boolean started = stringRedisTemplate.opsForHash().putIfAbsent(MIGRATING_KEY, productId, migrationValue(phase, shards));
+        if (!Boolean.TRUE.equals(started)) {
+            throw new IllegalStateException("商品 " + productId + " 上一次分片切换尚未完成，请稍后再试");
+        }
+    }
+
+    private void updateMigration(String productId, String phase, int shards) {
+        stringRedisTemplate.opsForHash().put(MIGRATING_KEY, productId, migrationValue(phase, shards));
+    }
+
+    private static String migrationValue(String phase, int shards) {
+        return phase + ":" + shards + ":" + System.currentTimeMillis();
+    }
+}
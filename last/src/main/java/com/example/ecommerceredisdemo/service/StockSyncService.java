@@ -0,0 +1,296 @@
+package com.example.ecommerceredisdemo.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisZSetCommands.ZAddArgs;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 库存增量同步
+ * 库存变化的商品先记在本地，每隔 dirty-flush-interval-ms 在一个管道内记入脏集合（ZSET，score 为首次变脏的时间），
+ * 扣减路径不访问这个全局key；定时任务用 ZPOPMIN 分块原子取出，
+ * 每块用一次 MGET 读取 Redis 库存，再用一条批量 UPDATE 写回数据库，每块单独提交。
+ * 写回失败的商品按原时间放回脏集合，下次重试。
+ */
+@Service
+@Slf4j
+public class StockSyncService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StockShardingService stockShardingService;
+
+    @Autowired
+    private StockWarmupService stockWarmupService;
+
+    @Autowired
+    private ProductCacheService productCacheService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${stock.sync.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${stock.sync.dirty-flush-interval-ms:1000}")
+    private long dirtyFlushIntervalMs;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final String DIRTY_KEY = "stock:sync:dirty";
+    private static final String UPDATE_STOCK_SQL = "UPDATE product SET stock = ?, updated_at = ? WHERE product_id = ?";
+
+    // 尚未记入脏集合的商品：商品ID -> 首次变脏的时间
+    private final ConcurrentHashMap<String, Long> localDirty = new ConcurrentHashMap<>();
+
+    private final LongAdder syncedRows = new LongAdder();
+    private final LongAdder failedChunks = new LongAdder();
+    // 最近一次同步中最早变脏的商品等待了多久
+    private volatile long lastSyncLagMs;
+    private volatile double lastRowsPerSecond;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("stock.sync.lag", this, s -> s.lastSyncLagMs)
+                .description("最近一次库存同步时最早变更的商品等待写回的时间（毫秒）")
+                .register(meterRegistry);
+        Gauge.builder("stock.sync.rows.per.second", this, s -> s.lastRowsPerSecond)
+                .description("最近一次库存同步的写回速度")
+                .register(meterRegistry);
+        Gauge.builder("stock.sync.pending", this, StockSyncService::getPendingCount)
+                .description("等待同步的商品数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 标记库存需要同步到数据库，先记在本地，下一次刷新时记入脏集合
+     * @param productId 商品ID
+     */
+    public void markDirty(String productId) {
+        localDirty.putIfAbsent(productId, System.currentTimeMillis());
+    }
+
+    /**
+     * 定时任务：把本地记录的商品在一个管道内记入脏集合，已在脏集合中的商品保留首次变脏的时间
+     * 节点关闭前同样刷新一次
+     */
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stock.sync.dirty-flush-interval-ms:1000}")
+    public void flushDirty() {
+        if (localDirty.isEmpty()) {
+            return;
+        }
+        Map<String, Long> flushing = new HashMap<>(localDirty);
+        flushing.forEach(localDirty::remove);
+        byte[] dirtyKey = DIRTY_KEY.getBytes(StandardCharsets.UTF_8);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                flushing.forEach((productId, dirtyAt) -> connection.zSetCommands().zAdd(dirtyKey, dirtyAt,
+                        productId.getBytes(StandardCharsets.UTF_8), ZAddArgs.ifNotExists()));
+                return null;
+            });
+        } catch (Exception e) {
+            // 放回本地，下次重试
+            flushing.forEach((productId, dirtyAt) -> localDirty.merge(productId, dirtyAt, Math::min));
+            log.error("{} 个商品记入库存脏集合失败: {}", flushing.size(), e.getMessage());
+        }
+    }
+
+    public long getDirtyFlushIntervalMs() {
+        return dirtyFlushIntervalMs;
+    }
+
+    /**
+     * 定时任务：将脏集合中的商品库存分块写回数据库
+     */
+    @Scheduled(fixedRate = 30000) // 每30秒执行一次
+    public void syncDirtyStock() {
+        long start = System.currentTimeMillis();
+        long oldestDirtyAt = Long.MAX_VALUE;
+        int rows = 0;
+
+        flushDirty();
+        try {
+            while (true) {
+                Set<ZSetOperations.TypedTuple<String>> chunk = stringRedisTemplate.opsForZSet().popMin(DIRTY_KEY, chunkSize);
+                if (chunk == null || chunk.isEmpty()) {
+                    break;
+                }
+                for (ZSetOperations.TypedTuple<String> entry : chunk) {
+                    if (entry.getScore() != null) {
+                        oldestDirtyAt = Math.min(oldestDirtyAt, entry.getScore().longValue());
+                    }
+                }
+                rows += syncChunk(chunk);
+                if (chunk.size() < chunkSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("库存同步过程中发生异常: {}", e.getMessage());
+        }
+
+        if (rows > 0) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            lastSyncLagMs = start - oldestDirtyAt;
+            lastRowsPerSecond = rows * 1000.0 / elapsed;
+            log.info("库存同步完成，写回 {} 个商品，耗时 {} ms，最大延迟 {} ms", rows, elapsed, lastSyncLagMs);
+        }
+    }
+
+    /**
+     * 同步一块商品
+     * @return 写回的行数
+     */
+    private int syncChunk(Set<ZSetOperations.TypedTuple<String>> chunk) {
+        List<String> productIds = new ArrayList<>(chunk.size());
+        chunk.forEach(entry -> productIds.add(entry.getValue()));
+
+        try {
+            Map<String, Long> stocks = readStocks(productIds);
+            if (stocks.isEmpty()) {
+                return 0;
+            }
+
+            LocalDateTime updatedAt = LocalDateTime.now().withNano(0);
+            Timestamp updatedAtValue = Timestamp.valueOf(updatedAt);
+            List<Object[]> batchArgs = new ArrayList<>(stocks.size());
+            stocks.forEach((productId, stock) -> batchArgs.add(new Object[]{stock, updatedAtValue, productId}));
+
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UPDATE_STOCK_SQL, batchArgs));
+
+            syncedRows.add(stocks.size());
+            stockWarmupService.recordSyncedVersions(stocks.keySet(), updatedAt);
+            try {
+                productCacheService.updateCachedStocks(stocks, updatedAt);
+            } catch (Exception e) {
+                // 数据库已写回，缓存中的库存在逻辑过期刷新时更新
+                log.error("更新 {} 个商品缓存中的库存失败: {}", stocks.size(), e.getMessage());
+            }
+            return stocks.size();
+        } catch (Exception e) {
+            failedChunks.increment();
+            log.error("同步 {} 个商品库存失败，放回脏集合等待重试: {}", productIds.size(), e.getMessage());
+            try {
+                for (ZSetOperations.TypedTuple<String> entry : chunk) {
+                    stringRedisTemplate.opsForZSet().addIfAbsent(DIRTY_KEY, entry.getValue(),
+                            entry.getScore() != null ? entry.getScore() : System.currentTimeMillis());
+                }
+            } catch (Exception restoreException) {
+                log.error("放回脏集合失败: {}", restoreException.getMessage());
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 读取一块商品的Redis库存：普通商品一次 MGET，分片商品汇总各分桶
+     */
+    private Map<String, Long> readStocks(List<String> productIds) {
+        Map<String, Long> stocks = new HashMap<>();
+        List<String> plainIds = new ArrayList<>();
+        for (String productId : productIds) {
+            if (stockShardingService.isSharded(productId)) {
+                Long stock = stockShardingService.getCurrentStock(productId);
+                if (stock != null) {
+                    stocks.put(productId, stock);
+                }
+            } else {
+                plainIds.add(productId);
+            }
+        }
+
+        if (!plainIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(plainIds.size());
+            plainIds.forEach(productId -> keys.add(PRODUCT_STOCK_PREFIX + productId));
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < plainIds.size(); i++) {
+                String value = values != null ? values.get(i) : null;
+                if (value == null) {
+                    log.warn("商品 {} Redis库存不存在，跳过同步", plainIds.get(i));
+                    continue;
+                }
+                try {
+                    stocks.put(plainIds.get(i), Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    log.error("商品 {} 库存值格式错误: {}", plainIds.get(i), value);
+                }
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * 筛选出仍在脏集合或本地待刷新（等待写回数据库）的商品
+     * 其他节点本地记录的商品最多滞后一个刷新间隔才进入脏集合
+     * @param productIds 商品ID列表
+     * @return 等待同步的商品ID
+     */
+    public Set<String> filterPending(List<String> productIds) {
+        Set<String> pending = new HashSet<>();
+        for (String productId : productIds) {
+            if (localDirty.containsKey(productId)) {
+                pending.add(productId);
+            }
+        }
+        List<Double> scores = stringRedisTemplate.opsForZSet().score(DIRTY_KEY, productIds.toArray());
+        for (int i = 0; i < productIds.size(); i++) {
+            if (scores != null && scores.get(i) != null) {
+                pending.add(productIds.get(i));
+            }
+        }
+        return pending;
+    }
+
+    public long getPendingCount() {
+        try {
+            Long size = stringRedisTemplate.opsForZSet().zCard(DIRTY_KEY);
+            return (size != null ? size : 0) + localDirty.size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 获取同步统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingSyncCount", getPendingCount());
+        stats.put("syncedRows", syncedRows.sum());
+        stats.put("syncFailedChunks", failedChunks.sum());
+        stats.put("lastSyncLagMs", lastSyncLagMs);
+        stats.put("lastSyncRowsPerSecond", lastRowsPerSecond);
+        return stats;
+    }
+}
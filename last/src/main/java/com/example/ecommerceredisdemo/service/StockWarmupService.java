@@ -0,0 +1,259 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.entity.Product;
+import com.example.ecommerceredisdemo.repository.ProductRepository;
+import io.lettuce.core.cluster.SlotHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 启动时库存预热
+ * 分页读取商品，按集群槽位分组，每组用管道批量执行条件写入脚本：
+ * Redis 中没有库存key时写入，已有时只有数据库版本（updated_at）更新才覆盖，
+ * 节点在秒杀中途重启也不会用数据库中的旧库存覆盖 Redis。
+ * 作为 ApplicationRunner 执行；预热未完成或有商品预热失败时 StockWarmupHealthIndicator 报告 DOWN，
+ * 该指标加入 readiness 健康组，节点不会被加入负载均衡。
+ */
+@Service
+@Slf4j
+public class StockWarmupService implements ApplicationRunner {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private StockShardingService stockShardingService;
+
+    @Autowired
+    private StockJournalService stockJournalService;
+
+    @Value("${stock.warmup.page-size:1000}")
+    private int pageSize;
+
+    @Value("${stock.warmup.threads:4}")
+    private int warmupThreads;
+
+    private static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+    private static final String STOCK_VERSION_PREFIX = "stock:version:";
+
+    private static final long WRITTEN_MISSING = 1L;
+    private static final long WRITTEN_NEWER = 2L;
+
+    private final LongAdder missingWritten = new LongAdder();
+    private final LongAdder newerWritten = new LongAdder();
+    private final LongAdder keptCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private volatile long lastWarmupMillis = -1;
+    private volatile boolean warmupCompleted;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            warmup();
+        } catch (Exception e) {
+            // 预热未完成，readiness 保持 DOWN
+            log.error("库存预热失败，节点不接收流量: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 库存版本key，hash tag 为库存key本身，保证与库存key在同一槽位
+     */
+    public String getVersionKey(String productId) {
+        return STOCK_VERSION_PREFIX + "{" + PRODUCT_STOCK_PREFIX + productId + "}";
+    }
+
+    /**
+     * 数据库版本：updated_at 的秒级时间戳
+     */
+    public static long toVersion(LocalDateTime updatedAt) {
+        return updatedAt == null ? 0 : updatedAt.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    /**
+     * 记录 Redis 库存已写回数据库时的版本，避免重启预热时把刚同步的数据再当作更新的版本覆盖回来
+     * @param productId 商品ID
+     * @param updatedAt 同步时写入数据库的 updated_at
+     */
+    public void recordSyncedVersion(String productId, LocalDateTime updatedAt) {
+        try {
+            stringRedisTemplate.opsForValue().set(getVersionKey(productId), String.valueOf(toVersion(updatedAt)));
+        } catch (Exception e) {
+            log.error("记录商品 {} 库存版本失败: {}", productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 批量记录已写回数据库的库存版本
+     * @param productIds 商品ID列表
+     * @param updatedAt 同步时写入数据库的 updated_at
+     */
+    public void recordSyncedVersions(Collection<String> productIds, LocalDateTime updatedAt) {
+        byte[] version = String.valueOf(toVersion(updatedAt)).getBytes(StandardCharsets.UTF_8);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String productId : productIds) {
+                    connection.stringCommands().set(getVersionKey(productId).getBytes(StandardCharsets.UTF_8), version);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("批量记录 {} 个商品库存版本失败: {}", productIds.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 执行一次库存预热
+     */
+    public void warmup() throws IOException {
+        long start = System.currentTimeMillis();
+        log.info("开始库存预热，分页大小 {}，并行度 {}", pageSize, warmupThreads);
+
+        byte[] script = StreamUtils.copyToByteArray(new ClassPathResource("lua/warmup_stock.lua").getInputStream());
+        ExecutorService executor = Executors.newFixedThreadPool(warmupThreads);
+        try {
+            PageRequest pageRequest = PageRequest.of(0, pageSize, Sort.by("productId"));
+            Page<Product> page;
+            do {
+                page = productRepository.findAll(pageRequest);
+                warmupPage(page.getContent(), script, executor);
+                pageRequest = pageRequest.next();
+            } while (page.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+
+        lastWarmupMillis = System.currentTimeMillis() - start;
+        warmupCompleted = true;
+        log.info("库存预热完成，耗时 {} ms：新写入 {}，数据库较新覆盖 {}，保留Redis {}，跳过分片 {}，失败 {}",
+                lastWarmupMillis, missingWritten.sum(), newerWritten.sum(), keptCount.sum(),
+                skippedCount.sum(), failedCount.sum());
+    }
+
+    private void warmupPage(List<Product> products, byte[] script, ExecutorService executor) {
+        // 按槽位分组，每组的命令发往同一个节点
+        Map<Integer, List<Product>> slotGroups = new HashMap<>();
+        for (Product product : products) {
+            // 分片商品的库存在各分桶中，不能用数据库值覆盖
+            if (stockShardingService.isSharded(product.getProductId())) {
+                skippedCount.increment();
+                continue;
+            }
+            int slot = SlotHash.getSlot(PRODUCT_STOCK_PREFIX + product.getProductId());
+            slotGroups.computeIfAbsent(slot, s -> new ArrayList<>()).add(product);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (List<Product> group : slotGroups.values()) {
+            futures.add(CompletableFuture.runAsync(() -> warmupSlotGroup(group, script), executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void warmupSlotGroup(List<Product> group, byte[] script) {
+        try {
+            List<String> journalKeys = stockJournalService.isEnabled()
+                    ? stockJournalService.journalKeys(group.stream().map(p -> PRODUCT_STOCK_PREFIX + p.getProductId()).toList())
+                    : null;
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < group.size(); i++) {
+                    evalWarmup(connection, script, group.get(i), journalKeys == null ? null : journalKeys.get(i));
+                }
+                return null;
+            });
+            List<String> journaled = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                Object result = results.get(i);
+                if (!(result instanceof Long)) {
+                    failedCount.increment();
+                    log.error("商品 {} 库存预热失败: {}", group.get(i).getProductId(), result);
+                } else if ((Long) result == WRITTEN_MISSING) {
+                    missingWritten.increment();
+                } else if ((Long) result == WRITTEN_NEWER) {
+                    newerWritten.increment();
+                    if (journalKeys != null) {
+                        journaled.add(journalKeys.get(i));
+                    }
+                    log.info("商品 {} 数据库库存较新，已覆盖Redis: {}", group.get(i).getProductId(), group.get(i).getStock());
+                } else {
+                    keptCount.increment();
+                }
+            }
+            // 只有覆盖了Redis库存的商品写入了日志，登记这些日志流
+            if (!journaled.isEmpty()) {
+                stockJournalService.markActive(journaled);
+            }
+        } catch (Exception e) {
+            failedCount.add(group.size());
+            log.error("槽位分组库存预热失败（{} 个商品）: {}", group.size(), e.getMessage());
+        }
+    }
+
+    private void evalWarmup(RedisConnection connection, byte[] script, Product product, String journalKey) {
+        String productId = product.getProductId();
+        byte[] stockKey = (PRODUCT_STOCK_PREFIX + productId).getBytes(StandardCharsets.UTF_8);
+        byte[] versionKey = getVersionKey(productId).getBytes(StandardCharsets.UTF_8);
+        byte[] stock = String.valueOf(product.getStock()).getBytes(StandardCharsets.UTF_8);
+        byte[] version = String.valueOf(toVersion(product.getUpdatedAt())).getBytes(StandardCharsets.UTF_8);
+        if (journalKey != null) {
+            // 数据库较新覆盖Redis时同时记录一条库存变更日志
+            connection.scriptingCommands().eval(script, ReturnType.INTEGER, 3,
+                    stockKey, versionKey, journalKey.getBytes(StandardCharsets.UTF_8), stock, version);
+        } else {
+            connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2, stockKey, versionKey, stock, version);
+        }
+    }
+
+    /**
+     * 预热是否已完成且没有失败的商品
+     */
+    public boolean isWarmupSucceeded() {
+        return warmupCompleted && failedCount.sum() == 0;
+    }
+
+    /**
+     * 获取预热统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("warmupCompleted", warmupCompleted);
+        stats.put("warmupDurationMs", lastWarmupMillis);
+        stats.put("warmupMissingWritten", missingWritten.sum());
+        stats.put("warmupNewerWritten", newerWritten.sum());
+        stats.put("warmupKept", keptCount.sum());
+        stats.put("warmupSkippedSharded", skippedCount.sum());
+        stats.put("warmupFailed", failedCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.ecommerceredisdemo.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀排队（虚拟等候室）
+ * 排队开启的商品，用户先按到达时间进入 ZSET 队列，定时任务按配置的速率把队首用户放行到已放行集合，
+ * 只有持有放行资格的用户才能进入抢购逻辑，把瞬时洪峰削成平稳的请求流。
+ * 同一商品的队列、已放行集合和状态使用相同的 hash tag，放行脚本可在集合间原子移动用户。
+ */
+@Service
+@Slf4j
+public class WaitingRoomService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${flash-sale.waiting-room.enabled:false}")
+    private boolean enabled;
+
+    @Value("${flash-sale.waiting-room.admit-per-second:500}")
+    private int admitPerSecond;
+
+    @Value("${flash-sale.waiting-room.admission-ttl-seconds:120}")
+    private long admissionTtlSeconds;
+
+    private static final String ROOM_KEY_PREFIX = "flash_sale:wr:";
+    private static final String OPEN_ROOMS_KEY = "flash_sale:wr:rooms";
+
+    private DefaultRedisScript<Long> admitScript;
+    private DefaultRedisScript<List> positionScript;
+    private DefaultRedisScript<Long> consumeAdmissionScript;
+
+    // 本节点缓存的排队中商品，定时从Redis刷新
+    private volatile Set<String> openRooms = Collections.emptySet();
+
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder notAdmittedCount = new LongAdder();
+
+    public enum QueueState {
+        ADMITTED,   // 已放行，可以抢购
+        WAITING,    // 排队中
+        NOT_QUEUED  // 未排队或放行资格已过期
+    }
+
+    @PostConstruct
+    public void init() {
+        admitScript = new DefaultRedisScript<>();
+        admitScript.setLocation(new ClassPathResource("lua/admit_waiting_room.lua"));
+        admitScript.setResultType(Long.class);
+
+        positionScript = new DefaultRedisScript<>();
+        positionScript.setLocation(new ClassPathResource("lua/waiting_room_position.lua"));
+        positionScript.setResultType(List.class);
+
+        consumeAdmissionScript = new DefaultRedisScript<>();
+        consumeAdmissionScript.setLocation(new ClassPathResource("lua/consume_admission.lua"));
+        consumeAdmissionScript.setResultType(Long.class);
+    }
+
+    private String queueKey(String productId) {
+        return ROOM_KEY_PREFIX + "{" + productId + "}:queue";
+    }
+
+    private String admittedKey(String productId) {
+        return ROOM_KEY_PREFIX + "{" + productId + "}:admitted";
+    }
+
+    private String stateKey(String productId) {
+        return ROOM_KEY_PREFIX + "{" + productId + "}:state";
+    }
+
+    /**
+     * 商品是否处于排队模式
+     * @param productId 商品ID
+     * @return 是否需要排队
+     */
+    public boolean isRoomOpen(String productId) {
+        return enabled && openRooms.contains(productId);
+    }
+
+    /**
+     * 开启商品排队（管理员操作，开售前调用）
+     * @param productId 商品ID
+     */
+    public void openRoom(String productId) {
+        if (!enabled) {
+            throw new IllegalStateException("排队功能未开启");
+        }
+        stringRedisTemplate.opsForSet().add(OPEN_ROOMS_KEY, productId);
+        Set<String> rooms = ConcurrentHashMap.newKeySet();
+        rooms.addAll(openRooms);
+        rooms.add(productId);
+        openRooms = rooms;
+        log.info("商品 {} 开启排队，每秒放行 {} 人", productId, admitPerSecond);
+    }
+
+    /**
+     * 关闭商品排队并清理队列
+     * @param productId 商品ID
+     */
+    public void closeRoom(String productId) {
+        stringRedisTemplate.opsForSet().remove(OPEN_ROOMS_KEY, productId);
+        stringRedisTemplate.delete(Arrays.asList(queueKey(productId), admittedKey(productId), stateKey(productId)));
+        Set<String> rooms = ConcurrentHashMap.newKeySet();
+        rooms.addAll(openRooms);
+        rooms.remove(productId);
+        openRooms = rooms;
+        log.info("商品 {} 关闭排队", productId);
+    }
+
+    /**
+     * 加入排队，已在队列中时不改变位置
+     * @return 排队状态
+     */
+    public Map<String, Object> join(String userId, String productId) {
+        return queryPosition(userId, productId, true);
+    }
+
+    /**
+     * 查询排队位置
+     * @return 排队状态
+     */
+    public Map<String, Object> getPosition(String userId, String productId) {
+        return queryPosition(userId, productId, false);
+    }
+
+    private Map<String, Object> queryPosition(String userId, String productId, boolean join) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("productId", productId);
+        if (!isRoomOpen(productId)) {
+            // 未开启排队的商品直接放行
+            result.put("state", QueueState.ADMITTED.name());
+            return result;
+        }
+
+        List<?> response = stringRedisTemplate.execute(
+                positionScript,
+                Arrays.asList(queueKey(productId), admittedKey(productId)),
+                userId, String.valueOf(System.currentTimeMillis()), join ? "1" : "0"
+        );
+        if (response == null || response.size() != 2) {
+            throw new IllegalStateException("排队位置脚本返回结果异常");
+        }
+
+        long state = ((Number) response.get(0)).longValue();
+        long position = ((Number) response.get(1)).longValue();
+        if (state == 1) {
+            result.put("state", QueueState.ADMITTED.name());
+        } else if (state == 0) {
+            result.put("state", QueueState.WAITING.name());
+            result.put("position", position);
+            result.put("estimatedWaitSeconds", (position + admitPerSecond - 1) / admitPerSecond);
+        } else {
+            result.put("state", QueueState.NOT_QUEUED.name());
+        }
+        return result;
+    }
+
+    /**
+     * 使用放行资格（一次放行只能抢购一次）
+     * @param userId 用户ID
+     * @param productId 商品ID
+     * @return 是否允许进入抢购，未开启排队的商品始终允许
+     */
+    public boolean tryConsumeAdmission(String userId, String productId) {
+        if (!isRoomOpen(productId)) {
+            return true;
+        }
+        Long consumed = stringRedisTemplate.execute(
+                consumeAdmissionScript,
+                Collections.singletonList(admittedKey(productId)),
+                userId, String.valueOf(System.currentTimeMillis())
+        );
+        if (consumed != null && consumed == 1) {
+            return true;
+        }
+        notAdmittedCount.increment();
+        return false;
+    }
+
+    /**
+     * 归还已使用的放行资格（请求因系统繁忙未被受理时调用），用户在有效期内可以直接重试，不必重新排队
+     * @param userId 用户ID
+     * @param productId 商品ID
+     */
+    public void restoreAdmission(String userId, String productId) {
+        if (!isRoomOpen(productId)) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().addIfAbsent(admittedKey(productId), userId,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(admissionTtlSeconds));
+        } catch (Exception e) {
+            log.error("归还用户 {} 商品 {} 的放行资格失败: {}", userId, productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 定时任务：按速率放行各排队商品的队首用户
+     * 放行数量由脚本根据上次放行时间计算，多个节点同时执行不会超出配置的速率
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.waiting-room.admit-interval-ms:100}")
+    public void admitFromQueues() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Set<String> rooms = stringRedisTemplate.opsForSet().members(OPEN_ROOMS_KEY);
+            openRooms = rooms != null ? rooms : Collections.emptySet();
+        } catch (Exception e) {
+            log.error("刷新排队商品列表失败: {}", e.getMessage());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String productId : openRooms) {
+            try {
+                Long admitted = stringRedisTemplate.execute(
+                        admitScript,
+                        Arrays.asList(queueKey(productId), admittedKey(productId), stateKey(productId)),
+                        String.valueOf(admitPerSecond),
+                        String.valueOf(now),
+                        String.valueOf(TimeUnit.SECONDS.toMillis(admissionTtlSeconds))
+                );
+                if (admitted != null && admitted > 0) {
+                    admittedCount.add(admitted);
+                    log.debug("商品 {} 放行 {} 人", productId, admitted);
+                }
+            } catch (Exception e) {
+                log.error("商品 {} 排队放行失败: {}", productId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取排队统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> waitingByProduct = new HashMap<>();
+        for (String productId : openRooms) {
+            Long size = stringRedisTemplate.opsForZSet().zCard(queueKey(productId));
+            waitingByProduct.put(productId, size != null ? size : 0L);
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("waitingRoomEnabled", enabled);
+        stats.put("admitPerSecond", admitPerSecond);
+        stats.put("waitingByProduct", waitingByProduct);
+        stats.put("admittedByThisNode", admittedCount.sum());
+        stats.put("notAdmittedRejectedCount", notAdmittedCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.ecommerceredisdemo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的进程内布隆过滤器
+ * 位数组使用 AtomicLongArray，下标由 DoubleHashing 生成
+ * 判定不存在时一定不存在，判定存在时有 fpp 概率误判
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashFunctions;
+
+    /**
+     * @param expectedInsertions 预计插入数量
+     * @param fpp 期望误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数错误");
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((optimalBits + 63) / 64));
+        this.bitSize = (long) bits.length() * 64;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(String value) {
+        for (long index : indexes(value)) {
+            setBit(index);
+        }
+    }
+
+    public boolean mightContain(String value) {
+        for (long index : indexes(value)) {
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算某个值对应的位下标
+     */
+    public long[] indexes(String value) {
+        return DoubleHashing.indexes(value, hashFunctions, bitSize);
+    }
+
+    public void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        while (true) {
+            long current = bits.get(word);
+            if ((current & mask) != 0 || bits.compareAndSet(word, current, current | mask)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 导出为 Redis 位图格式（第 i 位对应 SETBIT 偏移 i，即字节内高位在前）
+     */
+    public byte[] toBitmap() {
+        byte[] bitmap = new byte[(int) (bitSize / 8)];
+        for (int i = 0; i < bitmap.length; i++) {
+            long word = bits.get(i >>> 3);
+            bitmap[i] = (byte) (Integer.reverse((int) ((word >>> ((i & 7) * 8)) & 0xFF)) >>> 24);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 按位或合并 Redis 位图（toBitmap 的逆过程），位图长度不足的部分视为0
+     */
+    public void mergeBitmap(byte[] bitmap) {
+        int length = (int) Math.min(bitmap.length, bitSize / 8);
+        for (int i = 0; i < length; i++) {
+            if (bitmap[i] == 0) {
+                continue;
+            }
+            long mask = ((long) (Integer.reverse(bitmap[i] & 0xFF) >>> 24)) << ((i & 7) * 8);
+            int word = i >>> 3;
+            while (true) {
+                long current = bits.get(word);
+                if ((current | mask) == current || bits.compareAndSet(word, current, current | mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.ecommerceredisdemo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的 Count-Min Sketch 频率估计
+ * depth 行、每行 width 个计数器，估计值为各行计数的最小值，只会高估不会低估
+ * 每行的列下标由 DoubleHashing 生成，与 BloomFilter 使用同一套哈希
+ */
+public class CountMinSketch {
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int depth;
+
+    /**
+     * @param width 每行计数器个数，误差约为 总次数 * e / width
+     * @param depth 行数，误差超出上界的概率约为 e^-depth
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Count-Min Sketch 参数错误");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * 记录一次出现
+     * @return 记录后的估计次数
+     */
+    public long add(String value) {
+        long estimate = Long.MAX_VALUE;
+        for (int index : indexes(value)) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index));
+        }
+        return estimate;
+    }
+
+    public long estimate(String value) {
+        long estimate = Long.MAX_VALUE;
+        for (int index : indexes(value)) {
+            estimate = Math.min(estimate, counters.get(index));
+        }
+        return estimate;
+    }
+
+    /**
+     * 所有计数减半（老化），使估计值偏向最近的访问
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            long current;
+            do {
+                current = counters.get(i);
+            } while (current != 0 && !counters.compareAndSet(i, current, current >>> 1));
+        }
+    }
+
+    private int[] indexes(String value) {
+        long[] columns = DoubleHashing.indexes(value, depth, width);
+        int[] indexes = new int[depth];
+        for (int row = 0; row < depth; row++) {
+            indexes[row] = row * width + (int) columns[row];
+        }
+        return indexes;
+    }
+}
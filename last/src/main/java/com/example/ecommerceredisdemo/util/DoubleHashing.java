@@ -0,0 +1,53 @@
+package com.example.ecommerceredisdemo.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BloomFilter 和 CountMinSketch 共用的哈希
+ * 两个不同种子的 FNV-1a 哈希经 murmur3 finalizer 混合，再用双重哈希 h1 + i * h2 生成任意个下标
+ */
+final class DoubleHashing {
+
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private DoubleHashing() {
+    }
+
+    /**
+     * @param value 要哈希的值
+     * @param count 下标个数
+     * @param bound 下标上界（不含）
+     * @return count 个 [0, bound) 范围内的下标
+     */
+    static long[] indexes(String value, int count, long bound) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long hash1 = mix(hash(bytes, SEED1));
+        long hash2 = mix(hash(bytes, SEED2));
+        long[] indexes = new long[count];
+        long combined = hash1;
+        for (int i = 0; i < count; i++) {
+            indexes[i] = (combined & Long.MAX_VALUE) % bound;
+            combined += hash2;
+        }
+        return indexes;
+    }
+
+    private static long hash(byte[] bytes, long seed) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
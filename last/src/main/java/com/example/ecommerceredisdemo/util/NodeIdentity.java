@@ -0,0 +1,20 @@
+package com.example.ecommerceredisdemo.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+/**
+ * 当前应用实例的节点标识（pid@hostname + 随机后缀），用于多节点场景下区分各实例
+ */
+public final class NodeIdentity {
+
+    private static final String NODE_ID = ManagementFactory.getRuntimeMXBean().getName()
+            + ":" + UUID.randomUUID().toString().substring(0, 8);
+
+    private NodeIdentity() {
+    }
+
+    public static String get() {
+        return NODE_ID;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.ecommerceredisdemo.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各节点共享的商品级整数配置（如分片数、副本数）
+ * 配置保存在 Redis Hash（商品ID -> 数值）中，各节点本地缓存，修改后通过发布订阅（消息体 商品ID:数值，0表示移除）同步；
+ * 使用方定时调用 refresh 全量刷新，兜底发布订阅消息丢失的情况
+ */
+@Slf4j
+public class SyncedProductConfig implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String configKey;
+    private final String channel;
+    private final String name;
+
+    // 商品ID -> 数值，未配置的商品不在表中
+    private final ConcurrentHashMap<String, Integer> values = new ConcurrentHashMap<>();
+
+    /**
+     * @param configKey 配置 Hash key
+     * @param channel 同步频道
+     * @param name 配置名称，用于日志
+     */
+    public SyncedProductConfig(StringRedisTemplate stringRedisTemplate, String configKey, String channel, String name) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.configKey = configKey;
+        this.channel = channel;
+        this.name = name;
+    }
+
+    /**
+     * 订阅同步频道并加载全量配置
+     */
+    public void start(RedisMessageListenerContainer container) {
+        container.addMessageListener(this, new ChannelTopic(channel));
+        refresh();
+    }
+
+    /**
+     * 获取商品的配置值（仅查本地缓存）
+     * @return 配置值，0表示未配置
+     */
+    public int get(String productId) {
+        return values.getOrDefault(productId, 0);
+    }
+
+    public boolean contains(String productId) {
+        return values.containsKey(productId);
+    }
+
+    /**
+     * 写入配置并广播
+     */
+    public void put(String productId, int value) {
+        stringRedisTemplate.opsForHash().put(configKey, productId, String.valueOf(value));
+        values.put(productId, value);
+        publish(productId, value);
+    }
+
+    /**
+     * 移除配置并广播
+     * @return 原配置值，0表示未配置
+     */
+    public int remove(String productId) {
+        Integer previous = values.remove(productId);
+        stringRedisTemplate.opsForHash().delete(configKey, productId);
+        publish(productId, 0);
+        return previous != null ? previous : 0;
+    }
+
+    /**
+     * 从 Redis 重新读取单个商品的配置并更新本地缓存
+     * @return 配置值，0表示未配置
+     */
+    public int reload(String productId) {
+        Object value = stringRedisTemplate.opsForHash().get(configKey, productId);
+        if (value == null) {
+            values.remove(productId);
+            return 0;
+        }
+        int parsed = Integer.parseInt(value.toString());
+        values.put(productId, parsed);
+        return parsed;
+    }
+
+    /**
+     * 从 Redis 全量刷新本地缓存
+     */
+    public void refresh() {
+        try {
+            Map<Object, Object> config = stringRedisTemplate.opsForHash().entries(configKey);
+            Map<String, Integer> latest = new HashMap<>();
+            config.forEach((k, v) -> latest.put(k.toString(), Integer.parseInt(v.toString())));
+            values.keySet().retainAll(latest.keySet());
+            values.putAll(latest);
+        } catch (Exception e) {
+            log.error("刷新{}失败: {}", name, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.lastIndexOf(':');
+        if (separator <= 0) {
+            log.warn("收到无法识别的{}消息: {}", name, body);
+            return;
+        }
+        String productId = body.substring(0, separator);
+        int value = Integer.parseInt(body.substring(separator + 1));
+        if (value > 0) {
+            values.put(productId, value);
+        } else {
+            values.remove(productId);
+        }
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * 当前所有配置
+     * @return 商品ID -> 配置值
+     */
+    public Map<String, Integer> getAll() {
+        return new HashMap<>(values);
+    }
+
+    private void publish(String productId, int value) {
+        try {
+            stringRedisTemplate.convertAndSend(channel, productId + ":" + value);
+        } catch (Exception e) {
+            log.error("广播{}失败: {}, {}", name, productId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+-- KEYS[1]: 排队队列 (ZSET, member=userId, score=排队时间)
+-- KEYS[2]: 已放行集合 (ZSET, member=userId, score=放行过期时间)
+-- KEYS[3]: 排队状态 (Hash: lastAdmitAt, admittedTotal)
+-- ARGV[1]: 每秒放行人数
+-- ARGV[2]: 当前时间（毫秒）
+-- ARGV[3]: 放行资格有效期（毫秒）
+-- 返回: 本次放行人数
+-- 放行数量按距上次放行的时间计算，多个节点同时调度时总放行速率不变
+
+local rate = tonumber(ARGV[1])
+local now = tonumber(ARGV[2])
+local ttl = tonumber(ARGV[3])
+
+-- 清理已过期未使用的放行资格
+redis.call("zremrangebyscore", KEYS[2], "-inf", now)
+
+local last = tonumber(redis.call("hget", KEYS[3], "lastAdmitAt"))
+-- 空闲期间最多积累1秒的放行额度
+if last == nil or last < now - 1000 then
+    last = now - 1000
+end
+
+local count = math.floor((now - last) * rate / 1000)
+if count <= 0 then
+    return 0
+end
+
+local popped = redis.call("zpopmin", KEYS[1], count)
+local admitted = 0
+for i = 1, #popped, 2 do
+    redis.call("zadd", KEYS[2], now + ttl, popped[i])
+    admitted = admitted + 1
+end
+
+if admitted < count then
+    -- 队列已放空，不累积额度
+    last = now
+else
+    last = last + admitted * 1000 / rate
+end
+redis.call("hset", KEYS[3], "lastAdmitAt", tostring(last))
+if admitted > 0 then
+    redis.call("hincrby", KEYS[3], "admittedTotal", admitted)
+end
+return admitted
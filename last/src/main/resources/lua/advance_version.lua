@@ -0,0 +1,11 @@
+-- KEYS[1]: 商品版本key
+-- ARGV[1]: 商品数据的版本（updated_at，毫秒）
+-- 回源读到的数据比当前版本新时才把版本推进到该值，数据未变化时 ETag 保持不变
+
+local current = tonumber(redis.call("get", KEYS[1]) or "0") or 0
+local version = tonumber(ARGV[1])
+if version > current then
+    redis.call("set", KEYS[1], version)
+    return version
+end
+return current
@@ -0,0 +1,46 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 库存变更日志流（可选，与库存key同槽），整个批次记录一条
+-- ARGV[1..n]: 同一批次中各请求的扣减数量（按到达顺序）
+-- 返回: 与ARGV一一对应的结果数组
+--       >=0 扣减成功后的剩余库存, -1 库存不足, -2 key不存在, -3 数据格式错误
+
+local results = {}
+local current_stock = redis.call("get", KEYS[1])
+
+if current_stock == false then
+    for i = 1, #ARGV do
+        results[i] = -2 -- key不存在
+    end
+    return results
+end
+
+current_stock = tonumber(current_stock)
+if current_stock == nil then
+    for i = 1, #ARGV do
+        results[i] = -3 -- 数据格式错误
+    end
+    return results
+end
+
+-- 按到达顺序分配库存，前面的大额请求不足时不影响后面的小额请求
+local remaining = current_stock
+for i = 1, #ARGV do
+    local quantity = tonumber(ARGV[i])
+    if remaining >= quantity then
+        remaining = remaining - quantity
+        results[i] = remaining
+    else
+        results[i] = -1 -- 库存不足
+    end
+end
+
+if remaining ~= current_stock then
+    redis.call("decrby", KEYS[1], current_stock - remaining)
+    if KEYS[2] then
+        redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", remaining - current_stock, "old", current_stock, "new", remaining, "reason", "batch_decr")
+    end
+    -- 设置过期时间，防止key永久存在
+    redis.call("expire", KEYS[1], 86400) -- 24小时过期
+end
+
+return results
@@ -0,0 +1,8 @@
+-- KEYS[1]: 商品版本key
+-- ARGV[1]: 当前时间（毫秒）
+-- 版本key不存在时从当前时间开始计数，避免key丢失后从1重新计数，与客户端持有的旧ETag重复
+
+if redis.call("exists", KEYS[1]) == 0 then
+    redis.call("set", KEYS[1], ARGV[1])
+end
+return redis.call("incr", KEYS[1])
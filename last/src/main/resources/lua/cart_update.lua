@@ -0,0 +1,84 @@
+-- KEYS[1]: 购物车key（user:<userId>:cart）
+-- ARGV[1]: 操作 incr（增加数量）| set（设置数量）| del（移除商品）
+-- incr/set: ARGV[2..]: skuId1, 数量1, skuId2, 数量2, ...
+-- del:      ARGV[2..]: skuId1, skuId2, ...
+-- 返回: {商品种类数, 商品总数量, 结果1, 结果2, ...}
+--       incr/set 的结果为该商品变更后的数量（<=0 表示已移除），del 的结果为 1 已移除 / 0 不存在
+-- 购物车 Hash 中的 __lines（数量大于0的商品种类数）和 __total（数量之和）随每次变更维护，
+-- 读取统计时不需要 HGETALL；没有汇总字段的旧购物车在第一次变更时补算一次。
+-- 商品全部移除后删除整个key
+
+local key = KEYS[1]
+local op = ARGV[1]
+
+local lines = tonumber(redis.call("hget", key, "__lines"))
+local total = tonumber(redis.call("hget", key, "__total"))
+if lines == nil or total == nil then
+    lines, total = 0, 0
+    local all = redis.call("hgetall", key)
+    for i = 1, #all, 2 do
+        if string.sub(all[i], 1, 2) ~= "__" then
+            local q = tonumber(all[i + 1]) or 0
+            if q > 0 then
+                lines = lines + 1
+                total = total + q
+            end
+        end
+    end
+end
+
+-- 按变更前后的数量调整汇总，数量<=0的商品不计入
+local function apply(old_q, new_q)
+    if old_q > 0 then
+        lines = lines - 1
+        total = total - old_q
+    end
+    if new_q > 0 then
+        lines = lines + 1
+        total = total + new_q
+    end
+end
+
+local results = {}
+if op == "del" then
+    for i = 2, #ARGV do
+        local old_q = redis.call("hget", key, ARGV[i])
+        if old_q then
+            redis.call("hdel", key, ARGV[i])
+            apply(tonumber(old_q) or 0, 0)
+            results[#results + 1] = 1
+        else
+            results[#results + 1] = 0
+        end
+    end
+else
+    for i = 2, #ARGV, 2 do
+        local sku = ARGV[i]
+        local quantity = tonumber(ARGV[i + 1])
+        local old_q = tonumber(redis.call("hget", key, sku)) or 0
+        local new_q = quantity
+        if op == "incr" then
+            new_q = old_q + quantity
+        end
+        if new_q > 0 then
+            redis.call("hset", key, sku, new_q)
+        else
+            redis.call("hdel", key, sku)
+        end
+        apply(old_q, new_q)
+        results[#results + 1] = new_q
+    end
+end
+
+if lines <= 0 then
+    redis.call("del", key)
+    lines, total = 0, 0
+else
+    redis.call("hset", key, "__lines", lines, "__total", total)
+end
+
+local reply = {lines, total}
+for i = 1, #results do
+    reply[#reply + 1] = results[i]
+end
+return reply
@@ -1,4 +1,7 @@
 -- 优化版本：添加更多错误处理
+-- KEYS[1]: 商品库存key
+-- KEYS[2]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 扣减数量
 local current_stock = redis.call("get", KEYS[1])
 local quantity = tonumber(ARGV[1])
 
@@ -13,6 +16,9 @@ end
 
 if current_stock >= quantity then
     local new_stock = redis.call("decrby", KEYS[1], quantity)
+    if KEYS[2] then
+        redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", -quantity, "old", current_stock, "new", new_stock, "reason", "decr")
+    end
     -- 设置过期时间，防止key永久存在
     redis.call("expire", KEYS[1], 86400) -- 24小时过期
     return new_stock
@@ -1,4 +1,5 @@
 -- KEYS[1]: product_stock_key (e.g., product:stock:P001)
+-- KEYS[2]: 库存变更日志流（可选，与库存key同槽）
 -- ARGV[1]: quantity to add
 
 local current_stock = redis.call("get", KEYS[1])
@@ -7,10 +8,17 @@ local quantity = tonumber(ARGV[1])
 if current_stock == nil then
     -- 如果商品库存 key 不存在，创建并设置初始值
     redis.call("set", KEYS[1], quantity)
+    if KEYS[2] then
+        redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", quantity, "old", 0, "new", quantity, "reason", "incr")
+    end
     return quantity
 end
 
-current_stock = tonumber(current_stock)
+current_stock = tonumber(current_stock) or 0 -- GET 不存在时返回 false，INCRBY 会从0开始
 
 -- 执行原子增加
-return redis.call("incrby", KEYS[1], quantity) 
\ No newline at end of file
+local new_stock = redis.call("incrby", KEYS[1], quantity)
+if KEYS[2] then
+    redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", quantity, "old", current_stock, "new", new_stock, "reason", "incr")
+end
+return new_stock 
\ No newline at end of file
@@ -0,0 +1,11 @@
+-- KEYS[1]: 已放行集合 (ZSET, member=userId, score=放行过期时间)
+-- ARGV[1]: 用户ID
+-- ARGV[2]: 当前时间（毫秒）
+-- 返回: 1 放行资格有效并已使用, 0 无放行资格或已过期
+
+local admittedUntil = tonumber(redis.call("zscore", KEYS[1], ARGV[1]))
+if admittedUntil == nil or admittedUntil <= tonumber(ARGV[2]) then
+    return 0
+end
+redis.call("zrem", KEYS[1], ARGV[1])
+return 1
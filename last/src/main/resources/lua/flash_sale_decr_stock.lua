@@ -0,0 +1,39 @@
+-- KEYS[1]: product_stock_key (e.g., product:stock:P001)
+-- KEYS[2]: buyers_key (e.g., flash_sale:buyers:{product:stock:P001})，hash tag 保证与库存key同槽
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: userId
+-- ARGV[2]: quantity
+-- ARGV[3]: 默认每人限购数量（buyers_key 中的 __limit 字段可按商品覆盖）
+-- 返回: {结果, 该用户已购数量, 限购数量}
+--       结果 >=0 扣减成功后的剩余库存, -1 库存不足, -2 key不存在, -3 数据格式错误, -4 超出限购
+
+local quantity = tonumber(ARGV[2])
+local limit = tonumber(redis.call("hget", KEYS[2], "__limit") or ARGV[3])
+local bought = tonumber(redis.call("hget", KEYS[2], ARGV[1]) or "0")
+
+if bought + quantity > limit then
+    return {-4, bought, limit} -- 超出限购
+end
+
+local current_stock = redis.call("get", KEYS[1])
+if current_stock == false then
+    return {-2, bought, limit} -- key不存在
+end
+
+current_stock = tonumber(current_stock)
+if current_stock == nil then
+    return {-3, bought, limit} -- 数据格式错误
+end
+
+if current_stock < quantity then
+    return {-1, bought, limit} -- 库存不足
+end
+
+local new_stock = redis.call("decrby", KEYS[1], quantity)
+if KEYS[3] then
+    redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", -quantity, "old", current_stock, "new", new_stock, "reason", "flash_sale")
+end
+redis.call("expire", KEYS[1], 86400) -- 24小时过期
+bought = redis.call("hincrby", KEYS[2], ARGV[1], quantity)
+redis.call("expire", KEYS[2], 86400)
+return {new_stock, bought, limit}
@@ -0,0 +1,19 @@
+-- KEYS[1]: 日志流key
+-- ARGV[1]: 消费组
+-- 日志流为空且没有未确认记录时删除（连同消费组），下次写入时由 XADD 重建
+-- 返回: 1 已删除或不存在, 0 仍有记录
+
+if redis.call("exists", KEYS[1]) == 0 then
+    return 1
+end
+if redis.call("xlen", KEYS[1]) > 0 then
+    return 0
+end
+
+local pending = redis.pcall("xpending", KEYS[1], ARGV[1])
+if type(pending) == "table" and not pending.err and tonumber(pending[1]) > 0 then
+    return 0
+end
+
+redis.call("del", KEYS[1])
+return 1
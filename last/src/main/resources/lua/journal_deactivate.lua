@@ -0,0 +1,12 @@
+-- KEYS[1]: 活跃日志流集合（ZSET，分数为最近写入时间）
+-- ARGV[1]: 日志流key
+-- ARGV[2]: 读取时的分数
+-- 分数未变（期间没有新的写入登记）时移出活跃集合
+-- 返回: 1 已移出, 0 期间有新写入
+
+local score = redis.call("zscore", KEYS[1], ARGV[1])
+if score and tonumber(score) == tonumber(ARGV[2]) then
+    redis.call("zrem", KEYS[1], ARGV[1])
+    return 1
+end
+return 0
@@ -0,0 +1,28 @@
+-- KEYS[1]: 日志流key
+-- ARGV[1]: 消费组
+-- ARGV[2]: 消费者
+-- ARGV[3]: 最多读取条数
+-- 读取本消费者的新记录；消费组不存在（新建的流或清理后重建的流）时从头创建
+-- 返回: {记录ID1, {字段1, 值1, ...}, 记录ID2, {...}, ...}
+
+if redis.call("exists", KEYS[1]) == 0 then
+    return {}
+end
+
+local reply = redis.pcall("xreadgroup", "GROUP", ARGV[1], ARGV[2], "COUNT", ARGV[3], "STREAMS", KEYS[1], ">")
+if type(reply) == "table" and reply.err then
+    if not string.find(reply.err, "NOGROUP") then
+        return redis.error_reply(reply.err)
+    end
+    redis.call("xgroup", "create", KEYS[1], ARGV[1], "0")
+    reply = redis.call("xreadgroup", "GROUP", ARGV[1], ARGV[2], "COUNT", ARGV[3], "STREAMS", KEYS[1], ">")
+end
+
+local result = {}
+if reply then
+    for _, entry in ipairs(reply[1][2]) do
+        result[#result + 1] = entry[1]
+        result[#result + 1] = entry[2]
+    end
+end
+return result
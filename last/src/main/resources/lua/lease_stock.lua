@@ -0,0 +1,48 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 租约Hash（stock:lease:{库存key}，与库存key同槽）：__epoch 纪元，<节点> 保留数量，<节点>:exp 到期时间
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 保留不足时从全局库存租借的块大小
+-- ARGV[2]: 本次转为节点本地可售的数量
+-- ARGV[3]: 节点ID
+-- ARGV[4]: 租约到期时间（毫秒）
+-- 节点租借的库存先记入租约Hash（节点宕机时由过期清理归还），本地只持有已转为可售的部分；
+-- 保留数量不足时从全局库存原子租借一块，库存不足一块时租借剩余全部
+-- 返回: {租借结果, 转为可售数量, 剩余保留数量, 纪元}，租借结果 >=0 实际租借数量, -2 key不存在, -3 数据格式错误
+
+local block = tonumber(ARGV[1])
+local want = tonumber(ARGV[2])
+local node = ARGV[3]
+local epoch = tonumber(redis.call("hget", KEYS[2], "__epoch") or "0")
+local reserved = tonumber(redis.call("hget", KEYS[2], node) or "0")
+
+local leased = 0
+if reserved < want then
+    local current_stock = redis.call("get", KEYS[1])
+    if current_stock == false then
+        if reserved == 0 then
+            return {-2, 0, 0, epoch} -- key不存在
+        end
+    else
+        current_stock = tonumber(current_stock)
+        if current_stock == nil then
+            return {-3, 0, reserved, epoch} -- 数据格式错误
+        end
+        if current_stock > 0 then
+            leased = math.min(math.max(block, want - reserved), current_stock)
+            redis.call("decrby", KEYS[1], leased)
+            if KEYS[3] then
+                redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", -leased, "old", current_stock, "new", current_stock - leased, "reason", "lease")
+            end
+            reserved = reserved + leased
+        end
+    end
+end
+
+local released = math.min(want, reserved)
+reserved = reserved - released
+if reserved > 0 then
+    redis.call("hset", KEYS[2], node, reserved, node .. ":exp", ARGV[4])
+else
+    redis.call("hdel", KEYS[2], node, node .. ":exp")
+end
+return {leased, released, reserved, epoch}
@@ -0,0 +1,33 @@
+-- KEYS[1..n]: 商品库存key（必须在同一槽位）
+-- KEYS[n+1..2n]: 对应的库存变更日志流（可选，与库存key同槽）
+-- ARGV[1..n]: 对应的扣减数量
+-- 返回: 全部扣减成功 {0, 剩余库存1, 剩余库存2, ...}
+--       任一商品不满足则不扣减任何商品 {错误码, 商品下标(从1开始)}
+--       错误码: -1 库存不足, -2 key不存在, -3 数据格式错误
+
+local n = #ARGV
+local journaled = #KEYS == 2 * n
+
+for i = 1, n do
+    local current_stock = redis.call("get", KEYS[i])
+    if current_stock == false then
+        return {-2, i}
+    end
+    current_stock = tonumber(current_stock)
+    if current_stock == nil then
+        return {-3, i}
+    end
+    if current_stock < tonumber(ARGV[i]) then
+        return {-1, i}
+    end
+end
+
+local result = {0}
+for i = 1, n do
+    result[i + 1] = redis.call("decrby", KEYS[i], ARGV[i])
+    if journaled then
+        redis.call("xadd", KEYS[n + i], "*", "key", KEYS[i], "delta", -tonumber(ARGV[i]), "old", result[i + 1] + tonumber(ARGV[i]), "new", result[i + 1], "reason", "checkout")
+    end
+    redis.call("expire", KEYS[i], 86400) -- 与单商品扣减脚本一致，24小时过期
+end
+return result
@@ -0,0 +1,18 @@
+-- KEYS[1]: 商品库存key
+-- KEYS[2]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 对账时读到的Redis库存（空字符串表示key不存在）
+-- ARGV[2]: 修复后的库存（数据库库存）
+-- 返回: 1 已修复, 0 对账后库存已被修改，放弃修复
+
+local current_stock = redis.call("get", KEYS[1])
+if (current_stock or "") ~= ARGV[1] then
+    return 0
+end
+
+redis.call("set", KEYS[1], ARGV[2])
+if KEYS[2] then
+    local old_stock = tonumber(current_stock) or 0
+    local new_stock = tonumber(ARGV[2])
+    redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", new_stock - old_stock, "old", old_stock, "new", new_stock, "reason", "reconcile")
+end
+return 1
@@ -0,0 +1,11 @@
+-- KEYS[1]: buyers_key
+-- ARGV[1]: userId
+-- ARGV[2]: quantity
+-- 归还限购额度（扣减失败或订单回滚时调用），返回归还后的已购数量
+
+local bought = redis.call("hincrby", KEYS[1], ARGV[1], -tonumber(ARGV[2]))
+if bought <= 0 then
+    redis.call("hdel", KEYS[1], ARGV[1])
+    return 0
+end
+return bought
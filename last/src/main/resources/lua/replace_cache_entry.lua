@@ -0,0 +1,17 @@
+-- KEYS[1]: 商品详情缓存key（主key或副本）
+-- ARGV[1]: 读取时的条目内容
+-- ARGV[2]: 新的条目内容
+-- 条目在读取后未被其他写入修改时替换内容，保留剩余过期时间
+-- 返回: 1 已替换, 0 条目已变化或已过期
+
+local ttl = redis.call("pttl", KEYS[1])
+if ttl == -2 or redis.call("get", KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+if ttl > 0 then
+    redis.call("set", KEYS[1], ARGV[2], "px", ttl)
+else
+    redis.call("set", KEYS[1], ARGV[2])
+end
+return 1
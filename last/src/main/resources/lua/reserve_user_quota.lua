@@ -0,0 +1,18 @@
+-- KEYS[1]: buyers_key
+-- ARGV[1]: userId
+-- ARGV[2]: quantity
+-- ARGV[3]: 默认每人限购数量
+-- 仅占用限购额度（用于分片/租借等不走单key扣减脚本的商品）
+-- 返回: {结果, 该用户已购数量, 限购数量}，结果 0 占用成功, -4 超出限购
+
+local quantity = tonumber(ARGV[2])
+local limit = tonumber(redis.call("hget", KEYS[1], "__limit") or ARGV[3])
+local bought = tonumber(redis.call("hget", KEYS[1], ARGV[1]) or "0")
+
+if bought + quantity > limit then
+    return {-4, bought, limit} -- 超出限购
+end
+
+bought = redis.call("hincrby", KEYS[1], ARGV[1], quantity)
+redis.call("expire", KEYS[1], 86400)
+return {0, bought, limit}
@@ -0,0 +1,26 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 租约Hash
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 节点ID
+-- ARGV[2]: 节点本地未售出的可售数量
+-- ARGV[3]: 节点租借时的纪元
+-- 归还节点在租约Hash中的保留数量和本地未售出的部分；纪元已变化（管理员设置过库存）时本地部分作废
+-- 返回: 归还的数量
+
+local node = ARGV[1]
+local epoch = tonumber(redis.call("hget", KEYS[2], "__epoch") or "0")
+local returned = tonumber(redis.call("hget", KEYS[2], node) or "0")
+redis.call("hdel", KEYS[2], node, node .. ":exp")
+if tonumber(ARGV[3]) == epoch then
+    returned = returned + tonumber(ARGV[2])
+end
+if returned <= 0 then
+    return 0
+end
+
+local current_stock = tonumber(redis.call("get", KEYS[1]) or "0") or 0
+redis.call("incrby", KEYS[1], returned)
+if KEYS[3] then
+    redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", returned, "old", current_stock, "new", current_stock + returned, "reason", "lease_return")
+end
+return returned
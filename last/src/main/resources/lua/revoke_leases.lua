@@ -0,0 +1,21 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 租约Hash
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 新库存
+-- 管理员设置库存：写入新库存，纪元加一并清除所有节点的保留数量，
+-- 节点之后用旧纪元归还的本地部分作废，不会使库存超过设置值
+-- 返回: 设置前的库存
+
+local old_stock = tonumber(redis.call("get", KEYS[1]) or "0") or 0
+redis.call("set", KEYS[1], ARGV[1])
+redis.call("hincrby", KEYS[2], "__epoch", 1)
+local fields = redis.call("hkeys", KEYS[2])
+for _, field in ipairs(fields) do
+    if field ~= "__epoch" then
+        redis.call("hdel", KEYS[2], field)
+    end
+end
+if KEYS[3] and old_stock ~= tonumber(ARGV[1]) then
+    redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", tonumber(ARGV[1]) - old_stock, "old", old_stock, "new", ARGV[1], "reason", "set")
+end
+return old_stock
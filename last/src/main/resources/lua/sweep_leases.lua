@@ -0,0 +1,28 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 租约Hash
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 到期时间早于该值（毫秒）的节点租约视为节点已失效
+-- 归还失效节点（宕机未归还）在租约Hash中的保留数量
+-- 返回: 归还的数量
+
+local cutoff = tonumber(ARGV[1])
+local fields = redis.call("hgetall", KEYS[2])
+local returned = 0
+for i = 1, #fields, 2 do
+    local field = fields[i]
+    if string.sub(field, -4) == ":exp" and tonumber(fields[i + 1]) < cutoff then
+        local node = string.sub(field, 1, -5)
+        returned = returned + (tonumber(redis.call("hget", KEYS[2], node) or "0") or 0)
+        redis.call("hdel", KEYS[2], node, field)
+    end
+end
+if returned <= 0 then
+    return 0
+end
+
+local current_stock = tonumber(redis.call("get", KEYS[1]) or "0") or 0
+redis.call("incrby", KEYS[1], returned)
+if KEYS[3] then
+    redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", returned, "old", current_stock, "new", current_stock + returned, "reason", "lease_expired")
+end
+return returned
@@ -0,0 +1,21 @@
+-- KEYS[1]: product_stock_key
+-- KEYS[2]: 库存变更日志流（可选，与库存key同槽）
+-- 原子取出全部库存并将key清零，返回取出的数量
+-- 返回: >=0 取出的数量, -2 key不存在, -3 数据格式错误
+
+local current_stock = redis.call("get", KEYS[1])
+
+if current_stock == false then
+    return -2 -- key不存在
+end
+
+current_stock = tonumber(current_stock)
+if current_stock == nil then
+    return -3 -- 数据格式错误
+end
+
+redis.call("set", KEYS[1], 0)
+if KEYS[2] and current_stock ~= 0 then
+    redis.call("xadd", KEYS[2], "*", "key", KEYS[1], "delta", -current_stock, "old", current_stock, "new", 0, "reason", "shard_take")
+end
+return current_stock
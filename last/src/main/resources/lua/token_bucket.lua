@@ -0,0 +1,39 @@
+-- KEYS[1]: 令牌桶key (Hash: tokens, ts)
+-- ARGV[1]: 每秒补充令牌数
+-- ARGV[2]: 桶容量
+-- ARGV[3]: 本次需要的令牌数
+-- 当前时间取 Redis 服务器的 TIME，各应用节点的时钟偏差不会影响补充的令牌数
+-- 返回: 1 获取成功, 0 令牌不足
+
+-- Redis 5 之前读取 TIME 后写入需要按命令复制
+redis.replicate_commands()
+
+local rate = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local requested = tonumber(ARGV[3])
+local time = redis.call("time")
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local bucket = redis.call("hmget", KEYS[1], "tokens", "ts")
+local tokens = tonumber(bucket[1])
+local last_ts = tonumber(bucket[2])
+
+if tokens == nil then
+    tokens = capacity
+    last_ts = now
+end
+
+-- 按流逝时间补充令牌
+local elapsed = math.max(0, now - last_ts)
+tokens = math.min(capacity, tokens + elapsed * rate / 1000)
+
+local allowed = 0
+if tokens >= requested then
+    tokens = tokens - requested
+    allowed = 1
+end
+
+redis.call("hset", KEYS[1], "tokens", tokens, "ts", now)
+-- 桶补满所需时间的两倍后过期，空闲的桶自动清理
+redis.call("pexpire", KEYS[1], math.ceil(capacity / rate * 2000) + 1000)
+return allowed
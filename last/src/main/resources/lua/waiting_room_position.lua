@@ -0,0 +1,21 @@
+-- KEYS[1]: 排队队列 (ZSET, member=userId, score=排队时间)
+-- KEYS[2]: 已放行集合 (ZSET, member=userId, score=放行过期时间)
+-- ARGV[1]: 用户ID
+-- ARGV[2]: 当前时间（毫秒）
+-- ARGV[3]: 1 不在队列中时加入队尾, 0 只查询
+-- 返回: {1, 0} 已放行; {0, 排队位置} 排队中; {-1, 0} 不在队列中
+
+local admittedUntil = tonumber(redis.call("zscore", KEYS[2], ARGV[1]))
+if admittedUntil ~= nil and admittedUntil > tonumber(ARGV[2]) then
+    return {1, 0}
+end
+
+if ARGV[3] == "1" then
+    redis.call("zadd", KEYS[1], "NX", ARGV[2], ARGV[1])
+end
+
+local rank = redis.call("zrank", KEYS[1], ARGV[1])
+if not rank then
+    return {-1, 0}
+end
+return {0, rank + 1}
@@ -0,0 +1,33 @@
+-- KEYS[1]: 商品库存key
+-- KEYS[2]: 库存版本key（与库存key同槽）
+-- KEYS[3]: 库存变更日志流（可选，与库存key同槽）
+-- ARGV[1]: 数据库库存
+-- ARGV[2]: 数据库版本（updated_at，秒）
+-- 返回: 1 key不存在已写入, 2 数据库版本更新已覆盖, 0 保留Redis中的库存
+
+local dbVersion = tonumber(ARGV[2])
+
+if redis.call("exists", KEYS[1]) == 0 then
+    redis.call("set", KEYS[1], ARGV[1])
+    redis.call("set", KEYS[2], ARGV[2])
+    return 1
+end
+
+local redisVersion = tonumber(redis.call("get", KEYS[2]))
+if redisVersion == nil then
+    -- 旧版本写入的库存没有版本号，以Redis为准，记录当前数据库版本
+    redis.call("set", KEYS[2], ARGV[2])
+    return 0
+end
+
+if dbVersion > redisVersion then
+    local old_stock = tonumber(redis.call("get", KEYS[1])) or 0
+    redis.call("set", KEYS[1], ARGV[1])
+    if KEYS[3] then
+        redis.call("xadd", KEYS[3], "*", "key", KEYS[1], "delta", tonumber(ARGV[1]) - old_stock, "old", old_stock, "new", ARGV[1], "reason", "warmup")
+    end
+    redis.call("set", KEYS[2], ARGV[2])
+    return 2
+end
+
+return 0
@@ -0,0 +1,79 @@
+package com.example.ecommerceredisdemo;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Lua 脚本集成测试基类
+ * 连接单机 Redis（-Dredis.test.host / -Dredis.test.port，默认 localhost:6379），连接不上时跳过测试；
+ * 各测试使用随机商品ID，互不影响，也不会覆盖已有数据
+ */
+public abstract class RedisScriptTestSupport {
+
+    protected static final String PRODUCT_STOCK_PREFIX = "product:stock:";
+
+    private static LettuceConnectionFactory connectionFactory;
+    protected static StringRedisTemplate redis;
+
+    @BeforeAll
+    public static void connect() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.test.host", "localhost"),
+                Integer.getInteger("redis.test.port", 6379));
+        connectionFactory = new LettuceConnectionFactory(configuration,
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(2)).build());
+        connectionFactory.afterPropertiesSet();
+
+        boolean reachable;
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            reachable = "PONG".equals(connection.ping());
+        } catch (Exception e) {
+            reachable = false;
+        }
+        if (!reachable) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        Assumptions.assumeTrue(reachable, "本地 Redis 不可用，跳过 Lua 脚本集成测试");
+
+        redis = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    public static void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+    }
+
+    /**
+     * 与服务中相同的方式加载 resources/lua 下的脚本
+     */
+    protected static <T> DefaultRedisScript<T> script(String name, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/" + name));
+        script.setResultType(resultType);
+        return script;
+    }
+
+    protected static String randomProductId() {
+        return "IT" + UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+    }
+
+    protected static long stock(String key) {
+        String value = redis.opsForValue().get(key);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+}
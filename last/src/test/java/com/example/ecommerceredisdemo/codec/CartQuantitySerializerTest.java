@@ -0,0 +1,47 @@
+package com.example.ecommerceredisdemo.codec;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartQuantitySerializerTest {
+
+    private final CartQuantitySerializer serializer = new CartQuantitySerializer();
+
+    @Test
+    public void testQuantityWrittenAsDecimal() {
+        // 与 HINCRBY 的存储格式一致
+        assertArrayEquals("3".getBytes(StandardCharsets.US_ASCII), serializer.serialize(3));
+        assertArrayEquals("-2".getBytes(StandardCharsets.US_ASCII), serializer.serialize(-2L));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertEquals(3, serializer.deserialize(serializer.serialize(3)));
+        assertEquals(-2, serializer.deserialize(serializer.serialize(-2)));
+        assertEquals(5_000_000_000L, serializer.deserialize(serializer.serialize(5_000_000_000L)));
+    }
+
+    @Test
+    public void testHincrbyValueReadAsInteger() {
+        assertEquals(12, serializer.deserialize("12".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testLegacyJsonValuesRead() {
+        GenericJackson2JsonRedisSerializer legacy = new GenericJackson2JsonRedisSerializer();
+        assertEquals("旧值", serializer.deserialize(legacy.serialize("旧值")));
+        // 非数量值仍按旧的 JSON 格式写入
+        assertEquals("旧值", legacy.deserialize(serializer.serialize("旧值")));
+    }
+
+    @Test
+    public void testEmptyAndNull() {
+        assertNull(serializer.serialize(null));
+        assertNull(serializer.deserialize(null));
+        assertNull(serializer.deserialize(new byte[0]));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.example.ecommerceredisdemo.entity.Product;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressingCodecTest {
+
+    private static Product productWithName(String name) {
+        Product product = new Product();
+        product.setProductId("P001");
+        product.setName(name);
+        product.setStock(10);
+        return product;
+    }
+
+    @Test
+    public void testSmallValueStoredRaw() {
+        CompressingCodec<Product> codec = new CompressingCodec<>(new ProductBinaryCodec(), 512);
+        Product product = productWithName("小商品");
+
+        byte[] encoded = codec.encode(product);
+        assertEquals(0, encoded[0]);
+        assertEquals(product, codec.decode(encoded));
+    }
+
+    @Test
+    public void testLargeValueCompressed() {
+        CompressingCodec<Product> codec = new CompressingCodec<>(new ProductBinaryCodec(), 512);
+        Product product = productWithName("商品描述".repeat(500));
+
+        byte[] encoded = codec.encode(product);
+        assertEquals(1, encoded[0]);
+        assertTrue(encoded.length < new ProductBinaryCodec().encode(product).length);
+        assertEquals(product, codec.decode(encoded));
+    }
+
+    @Test
+    public void testIncompressibleValueKeptRaw() {
+        CompressingCodec<Product> codec = new CompressingCodec<>(new ProductBinaryCodec(), 0);
+        Product product = productWithName("x");
+
+        // 压缩后没有变小，保留原始内容
+        byte[] encoded = codec.encode(product);
+        assertEquals(0, encoded[0]);
+        assertEquals(product, codec.decode(encoded));
+    }
+
+    @Test
+    public void testUnknownFlagRejected() {
+        CompressingCodec<Product> codec = new CompressingCodec<>(new ProductBinaryCodec(), 512);
+        byte[] encoded = codec.encode(productWithName("a"));
+        encoded[0] = 7;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded));
+    }
+
+    @Test
+    public void testName() {
+        assertEquals("binary+deflate", new CompressingCodec<>(new ProductBinaryCodec(), 512).name());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.example.ecommerceredisdemo.entity.Product;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductBinaryCodecTest {
+
+    private final ProductBinaryCodec codec = new ProductBinaryCodec();
+
+    @Test
+    public void testRoundTrip() {
+        Product product = new Product();
+        product.setProductId("P001");
+        product.setName("秒杀商品 iPhone");
+        product.setStock(1000);
+        product.setCreatedAt(LocalDateTime.of(2024, 6, 1, 10, 0, 0));
+        product.setUpdatedAt(LocalDateTime.of(2024, 6, 18, 20, 30, 15));
+
+        assertEquals(product, codec.decode(codec.encode(product)));
+    }
+
+    @Test
+    public void testNullFieldsOmitted() {
+        Product product = new Product();
+        product.setProductId("P002");
+
+        byte[] encoded = codec.encode(product);
+        Product decoded = codec.decode(encoded);
+        assertEquals(product, decoded);
+        assertNull(decoded.getName());
+        assertNull(decoded.getStock());
+        assertNull(decoded.getUpdatedAt());
+        // 格式版本 + 空值位图 + productId(2字节长度 + 4字节)
+        assertEquals(8, encoded.length);
+    }
+
+    @Test
+    public void testUnknownFormatRejected() {
+        byte[] encoded = codec.encode(new Product());
+        encoded[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.ecommerceredisdemo.codec;
+
+import com.example.ecommerceredisdemo.codec.ProductCacheEntryCodec.CacheEntry;
+import com.example.ecommerceredisdemo.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductCacheEntryCodecTest {
+
+    private static final long VERSION = 1718713815L;
+    private static final long SOFT_EXPIRE_AT = 1718714415000L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private static Product product() {
+        Product product = new Product();
+        product.setProductId("P001");
+        product.setName("测试商品");
+        product.setStock(100);
+        product.setUpdatedAt(LocalDateTime.of(2024, 6, 18, 20, 30, 15));
+        return product;
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        ProductCacheEntryCodec codec = new ProductCacheEntryCodec(objectMapper, true, 512);
+        byte[] raw = codec.encode(VERSION, SOFT_EXPIRE_AT, product());
+
+        assertEquals(0x01, raw[0]);
+        assertEquals(new CacheEntry(VERSION, SOFT_EXPIRE_AT, product()), codec.decode(raw));
+        assertEquals("binary+deflate", codec.name());
+    }
+
+    @Test
+    public void testTextRoundTrip() {
+        ProductCacheEntryCodec codec = new ProductCacheEntryCodec(objectMapper, false, 512);
+        byte[] raw = codec.encode(VERSION, SOFT_EXPIRE_AT, product());
+
+        assertTrue(new String(raw, StandardCharsets.UTF_8).startsWith("~" + VERSION + ":" + SOFT_EXPIRE_AT + ":{"));
+        assertEquals(new CacheEntry(VERSION, SOFT_EXPIRE_AT, product()), codec.decode(raw));
+        assertEquals("json", codec.name());
+    }
+
+    @Test
+    public void testReadsEntriesWrittenInOtherFormat() {
+        ProductCacheEntryCodec binary = new ProductCacheEntryCodec(objectMapper, true, 512);
+        ProductCacheEntryCodec text = new ProductCacheEntryCodec(objectMapper, false, 512);
+
+        // 切换编码后旧条目仍可读取
+        assertEquals(product(), binary.decode(text.encode(VERSION, SOFT_EXPIRE_AT, product())).product());
+        assertEquals(product(), text.decode(binary.encode(VERSION, SOFT_EXPIRE_AT, product())).product());
+    }
+
+    @Test
+    public void testLegacyPlainJsonRead() throws Exception {
+        ProductCacheEntryCodec codec = new ProductCacheEntryCodec(objectMapper, true, 512);
+        byte[] legacy = objectMapper.writeValueAsBytes(product());
+
+        CacheEntry entry = codec.decode(legacy);
+        assertEquals(0, entry.version());
+        assertEquals(Long.MAX_VALUE, entry.softExpireAt());
+        assertEquals(product(), entry.product());
+    }
+
+    @Test
+    public void testSliceJsonFromTextEntry() throws Exception {
+        ProductCacheEntryCodec codec = new ProductCacheEntryCodec(objectMapper, false, 512);
+        byte[] raw = codec.encode(VERSION, SOFT_EXPIRE_AT, product());
+
+        byte[] json = ProductCacheEntryCodec.sliceJson(raw, SOFT_EXPIRE_AT - 1);
+        assertNotNull(json);
+        assertEquals(product(), objectMapper.readValue(json, Product.class));
+        // 已逻辑过期的条目不截取，走刷新流程
+        assertNull(ProductCacheEntryCodec.sliceJson(raw, SOFT_EXPIRE_AT));
+    }
+
+    @Test
+    public void testSliceJsonLegacyAndBinary() throws Exception {
+        byte[] legacy = objectMapper.writeValueAsBytes(product());
+        assertSame(legacy, ProductCacheEntryCodec.sliceJson(legacy, SOFT_EXPIRE_AT));
+
+        byte[] binary = new ProductCacheEntryCodec(objectMapper, true, 512).encode(VERSION, SOFT_EXPIRE_AT, product());
+        assertNull(ProductCacheEntryCodec.sliceJson(binary, 0));
+        assertNull(ProductCacheEntryCodec.sliceJson(new byte[0], 0));
+    }
+}
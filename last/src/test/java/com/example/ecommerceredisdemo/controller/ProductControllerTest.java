@@ -0,0 +1,107 @@
+package com.example.ecommerceredisdemo.controller;
+
+import com.example.ecommerceredisdemo.service.ProductCacheService;
+import com.example.ecommerceredisdemo.service.ProductVersionService;
+import com.example.ecommerceredisdemo.service.StockManagementService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductControllerTest {
+
+    private static final String ETAG = "\"1718000000123\"";
+
+    @Mock
+    private ProductCacheService productCacheService;
+
+    @Mock
+    private StockManagementService stockManagementService;
+
+    @Mock
+    private ProductVersionService productVersionService;
+
+    @InjectMocks
+    private ProductController productController;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(productController).build();
+    }
+
+    @Test
+    public void testDetailReturnsNotModifiedWhenETagMatches() throws Exception {
+        when(productVersionService.getETag("P001")).thenReturn(ETAG);
+
+        mockMvc.perform(get("/product/detail/P001").header(HttpHeaders.IF_NONE_MATCH, ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(content().string(""));
+        // 304 不读取缓存内容
+        verify(productCacheService, never()).getProductDetailJson(anyString(), any());
+    }
+
+    @Test
+    public void testDetailReturnsBodyAndETagWhenChanged() throws Exception {
+        when(productVersionService.getETag("P001")).thenReturn(ETAG);
+        when(productCacheService.getProductDetailJson("P001", ETAG)).thenReturn(new ProductCacheService.DetailJson(
+                "{\"productId\":\"P001\"}".getBytes(StandardCharsets.UTF_8), ETAG));
+
+        mockMvc.perform(get("/product/detail/P001").header(HttpHeaders.IF_NONE_MATCH, "\"1718000000122\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(content().json("{\"productId\":\"P001\"}"));
+    }
+
+    @Test
+    public void testDetailOmitsETagWhenContentVersionUnknown() throws Exception {
+        when(productVersionService.getETag("P001")).thenReturn(ETAG);
+        when(productCacheService.getProductDetailJson("P001", ETAG)).thenReturn(new ProductCacheService.DetailJson(
+                "{\"productId\":\"P001\"}".getBytes(StandardCharsets.UTF_8), null));
+
+        mockMvc.perform(get("/product/detail/P001"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testStockReturnsNotModifiedWhenETagMatches() throws Exception {
+        when(productVersionService.getETag("P001")).thenReturn(ETAG);
+
+        mockMvc.perform(get("/product/stock/P001").header(HttpHeaders.IF_NONE_MATCH, "W/" + ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG));
+        verify(stockManagementService, never()).getCurrentStock(anyString());
+    }
+
+    @Test
+    public void testStockWithoutVersionIsNotConditional() throws Exception {
+        when(productVersionService.getETag("P001")).thenReturn(null);
+        when(stockManagementService.getCurrentStock("P001")).thenReturn(5L);
+
+        mockMvc.perform(get("/product/stock/P001").header(HttpHeaders.IF_NONE_MATCH, "*"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+                .andExpect(content().json("{\"productId\":\"P001\",\"stock\":5}"));
+    }
+}
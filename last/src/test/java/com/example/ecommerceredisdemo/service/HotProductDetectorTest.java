@@ -0,0 +1,127 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.util.NodeIdentity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class HotProductDetectorTest {
+
+    private static final String NODE_KEY = "product:hot:{nodes}:" + NodeIdentity.get();
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @InjectMocks
+    private HotProductDetector hotProductDetector;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(hotProductDetector, "enabled", true);
+        ReflectionTestUtils.setField(hotProductDetector, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(hotProductDetector, "sketchWidth", 1024);
+        ReflectionTestUtils.setField(hotProductDetector, "sketchDepth", 4);
+        ReflectionTestUtils.setField(hotProductDetector, "topK", 3);
+        ReflectionTestUtils.setField(hotProductDetector, "minCount", 7L);
+        ReflectionTestUtils.setField(hotProductDetector, "mergeIntervalMs", 5000L);
+        hotProductDetector.init();
+
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("product:hot:{nodes}")).thenReturn(Set.of(NodeIdentity.get()));
+        when(stringRedisTemplate.hasKey(NODE_KEY)).thenReturn(true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMergeTrimsCandidatesToTopK() {
+        recordTimes("P1", 10);
+        recordTimes("P2", 8);
+        recordTimes("P3", 6);
+        recordTimes("P4", 4);
+        recordTimes("P5", 2);
+        when(zSetOperations.unionWithScores(eq(NODE_KEY), anyList())).thenReturn(Set.of(
+                new DefaultTypedTuple<>("P1", 10.0),
+                new DefaultTypedTuple<>("P2", 8.0),
+                new DefaultTypedTuple<>("P3", 6.0)));
+
+        hotProductDetector.mergeTopK();
+
+        // 只发布估计次数最高的 topK 个商品
+        ArgumentCaptor<Set<TypedTuple<String>>> published = ArgumentCaptor.forClass(Set.class);
+        verify(zSetOperations).add(eq(NODE_KEY), published.capture());
+        Map<String, Double> scores = new HashMap<>();
+        published.getValue().forEach(tuple -> scores.put(tuple.getValue(), tuple.getScore()));
+        assertEquals(Map.of("P1", 10.0, "P2", 8.0, "P3", 6.0), scores);
+        assertEquals(3, hotProductDetector.getStats().get("localCandidates"));
+
+        // 合并结果按次数降序，低于 minCount 的不算热点
+        assertEquals(List.of("P1", "P2"), List.copyOf(hotProductDetector.getHotProducts().keySet()));
+        assertEquals(10L, hotProductDetector.getHotProducts().get("P1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTrimmedFloorRejectsColdProducts() {
+        recordTimes("P1", 12);
+        recordTimes("P2", 10);
+        recordTimes("P3", 8);
+        recordTimes("P4", 4);
+        when(zSetOperations.unionWithScores(anyString(), anyList())).thenReturn(Set.of());
+        hotProductDetector.mergeTopK();
+
+        // 裁剪后门槛为第 topK 名减半（4），访问次数不足的新商品不进入候选
+        recordTimes("P9", 3);
+        assertEquals(3, hotProductDetector.getStats().get("localCandidates"));
+
+        // 减半后 P4 估计为2，继续访问超过门槛后重新进入候选，并挤掉衰减后的 P3
+        recordTimes("P4", 4);
+        assertEquals(4, hotProductDetector.getStats().get("localCandidates"));
+        hotProductDetector.mergeTopK();
+
+        ArgumentCaptor<Set<TypedTuple<String>>> published = ArgumentCaptor.forClass(Set.class);
+        verify(zSetOperations, times(2)).add(eq(NODE_KEY), published.capture());
+        Set<String> secondRound = new HashSet<>();
+        published.getAllValues().get(1).forEach(tuple -> secondRound.add(tuple.getValue()));
+        assertEquals(Set.of("P1", "P2", "P4"), secondRound);
+        assertEquals(3, hotProductDetector.getStats().get("localCandidates"));
+        assertTrue(hotProductDetector.getHotProducts().isEmpty());
+    }
+
+    private void recordTimes(String productId, int times) {
+        for (int i = 0; i < times; i++) {
+            hotProductDetector.record(productId);
+        }
+    }
+}
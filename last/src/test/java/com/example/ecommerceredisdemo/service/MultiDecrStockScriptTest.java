@@ -0,0 +1,95 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.RedisScriptTestSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多商品扣减脚本集成测试：任一商品不满足时不扣减任何商品
+ * 库存key使用同一个 hash tag，与结算时按槽位分组后的调用一致
+ */
+public class MultiDecrStockScriptTest extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<List> MULTI_DECR_STOCK = script("multi_decr_stock.lua", List.class);
+
+    private String keyA;
+    private String keyB;
+    private String keyC;
+    private final List<String> createdKeys = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        String tag = "{" + randomProductId() + "}";
+        keyA = PRODUCT_STOCK_PREFIX + tag + "A";
+        keyB = PRODUCT_STOCK_PREFIX + tag + "B";
+        keyC = PRODUCT_STOCK_PREFIX + tag + "C";
+        createdKeys.addAll(List.of(keyA, keyB, keyC,
+                "stock:journal:" + tag + "A", "stock:journal:" + tag + "B", "stock:journal:" + tag + "C"));
+        redis.opsForValue().set(keyA, "10");
+        redis.opsForValue().set(keyB, "5");
+        redis.opsForValue().set(keyC, "1");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        redis.delete(createdKeys);
+    }
+
+    private List<Long> decr(List<String> keys, String... quantities) {
+        List<?> result = redis.execute(MULTI_DECR_STOCK, keys, (Object[]) quantities);
+        return result.stream().map(v -> ((Number) v).longValue()).toList();
+    }
+
+    @Test
+    public void testAllLinesReserved() {
+        // {0, 剩余库存1, 剩余库存2, ...}
+        assertEquals(List.of(0L, 7L, 0L, 0L), decr(List.of(keyA, keyB, keyC), "3", "5", "1"));
+        assertEquals(7, stock(keyA));
+        assertEquals(0, stock(keyB));
+        assertEquals(0, stock(keyC));
+        assertTrue(redis.getExpire(keyA) > 0);
+    }
+
+    @Test
+    public void testInsufficientLineReservesNothing() {
+        // 第3个商品库存不足，前两个商品也不扣减
+        assertEquals(List.of(-1L, 3L), decr(List.of(keyA, keyB, keyC), "3", "5", "2"));
+        assertEquals(10, stock(keyA));
+        assertEquals(5, stock(keyB));
+        assertEquals(1, stock(keyC));
+    }
+
+    @Test
+    public void testMissingOrMalformedLineReservesNothing() {
+        redis.delete(keyB);
+        assertEquals(List.of(-2L, 2L), decr(List.of(keyA, keyB), "1", "1"));
+
+        redis.opsForValue().set(keyB, "abc");
+        assertEquals(List.of(-3L, 2L), decr(List.of(keyA, keyB, keyC), "1", "1", "1"));
+
+        assertEquals(10, stock(keyA));
+        assertEquals(1, stock(keyC));
+    }
+
+    @Test
+    public void testJournalWrittenOnlyOnSuccess() {
+        String journalA = createdKeys.get(3);
+        String journalB = createdKeys.get(4);
+        List<String> keys = List.of(keyA, keyB, journalA, journalB);
+
+        assertEquals(-1L, decr(keys, "1", "6").get(0));
+        assertEquals(0L, redis.opsForStream().size(journalA));
+
+        assertEquals(List.of(0L, 8L, 1L), decr(keys, "2", "4"));
+        assertEquals("-2", redis.opsForStream().range(journalA, Range.unbounded()).get(0).getValue().get("delta"));
+        assertEquals("-4", redis.opsForStream().range(journalB, Range.unbounded()).get(0).getValue().get("delta"));
+    }
+}
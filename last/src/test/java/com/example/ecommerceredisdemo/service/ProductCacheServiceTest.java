@@ -0,0 +1,113 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.codec.ProductCacheEntryCodec;
+import com.example.ecommerceredisdemo.entity.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProductCacheServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final ProductCacheEntryCodec codec = new ProductCacheEntryCodec(objectMapper, false, 512);
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Mock
+    private ProductBloomFilterService productBloomFilterService;
+
+    @Mock
+    private HotProductDetector hotProductDetector;
+
+    @Mock
+    private ProductReplicaRegistry productReplicaRegistry;
+
+    @InjectMocks
+    private ProductCacheService productCacheService;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(productCacheService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(productCacheService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(productCacheService, "codecName", "json");
+        ReflectionTestUtils.setField(productCacheService, "compressionThreshold", 512);
+        ReflectionTestUtils.setField(productCacheService, "passThrough", true);
+        ReflectionTestUtils.setField(productCacheService, "l1Enabled", true);
+        ReflectionTestUtils.setField(productCacheService, "l1MaxSize", 100L);
+        ReflectionTestUtils.setField(productCacheService, "l1TtlSeconds", 10L);
+        ReflectionTestUtils.setField(productCacheService, "refreshThreads", 1);
+        ReflectionTestUtils.setField(productCacheService, "refreshQueueCapacity", 10);
+        productCacheService.init();
+
+        when(productBloomFilterService.mightExist("P001")).thenReturn(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        productCacheService.shutdown();
+    }
+
+    @Test
+    public void testCachedJsonServedWhileETagUnchanged() {
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn(entry(100));
+
+        ProductCacheService.DetailJson first = productCacheService.getProductDetailJson("P001", "\"1\"");
+        ProductCacheService.DetailJson second = productCacheService.getProductDetailJson("P001", "\"1\"");
+
+        assertEquals("\"1\"", second.etag());
+        assertArrayEquals(first.json(), second.json());
+        verify(stringRedisTemplate, times(1)).execute(any(RedisCallback.class));
+    }
+
+    @Test
+    public void testStaleCachedJsonRereadWhenETagAdvances() {
+        // 其他节点更新后失效广播丢失：本节点缓存的是旧内容，版本已推进
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn(entry(100), entry(99));
+
+        ProductCacheService.DetailJson old = productCacheService.getProductDetailJson("P001", "\"1\"");
+        ProductCacheService.DetailJson fresh = productCacheService.getProductDetailJson("P001", "\"2\"");
+
+        assertTrue(new String(old.json(), StandardCharsets.UTF_8).contains("\"stock\":100"));
+        assertTrue(new String(fresh.json(), StandardCharsets.UTF_8).contains("\"stock\":99"));
+        assertEquals("\"2\"", fresh.etag());
+        verify(stringRedisTemplate, times(2)).execute(any(RedisCallback.class));
+    }
+
+    private byte[] entry(int stock) {
+        Product product = new Product();
+        product.setProductId("P001");
+        product.setName("测试商品");
+        product.setStock(stock);
+        product.setUpdatedAt(LocalDateTime.of(2024, 6, 18, 20, 30, 15));
+        return codec.encode(1718713815L, System.currentTimeMillis() + 600000, product);
+    }
+}
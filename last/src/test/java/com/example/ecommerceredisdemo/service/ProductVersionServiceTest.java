@@ -0,0 +1,33 @@
+package com.example.ecommerceredisdemo.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductVersionServiceTest {
+
+    @Test
+    public void testMatchesExactTag() {
+        assertTrue(ProductVersionService.matches("\"1718000000123\"", "\"1718000000123\""));
+        assertFalse(ProductVersionService.matches("\"1718000000122\"", "\"1718000000123\""));
+    }
+
+    @Test
+    public void testMatchesWeakTagAndList() {
+        assertTrue(ProductVersionService.matches("W/\"1718000000123\"", "\"1718000000123\""));
+        assertTrue(ProductVersionService.matches("\"1\", W/\"2\" , \"1718000000123\"", "\"1718000000123\""));
+        assertFalse(ProductVersionService.matches("\"1\", \"2\"", "\"1718000000123\""));
+    }
+
+    @Test
+    public void testMatchesWildcard() {
+        assertTrue(ProductVersionService.matches("*", "\"1718000000123\""));
+    }
+
+    @Test
+    public void testNoMatchWithoutHeaderOrVersion() {
+        assertFalse(ProductVersionService.matches(null, "\"1718000000123\""));
+        // 版本key不存在时不做条件判断，即使客户端发送 *
+        assertFalse(ProductVersionService.matches("*", null));
+    }
+}
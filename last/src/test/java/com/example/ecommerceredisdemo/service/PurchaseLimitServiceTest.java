@@ -0,0 +1,72 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class PurchaseLimitServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @InjectMocks
+    private PurchaseLimitService purchaseLimitService;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(purchaseLimitService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(purchaseLimitService, "bloomExpectedInsertions", 1000L);
+        ReflectionTestUtils.setField(purchaseLimitService, "bloomFpp", 0.0001);
+        ReflectionTestUtils.setField(purchaseLimitService, "defaultLimit", 1);
+        purchaseLimitService.init();
+    }
+
+    @Test
+    public void testReleaseOnOtherNodeClearsLocalRejection() {
+        // 本节点受理抢购时记录用户已买满
+        purchaseLimitService.recordScriptResult("U1", "P001", 0, 1, 1);
+        assertTrue(purchaseLimitService.isKnownRepeatBuyer("U1", "P001"));
+
+        // 消费订单的节点归还额度后广播
+        purchaseLimitService.onMessage(message(PurchaseLimitService.QUOTA_RELEASED_CHANNEL, "[\"P001\",\"U1\"]"), null);
+
+        assertFalse(purchaseLimitService.isKnownRepeatBuyer("U1", "P001"));
+    }
+
+    @Test
+    public void testReleaseBroadcastsToOtherNodes() {
+        purchaseLimitService.releaseQuota("U1", "P001", 1);
+
+        verify(stringRedisTemplate).convertAndSend(PurchaseLimitService.QUOTA_RELEASED_CHANNEL, "[\"P001\",\"U1\"]");
+    }
+
+    @Test
+    public void testLimitChangeDropsFilter() {
+        purchaseLimitService.recordScriptResult("U1", "P001", PurchaseLimitService.LIMIT_EXCEEDED, 1, 1);
+
+        purchaseLimitService.onMessage(message(PurchaseLimitService.LIMIT_CHANGED_CHANNEL, "P001"), null);
+
+        assertFalse(purchaseLimitService.isKnownRepeatBuyer("U1", "P001"));
+    }
+
+    private static DefaultMessage message(String channel, String body) {
+        return new DefaultMessage(channel.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+}
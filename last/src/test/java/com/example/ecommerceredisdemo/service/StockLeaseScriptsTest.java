@@ -0,0 +1,159 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.RedisScriptTestSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 租借脚本集成测试：库存key + 租约Hash 中的保留数量 + 节点本地可售数量之和守恒，
+ * 管理员设置库存后旧纪元的本地部分作废
+ */
+public class StockLeaseScriptsTest extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<List> LEASE_STOCK = script("lease_stock.lua", List.class);
+    private static final DefaultRedisScript<Long> RETURN_LEASE = script("return_lease.lua", Long.class);
+    private static final DefaultRedisScript<Long> REVOKE_LEASES = script("revoke_leases.lua", Long.class);
+    private static final DefaultRedisScript<Long> SWEEP_LEASES = script("sweep_leases.lua", Long.class);
+
+    private String stockKey;
+    private String leaseKey;
+    private String journalKey;
+
+    @BeforeEach
+    public void setUp() {
+        String productId = randomProductId();
+        stockKey = PRODUCT_STOCK_PREFIX + productId;
+        leaseKey = "stock:lease:{" + stockKey + "}";
+        journalKey = "stock:journal:{" + stockKey + "}";
+        redis.opsForValue().set(stockKey, "100");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        redis.delete(List.of(stockKey, leaseKey, journalKey));
+    }
+
+    private List<Long> lease(String node, int block, int want, long expireAt) {
+        List<?> result = redis.execute(LEASE_STOCK, List.of(stockKey, leaseKey),
+                String.valueOf(block), String.valueOf(want), node, String.valueOf(expireAt));
+        return result.stream().map(v -> ((Number) v).longValue()).toList();
+    }
+
+    private long reserved(String node) {
+        Object value = redis.opsForHash().get(leaseKey, node);
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    @Test
+    public void testLeaseMovesStockIntoReservation() {
+        // {租借数量, 转为可售数量, 剩余保留数量, 纪元}
+        assertEquals(List.of(50L, 10L, 40L, 0L), lease("node-a", 50, 10, Long.MAX_VALUE));
+        assertEquals(50, stock(stockKey));
+        assertEquals(40, reserved("node-a"));
+
+        // 保留数量足够时不再访问全局库存
+        assertEquals(List.of(0L, 10L, 30L, 0L), lease("node-a", 50, 10, Long.MAX_VALUE));
+        assertEquals(50, stock(stockKey));
+
+        // 全局库存 + 保留 + 本地可售 = 初始库存
+        assertEquals(100, stock(stockKey) + reserved("node-a") + 20);
+    }
+
+    @Test
+    public void testLeaseTakesRemainderWhenBelowBlock() {
+        redis.opsForValue().set(stockKey, "7");
+
+        assertEquals(List.of(7L, 5L, 2L, 0L), lease("node-a", 50, 5, Long.MAX_VALUE));
+        assertEquals(0, stock(stockKey));
+        // 全局库存为0且保留已用完
+        assertEquals(List.of(0L, 2L, 0L, 0L), lease("node-a", 50, 5, Long.MAX_VALUE));
+        assertEquals(List.of(0L, 0L, 0L, 0L), lease("node-a", 50, 5, Long.MAX_VALUE));
+        assertFalse(redis.opsForHash().hasKey(leaseKey, "node-a"));
+    }
+
+    @Test
+    public void testLeaseMissingKey() {
+        redis.delete(stockKey);
+        assertEquals(-2L, lease("node-a", 50, 10, Long.MAX_VALUE).get(0));
+        assertFalse(redis.hasKey(leaseKey));
+    }
+
+    @Test
+    public void testReturnLeaseWithCurrentEpoch() {
+        lease("node-a", 50, 10, Long.MAX_VALUE);
+        // 本地卖出4件，剩6件连同40件保留一起归还
+        Long returned = redis.execute(RETURN_LEASE, List.of(stockKey, leaseKey), "node-a", "6", "0");
+
+        assertEquals(46L, returned);
+        assertEquals(96, stock(stockKey));
+        assertFalse(redis.opsForHash().hasKey(leaseKey, "node-a"));
+        assertFalse(redis.opsForHash().hasKey(leaseKey, "node-a:exp"));
+    }
+
+    @Test
+    public void testRevokeDiscardsStaleEpochReturns() {
+        List<Long> leased = lease("node-a", 50, 10, Long.MAX_VALUE);
+        lease("node-b", 20, 5, Long.MAX_VALUE);
+
+        Long previous = redis.execute(REVOKE_LEASES, List.of(stockKey, leaseKey), "30");
+        assertEquals(30L, previous);
+        assertEquals(30, stock(stockKey));
+        assertEquals("1", redis.opsForHash().get(leaseKey, "__epoch"));
+        assertEquals(0, reserved("node-a"));
+        assertEquals(0, reserved("node-b"));
+
+        // 用旧纪元归还的本地部分作废，库存不超过设置值
+        Long returned = redis.execute(RETURN_LEASE, List.of(stockKey, leaseKey),
+                "node-a", "10", String.valueOf(leased.get(3)));
+        assertEquals(0L, returned);
+        assertEquals(30, stock(stockKey));
+
+        // 新纪元的租约正常归还
+        List<Long> renewed = lease("node-a", 10, 4, Long.MAX_VALUE);
+        assertEquals(List.of(10L, 4L, 6L, 1L), renewed);
+        returned = redis.execute(RETURN_LEASE, List.of(stockKey, leaseKey), "node-a", "4", "1");
+        assertEquals(10L, returned);
+        assertEquals(30, stock(stockKey));
+    }
+
+    @Test
+    public void testSweepReturnsOnlyExpiredNodes() {
+        lease("node-a", 50, 10, 1000);
+        lease("node-b", 20, 5, Long.MAX_VALUE);
+        assertEquals(30, stock(stockKey));
+
+        Long swept = redis.execute(SWEEP_LEASES, List.of(stockKey, leaseKey), "2000");
+
+        // 只归还 node-a 的保留数量，本地已转为可售的10件随节点宕机丢失
+        assertEquals(40L, swept);
+        assertEquals(70, stock(stockKey));
+        assertFalse(redis.opsForHash().hasKey(leaseKey, "node-a"));
+        assertFalse(redis.opsForHash().hasKey(leaseKey, "node-a:exp"));
+        assertEquals(15, reserved("node-b"));
+        assertEquals(0L, redis.execute(SWEEP_LEASES, List.of(stockKey, leaseKey), "2000"));
+    }
+
+    @Test
+    public void testJournalRecordsEveryMovement() {
+        List<String> keys = List.of(stockKey, leaseKey, journalKey);
+        redis.execute(LEASE_STOCK, keys, "50", "10", "node-a", "1000");
+        redis.execute(RETURN_LEASE, keys, "node-b", "0", "0");
+        redis.execute(SWEEP_LEASES, keys, "2000");
+        redis.execute(REVOKE_LEASES, keys, "80");
+
+        List<MapRecord<String, Object, Object>> records = redis.opsForStream().range(journalKey, Range.unbounded());
+        // 没有归还数量的 return_lease 不写日志
+        assertEquals(List.of("lease", "lease_expired", "set"),
+                records.stream().map(r -> r.getValue().get("reason").toString()).toList());
+        long delta = records.stream().mapToLong(r -> Long.parseLong(r.getValue().get("delta").toString())).sum();
+        assertEquals(stock(stockKey) - 100, delta);
+    }
+}
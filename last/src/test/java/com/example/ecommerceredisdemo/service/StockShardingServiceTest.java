@@ -0,0 +1,162 @@
+package com.example.ecommerceredisdemo.service;
+
+import com.example.ecommerceredisdemo.RedisScriptTestSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 分片库存集成测试：分桶扣减、开启/关闭分片时主key与分桶之间的搬移，
+ * 以及切换宽限期内尚未收到新配置的节点写到旧key上的库存
+ */
+public class StockShardingServiceTest extends RedisScriptTestSupport {
+
+    private static final String SHARD_CONFIG_KEY = "stock:shard:config";
+    private static final String MIGRATING_KEY = "stock:shard:migrating";
+
+    private StockShardingService stockShardingService;
+    private String productId;
+    private String stockKey;
+
+    @BeforeEach
+    public void setUp() {
+        StockJournalService stockJournalService = mock(StockJournalService.class);
+        when(stockJournalService.scriptKeys(anyString())).thenAnswer(invocation -> List.of(invocation.getArgument(0, String.class)));
+
+        stockShardingService = new StockShardingService();
+        ReflectionTestUtils.setField(stockShardingService, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(stockShardingService, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(stockShardingService, "stockJournalService", stockJournalService);
+        stockShardingService.init();
+
+        productId = randomProductId();
+        stockKey = PRODUCT_STOCK_PREFIX + productId;
+        redis.opsForValue().set(stockKey, "103");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        List<String> keys = new ArrayList<>(stockShardingService.getBucketKeys(productId, 8));
+        keys.add(stockKey);
+        redis.delete(keys);
+        redis.opsForHash().delete(SHARD_CONFIG_KEY, productId);
+        redis.opsForHash().delete(MIGRATING_KEY, productId);
+    }
+
+    /**
+     * 模拟上一次切换的宽限期已结束（定时任务已清理切换记录）
+     */
+    private void finishGracePeriod() {
+        redis.opsForHash().delete(MIGRATING_KEY, productId);
+    }
+
+    @Test
+    public void testEnableSplitsStockAcrossBuckets() {
+        assertEquals(103L, stockShardingService.enableSharding(productId, 4));
+
+        assertEquals(0, stock(stockKey));
+        assertEquals(List.of("26", "26", "26", "25"),
+                redis.opsForValue().multiGet(stockShardingService.getBucketKeys(productId, 4)));
+        assertEquals(103L, stockShardingService.getCurrentStock(productId));
+        assertEquals("4", redis.opsForHash().get(SHARD_CONFIG_KEY, productId));
+        assertTrue(redis.opsForHash().get(MIGRATING_KEY, productId).toString().startsWith("enabled:4:"));
+    }
+
+    @Test
+    public void testDecrementProbesOtherBuckets() {
+        stockShardingService.enableSharding(productId, 4);
+        // 只剩一个分桶有库存，任意起始分桶都能探测到
+        redis.opsForValue().set(stockShardingService.getBucketKey(productId, 0), "0");
+        redis.opsForValue().set(stockShardingService.getBucketKey(productId, 1), "0");
+        redis.opsForValue().set(stockShardingService.getBucketKey(productId, 2), "2");
+        redis.opsForValue().set(stockShardingService.getBucketKey(productId, 3), "0");
+
+        assertEquals(1L, stockShardingService.decrementStock(productId, 1));
+        assertEquals(0L, stockShardingService.decrementStock(productId, 1));
+        assertEquals(-1L, stockShardingService.decrementStock(productId, 1));
+        assertEquals(0L, stockShardingService.getCurrentStock(productId));
+    }
+
+    @Test
+    public void testDisableMergesBucketsBack() {
+        stockShardingService.enableSharding(productId, 4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(stockShardingService.decrementStock(productId, 1) >= 0);
+        }
+        finishGracePeriod();
+
+        assertEquals(93L, stockShardingService.disableSharding(productId));
+
+        assertEquals(93, stock(stockKey));
+        assertFalse(stockShardingService.isSharded(productId));
+        assertNull(redis.opsForHash().get(SHARD_CONFIG_KEY, productId));
+        assertTrue(redis.opsForHash().get(MIGRATING_KEY, productId).toString().startsWith("disabled:4:"));
+        // 宽限期内分桶清零保留，供尚未收到新配置的节点访问
+        assertEquals(List.of("0", "0", "0", "0"),
+                redis.opsForValue().multiGet(stockShardingService.getBucketKeys(productId, 4)));
+    }
+
+    @Test
+    public void testDrainMovesStockReturnedToOldKeys() {
+        stockShardingService.enableSharding(productId, 4);
+        // 尚未收到开启配置的节点把库存归还到主key
+        redis.opsForValue().increment(stockKey, 5);
+
+        stockShardingService.drainMigrations();
+        assertEquals(0, stock(stockKey));
+        assertEquals(108L, stockShardingService.getCurrentStock(productId));
+
+        finishGracePeriod();
+        stockShardingService.disableSharding(productId);
+        // 尚未收到关闭配置的节点把库存归还到分桶
+        redis.opsForValue().increment(stockShardingService.getBucketKey(productId, 2), 3);
+
+        stockShardingService.drainMigrations();
+        assertEquals(111, stock(stockKey));
+    }
+
+    @Test
+    public void testDrainCleansUpAfterGracePeriod() {
+        stockShardingService.enableSharding(productId, 4);
+        finishGracePeriod();
+        stockShardingService.disableSharding(productId);
+        redis.opsForHash().put(MIGRATING_KEY, productId, "disabled:4:0");
+
+        stockShardingService.drainMigrations();
+
+        assertEquals(103, stock(stockKey));
+        assertNull(redis.opsForHash().get(MIGRATING_KEY, productId));
+        assertEquals(0L, redis.countExistingKeys(stockShardingService.getBucketKeys(productId, 4)));
+    }
+
+    @Test
+    public void testSoldOutNotConfirmedDuringMigration() {
+        stockShardingService.enableSharding(productId, 4);
+
+        // 切换登记未清理前库存不足不可信
+        assertFalse(stockShardingService.confirmLayout(productId, true));
+
+        finishGracePeriod();
+        assertTrue(stockShardingService.confirmLayout(productId, true));
+        assertFalse(stockShardingService.confirmLayout(productId, false));
+    }
+
+    @Test
+    public void testConcurrentMigrationRejected() {
+        stockShardingService.enableSharding(productId, 4);
+
+        assertThrows(IllegalStateException.class, () -> stockShardingService.disableSharding(productId));
+        assertEquals(4, stockShardingService.getShardCount(productId));
+        assertEquals(103L, stockShardingService.getCurrentStock(productId));
+    }
+}
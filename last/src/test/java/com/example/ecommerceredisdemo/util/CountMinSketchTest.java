@@ -0,0 +1,74 @@
+package com.example.ecommerceredisdemo.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void testEstimateNeverUnderCounts() {
+        CountMinSketch sketch = new CountMinSketch(256, 4);
+        // 2000 个不同的值远多于每行计数器，必然发生冲突
+        for (int i = 0; i < 2000; i++) {
+            for (int j = 0; j <= i % 5; j++) {
+                sketch.add("P" + i);
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(sketch.estimate("P" + i) >= i % 5 + 1, "商品 P" + i + " 被低估");
+        }
+    }
+
+    @Test
+    public void testEstimateWithinErrorBound() {
+        int width = 2048;
+        CountMinSketch sketch = new CountMinSketch(width, 5);
+        long total = 0;
+        for (int i = 0; i < 5000; i++) {
+            sketch.add("U" + i);
+            total++;
+        }
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("HOT");
+            total++;
+        }
+        // 误差上界 总次数 * e / width
+        long bound = (long) Math.ceil(total * Math.E / width);
+        assertTrue(sketch.estimate("HOT") - 1000 <= bound, "估计值: " + sketch.estimate("HOT"));
+        assertTrue(sketch.estimate("U1") - 1 <= bound, "估计值: " + sketch.estimate("U1"));
+    }
+
+    @Test
+    public void testAddReturnsEstimate() {
+        CountMinSketch sketch = new CountMinSketch(1024, 4);
+        assertEquals(1, sketch.add("P001"));
+        assertEquals(2, sketch.add("P001"));
+        assertEquals(2, sketch.estimate("P001"));
+        assertEquals(0, sketch.estimate("P002"));
+    }
+
+    @Test
+    public void testHalveDecaysCounts() {
+        CountMinSketch sketch = new CountMinSketch(1024, 4);
+        for (int i = 0; i < 9; i++) {
+            sketch.add("P001");
+        }
+        sketch.add("P002");
+
+        sketch.halve();
+        assertEquals(4, sketch.estimate("P001"));
+        assertEquals(0, sketch.estimate("P002"));
+
+        sketch.halve();
+        sketch.halve();
+        sketch.halve();
+        assertEquals(0, sketch.estimate("P001"));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(1024, 0));
+    }
+}